@@ -17,9 +17,17 @@
  */
 package havabol;
 
+import java.io.File;
+
+import havabol.ast.AstBuilder;
+import havabol.ast.ConstantFolder;
+import havabol.ast.Evaluator;
 import havabol.lexer.Scanner;
+import havabol.lexer.TokenCache;
 import havabol.parser.Parser;
 import havabol.storage.SymbolTable;
+import havabol.vm.Compiler;
+import havabol.vm.VM;
 
 public class HavaBol 
 {
@@ -28,9 +36,30 @@ public class HavaBol
         // Create the SymbolTable
         SymbolTable symbolTable = new SymbolTable();
         
-        if (args.length < 1) {
-        	System.err.println("Error: no arguments given");
-        	System.err.println("Usage: java havabol.HavaBol inputFile");
+        String sourceFile = null;
+        String engine = "interp";
+        TokenCache cache = null;
+        
+        // --engine=interp parses and runs in one pass (default),
+        // --engine=ast builds a syntax tree first, folds its constants and then runs it,
+        // --engine=vm compiles the syntax tree to bytecode and runs that
+        // --cache keeps the lexed tokens of each source in ~/.havabol/cache,
+        // --cache=dir keeps them in dir, so later runs skip lexing
+        for (String arg : args) {
+        	if (arg.startsWith("--engine=")) {
+        		engine = arg.substring("--engine=".length());
+        	} else if (arg.equals("--cache")) {
+        		cache = new TokenCache(new File(System.getProperty("user.home"), ".havabol" + File.separator + "cache"));
+        	} else if (arg.startsWith("--cache=")) {
+        		cache = new TokenCache(new File(arg.substring("--cache=".length())));
+        	} else if (sourceFile == null) {
+        		sourceFile = arg;
+        	}
+        }
+        
+        if (sourceFile == null || !(engine.equals("interp") || engine.equals("ast") || engine.equals("vm"))) {
+        	System.err.println(sourceFile == null ? "Error: no arguments given" : "Error: unknown engine " + engine);
+        	System.err.println("Usage: java havabol.HavaBol inputFile [--engine=interp|ast|vm] [--cache[=dir]]");
         	System.exit(-1);
         }
         
@@ -42,9 +71,15 @@ public class HavaBol
 //                    , "subClassif"
 //                    , "tokenStr");
             
-            Parser parser = new Parser(args[0], symbolTable);
+            Parser parser = new Parser(sourceFile, symbolTable, cache);
             
-            parser.beginParsing();
+            if (engine.equals("ast")) {
+            	new Evaluator(parser).execute(new ConstantFolder(parser).fold(new AstBuilder(parser).parseProgram()));
+            } else if (engine.equals("vm")) {
+            	new VM(parser).run(new Compiler().compile(new ConstantFolder(parser).fold(new AstBuilder(parser).parseProgram())));
+            } else {
+            	parser.beginParsing();
+            }
         }
         catch (Exception e)
         {
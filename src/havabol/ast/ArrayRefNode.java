@@ -0,0 +1,26 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * A single element of an array or character of a string, e.g. arr[i + 1].
+ */
+public class ArrayRefNode extends ExprNode {
+	
+	public String name;
+	// Frame slot of the variable, see SymbolTable.slot
+	public int slot;
+	public ExprNode index;
+	
+	public ArrayRefNode(Token token, String name, int slot, ExprNode index) {
+		super(token);
+		this.name = name;
+		this.slot = slot;
+		this.index = index;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitArrayRef(this);
+	}
+	
+}
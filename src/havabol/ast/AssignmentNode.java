@@ -0,0 +1,34 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+import havabol.runtime.Operators;
+
+/**
+ * An assignment to a whole variable using =, +=, -=, *= or /=.
+ */
+public class AssignmentNode extends StmtNode {
+	
+	public String name;
+	// Frame slot of the variable, see SymbolTable.slot
+	public int slot;
+	public String operator;
+	// Operators identifier of +, -, * or / for a compound assignment, -1 for =
+	public int compoundOperator;
+	public ExprNode value;
+	// Right hand side is a lone identifier, e.g. fixedM = otherM;
+	public boolean copiesVariable;
+	
+	public AssignmentNode(Token token, String name, int slot, String operator, ExprNode value) {
+		super(token);
+		this.name = name;
+		this.slot = slot;
+		this.operator = operator;
+		this.compoundOperator = operator.equals("=") ? -1 : Operators.operatorId(operator.substring(0, 1));
+		this.value = value;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitAssignment(this);
+	}
+	
+}
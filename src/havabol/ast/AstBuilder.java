@@ -0,0 +1,929 @@
+package havabol.ast;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Stack;
+
+import havabol.error.*;
+import havabol.lexer.*;
+import havabol.parser.Parser;
+import havabol.parser.Value;
+import havabol.runtime.Operators;
+import havabol.storage.*;
+
+/**
+ * Parses a whole Havabol program into a syntax tree in a single pass over
+ * the token stream. Nothing is executed while building; see Evaluator.
+ *
+ * The grammar, expression precedence and syntax error messages follow
+ * Parser so both engines accept the same programs.
+ */
+public class AstBuilder {
+
+	private Scanner scanner;
+	// Resolves variable names to frame slots as nodes are built
+	private SymbolTable symbolTable;
+
+	// Number of enclosing while/for loops, to validate break and continue
+	private int loopDepth = 0;
+	// True while parsing the arguments of print
+	private boolean print = false;
+
+	/**
+	 * Function/Constructor: AstBuilder
+	 * @param parser parser whose scanner supplies the tokens
+	 */
+	public AstBuilder(Parser parser) {
+		this.scanner = parser.scanner;
+		this.symbolTable = parser.symbolTable;
+	}
+
+	/**
+	 * Function: parseProgram
+	 * Purpose: parses every statement up to the end of the source file
+	 * @return the block of top level statements
+	 */
+	public BlockNode parseProgram() {
+		scanner.getNext();
+		Token first = scanner.currentToken;
+		List<StmtNode> statements = new ArrayList<>();
+		while (scanner.currentToken.primClassif != Token.EOF) {
+			StmtNode stmt = parseStatement();
+			if (stmt != null) {
+				statements.add(stmt);
+			}
+		}
+		return new BlockNode(first, statements);
+	}
+
+	/**
+	 * Function: parseBlock
+	 * Purpose: parses statements until one of the given end tokens is reached.
+	 * 			currentToken is left on that end token.
+	 * @param terminators token strings that end the block
+	 * @return the block of statements
+	 */
+	private BlockNode parseBlock(String... terminators) {
+		Token first = scanner.currentToken;
+		List<StmtNode> statements = new ArrayList<>();
+		for (;;) {
+			for (String terminator : terminators) {
+				if (scanner.currentToken.tokenStr.equals(terminator)) {
+					return new BlockNode(first, statements);
+				}
+			}
+			if (scanner.currentToken.primClassif == Token.EOF) {
+				throw new SyntaxError("Expected `" + terminators[terminators.length - 1] + "` before end of file", scanner.currentToken);
+			}
+			StmtNode stmt = parseStatement();
+			if (stmt != null) {
+				statements.add(stmt);
+			}
+		}
+	}
+
+	/**
+	 * Function: parseStatement
+	 * Preconditions:
+	 *  - currentToken is the first token in a statement
+	 * Postconditions:
+	 *  - currentToken is the first token after the statement's semicolon
+	 * @return the statement, or null for an empty statement
+	 */
+	private StmtNode parseStatement() {
+
+		Token token = scanner.currentToken;
+		StmtNode stmt;
+
+		if (token.subClassif == Token.IDENTIFIER && token.tokenStr.equals("debug")) {
+			stmt = parseDebugStatement();
+		} else if (token.subClassif == Token.IDENTIFIER
+				&& (token.tokenStr.equals("continue") || token.tokenStr.equals("break"))) {
+			if (loopDepth == 0) {
+				throw new SyntaxError("Statement needs to be within a for or a while loop", token);
+			}
+			scanner.getNext();
+			stmt = new BreakNode(token, token.tokenStr.equals("continue"));
+		} else if (token.primClassif == Token.CONTROL) {
+			if (token.subClassif == Token.DECLARE) {
+				stmt = parseDeclaration();
+			} else if (token.subClassif == Token.FLOW) {
+				switch (token.tokenStr) {
+				case "if":
+					stmt = parseIf();
+					break;
+				case "while":
+					stmt = parseWhile();
+					break;
+				case "for":
+					// the semi-colon after endfor is parsed as an empty statement
+					return parseFor();
+				case "select":
+					stmt = parseSelect();
+					break;
+				default:
+					throw new UnsupportedOperationError("Unsupported FLOW token found.");
+				}
+			} else {
+				throw new SyntaxError("Unexpected control token found: " + token.tokenStr, token);
+			}
+		} else if (token.primClassif == Token.FUNCTION) {
+			stmt = new CallStmtNode(parseFunctionCall());
+			scanner.getNext(); // pass ")"
+		} else if (token.primClassif == Token.OPERAND) {
+			if (token.subClassif == Token.IDENTIFIER) {
+				stmt = parseAssignment();
+			} else {
+				throw new UnsupportedOperationError("Left value must be identifier.");
+			}
+		} else if (token.tokenStr.equals(";")) {
+			scanner.getNext();
+			return null;
+		} else {
+			throw new UnsupportedOperationError("Unexpected token '" + token.tokenStr + "' found while parsing statements.");
+		}
+
+		if (scanner.currentToken.primClassif == Token.EOF) {
+			return stmt;
+		}
+
+		if (scanner.currentToken.tokenStr.equals(";")) {
+			scanner.getNext();
+		} else {
+			throw new SyntaxError("Expected semi-colon to end statement\n", scanner.currentToken);
+		}
+
+		return stmt;
+	}
+
+	/**
+	 * Function: parseDebugStatement
+	 * Preconditions:
+	 *  - currentToken is "debug"
+	 * Purpose: debug token takes effect right away since tokens are only
+	 * 			read while parsing; the other settings apply when executed
+	 */
+	private StmtNode parseDebugStatement() {
+
+		Token debugToken = scanner.currentToken;
+		String debugArg = scanner.getNext();
+		String toggleStr = scanner.getNext().toLowerCase(); // on or off
+		boolean desiredState = false;
+
+		if (toggleStr.equals("on")) {
+			desiredState = true;
+		} else if (toggleStr.equals("off")) {
+			desiredState = false;
+		} else {
+			throw new SyntaxError("Expected `on` or `off` in debug statement", scanner.currentToken);
+		}
+
+		String kind;
+		switch (debugArg.toLowerCase()) {
+		case "assign":
+		case "assignment":
+			kind = "assignment";
+			break;
+		case "expr":
+		case "expression":
+			kind = "expression";
+			break;
+		case "token":
+			kind = "token";
+			scanner.debugToken = desiredState;
+			break;
+		default:
+			throw new SyntaxError("Found unsupported \"debug\" argument", scanner.currentToken);
+		}
+
+		scanner.getNext();
+
+		return new DebugNode(debugToken, kind, desiredState);
+	}
+
+	/**
+	 * Function: parseIf
+	 * Preconditions:
+	 *  - currentToken is "if"
+	 * Postconditions:
+	 *  - currentToken is the token after "endif"
+	 */
+	private StmtNode parseIf() {
+
+		Token ifToken = scanner.currentToken;
+		scanner.getNext();
+
+		ExprNode condition = parseExpression();
+
+		if (!scanner.currentToken.tokenStr.equals(":")) {
+			throw new SyntaxError("Expected ':' after conditional expression in if", scanner.iSourceLineNr);
+		}
+		Token colon = scanner.currentToken;
+		scanner.getNext();
+
+		BlockNode thenBlock = parseBlock("else", "endif");
+		BlockNode elseBlock = null;
+
+		if (scanner.currentToken.tokenStr.equals("else")) {
+			if (!scanner.getNext().equals(":")) {
+				throw new SyntaxError("Expected ':' after else", scanner.currentToken);
+			}
+			scanner.getNext();
+			elseBlock = parseBlock("endif");
+		}
+
+		scanner.getNext(); // pass "endif"
+
+		IfNode node = new IfNode(ifToken, condition, thenBlock, elseBlock);
+		node.end = colon;
+		return node;
+	}
+
+	/**
+	 * Function: parseWhile
+	 * Preconditions:
+	 *  - currentToken is "while"
+	 * Postconditions:
+	 *  - currentToken is the token after "endwhile"
+	 */
+	private StmtNode parseWhile() {
+
+		Token whileToken = scanner.currentToken;
+		scanner.getNext();
+
+		ExprNode condition = parseExpression();
+
+		if (!scanner.currentToken.tokenStr.equals(":")) {
+			throw new SyntaxError("Expected : after while conditional expression", scanner.currentToken);
+		}
+		Token colon = scanner.currentToken;
+		scanner.getNext();
+
+		loopDepth++;
+		BlockNode body = parseBlock("endwhile");
+		loopDepth--;
+
+		scanner.getNext(); // pass "endwhile"
+
+		WhileNode node = new WhileNode(whileToken, condition, body);
+		node.end = colon;
+		return node;
+	}
+
+	/**
+	 * Function: parseFor
+	 * Preconditions:
+	 *  - currentToken is "for"
+	 * Postconditions:
+	 *  - currentToken is the token after "endfor"
+	 * Possible for loops:
+	 *    for i = 1 to 15 by 3:
+	 *    for x in arr:
+	 *    for word from str by " ":
+	 */
+	private StmtNode parseFor() {
+
+		Token forToken = scanner.currentToken;
+		scanner.getNext(); // get past for
+
+		if (scanner.currentToken.subClassif != Token.IDENTIFIER) {
+			throw new SyntaxError("Expected control variable after for", scanner.currentToken);
+		}
+		String cv = scanner.currentToken.tokenStr;
+
+		StmtNode node;
+
+		switch (scanner.getNext()) {
+		case "=":
+			scanner.getNext();
+			ExprNode start = parseExpression();
+
+			if (!scanner.currentToken.tokenStr.equals("to")) {
+				throw new SyntaxError("Expected to clause in for loop", scanner.currentToken);
+			}
+			scanner.getNext(); // get past "to"
+
+			ExprNode limit = parseExpression();
+			ExprNode incr = null;
+
+			switch (scanner.currentToken.tokenStr) {
+			case "by":
+				scanner.getNext();
+				incr = parseExpression();
+				break;
+			case ":":
+				break;
+			default:
+				throw new SyntaxError("Expected : or by clause in for loop", scanner.currentToken);
+			}
+
+			node = new ForCountNode(forToken, cv, start, limit, incr, null);
+			break;
+		case "in":
+			scanner.getNext();
+
+			Token source = scanner.currentToken;
+			if (source.subClassif != Token.IDENTIFIER) {
+				throw new SyntaxError("Expected a string or array variable to iterate over", source);
+			}
+
+			ExprNode iterable = null;
+			if (!scanner.nextToken.tokenStr.equals(":")) {
+				iterable = parseExpression();
+			} else {
+				scanner.getNext();
+			}
+
+			node = new ForInNode(forToken, cv, source, iterable, null);
+			break;
+		case "from":
+			scanner.getNext();
+			ExprNode str = parseExpression();
+
+			if (!scanner.currentToken.tokenStr.equals("by")) {
+				throw new SyntaxError("Expected by clause in for loop", scanner.currentToken);
+			}
+			scanner.getNext(); // get past "by"
+
+			ExprNode delimiter = parseExpression();
+
+			node = new ForFromNode(forToken, cv, str, delimiter, null);
+			break;
+		default:
+			throw new SyntaxError("Expected =, in or from after for control variable", scanner.currentToken);
+		}
+
+		if (!scanner.currentToken.tokenStr.equals(":")) {
+			throw new SyntaxError("Expected : after for loop clause", scanner.currentToken);
+		}
+		node.end = scanner.currentToken;
+		scanner.getNext();
+
+		loopDepth++;
+		BlockNode body = parseBlock("endfor");
+		loopDepth--;
+
+		scanner.getNext(); // pass "endfor"
+
+		if (node instanceof ForCountNode) {
+			((ForCountNode) node).body = body;
+		} else if (node instanceof ForInNode) {
+			((ForInNode) node).body = body;
+		} else {
+			((ForFromNode) node).body = body;
+		}
+
+		return node;
+	}
+
+	/**
+	 * Function: parseSelect
+	 * Preconditions:
+	 *  - currentToken is "select"
+	 * Postconditions:
+	 *  - currentToken is the token after "endselect"
+	 */
+	private StmtNode parseSelect() {
+
+		Token selectToken = scanner.currentToken;
+		scanner.getNext();
+
+		// cases are compared against the variable named by the first token
+		String cv = scanner.currentToken.tokenStr;
+		ExprNode control = parseExpression();
+
+		if (!scanner.currentToken.tokenStr.equals(":")) {
+			throw new SyntaxError("Expected ':' after conditional expression in select", scanner.currentToken);
+		}
+		Token colon = scanner.currentToken;
+		scanner.getNext(); // advance past :
+
+		List<SelectNode.When> whens = new ArrayList<>();
+		BlockNode defaultBlock = null;
+
+		for (;;) {
+			if (scanner.currentToken.tokenStr.equals("when")) {
+				scanner.getNext();
+				ValueListNode values = parseValueList(null);
+				if (!scanner.currentToken.tokenStr.equals(":")) {
+					throw new SyntaxError("Expected ':' after values in when", scanner.currentToken);
+				}
+				scanner.getNext();
+				whens.add(new SelectNode.When(values, parseBlock("when", "default", "endselect")));
+			} else if (scanner.currentToken.tokenStr.equals("default")) {
+				if (!scanner.getNext().equals(":")) {
+					throw new SyntaxError("Expected ':' after default", scanner.currentToken);
+				}
+				scanner.getNext();
+				defaultBlock = parseBlock("endselect");
+			} else if (scanner.currentToken.tokenStr.equals("endselect")) {
+				scanner.getNext();
+				break;
+			} else {
+				throw new SyntaxError("Expected when, default or endselect in select", scanner.currentToken);
+			}
+		}
+
+		SelectNode node = new SelectNode(selectToken, cv, control, whens, defaultBlock);
+		node.end = colon;
+		return node;
+	}
+
+	/**
+	 * Function: parseDeclaration
+	 * Preconditions:
+	 *    - currentToken is a data type control token
+	 * Postconditions:
+	 *    - currentToken is the semi-colon ending the declaration
+	 */
+	private StmtNode parseDeclaration() {
+
+		Token typeToken = scanner.currentToken;
+		DataType declaredType = DataType.stringToType(typeToken.tokenStr);
+
+		scanner.getNext(); // currentToken should be identifier
+
+		if (scanner.currentToken.subClassif != Token.IDENTIFIER) {
+			throw new DeclarationError("Expected an identifier", scanner.nextToken);
+		}
+		String identifier = scanner.currentToken.tokenStr;
+
+		DeclarationNode node;
+
+		// Next token is either "=" (primitive) or "[" (array)
+		switch (scanner.getNext()) {
+		case "=":
+			node = new DeclarationNode(typeToken, declaredType, identifier, StorageStructure.PRIMITIVE);
+			scanner.getNext();
+			node.init = parseExpression();
+			break;
+		case "[":
+			switch (scanner.getNext()) {
+			case "unbound":
+				node = new DeclarationNode(typeToken, declaredType, identifier, StorageStructure.UNBOUNDED_ARRAY);
+
+				if (!scanner.getNext().equals("]")) {
+					throw new SyntaxError("Expected ] after unbound in array declaration", scanner.currentToken);
+				}
+
+				switch (scanner.getNext()) {
+				case "=": // value list will follow
+					scanner.getNext();
+					node.values = parseValueList(declaredType);
+					break;
+				case ";":
+					break;
+				default:
+					throw new SyntaxError("Expected assignment or semi-colon after array declaration", scanner.currentToken);
+				}
+				break;
+			case "]":
+				// Array size depends on the length of given value list
+				node = new DeclarationNode(typeToken, declaredType, identifier, StorageStructure.FIXED_ARRAY);
+
+				if (!scanner.getNext().equals("=")) {
+					throw new SyntaxError("Expected value list for array declared without a size", scanner.currentToken);
+				}
+				scanner.getNext();
+				node.values = parseValueList(declaredType);
+				break;
+			default:
+				// Array size might be an expression
+				node = new DeclarationNode(typeToken, declaredType, identifier, StorageStructure.FIXED_ARRAY);
+				node.size = parseExpression();
+
+				if (!scanner.currentToken.tokenStr.equals("]")) {
+					throw new SyntaxError("Expected a closing parenthesis ']'");
+				}
+
+				switch (scanner.getNext()) {
+				case ";":
+					break;
+				case "=":
+					scanner.getNext();
+					node.values = parseValueList(declaredType);
+					break;
+				default:
+					throw new SyntaxError("Expected = or ; after array declaration", scanner.currentToken);
+				}
+				break;
+			}
+			break;
+		case ";": // no initialization clause
+			node = new DeclarationNode(typeToken, declaredType, identifier, StorageStructure.PRIMITIVE);
+			break;
+		default:
+			throw new SyntaxError("Expected an assignment '=', array type specifier, or semicolon in declaration", scanner.currentToken);
+		}
+
+		node.end = scanner.currentToken;
+		return node;
+	}
+
+	/**
+	 * Function: parseValueList
+	 * Preconditions:
+	 * 		currentToken is the beginning of a value list, optionally "{"
+	 * Postconditions:
+	 * 		currentToken is the ";", ":" or "}" ending the list
+	 * @param declaredType element type of the array the list initializes,
+	 * 			null if it is not a declaration
+	 * @return the value list
+	 */
+	private ValueListNode parseValueList(DataType declaredType) {
+
+		if (scanner.currentToken.tokenStr.equals("{")) {
+			scanner.getNext();
+		}
+
+		Token first = scanner.currentToken;
+		Value firstValue = first.toResult();
+		if (declaredType == DataType.FLOAT && firstValue.dataType == DataType.INTEGER) {
+			// so the Float elements after it keep their fraction
+			firstValue = new Value((double) firstValue.intValue);
+		}
+		List<LiteralNode> items = new ArrayList<>();
+		items.add(new LiteralNode(first, firstValue));
+
+		// next token must be either ";" or ","
+		switch (scanner.getNext()) {
+		case ",":
+			break;
+		case ";":
+		case ":":
+			return new ValueListNode(first, items);
+		default:
+			throw new SyntaxError("Expected , or ; after element in value list", scanner.currentToken);
+		}
+
+		scanner.getNext(); // pass ","
+
+		for (;;) {
+			Token elem = scanner.currentToken;
+			items.add(new LiteralNode(elem, elem.toResult()));
+
+			switch (scanner.getNext()) {
+			case ",":
+				scanner.getNext();
+				continue;
+			case ";":
+			case ":":
+			case "}":
+				return new ValueListNode(first, items);
+			default:
+				throw new SyntaxError("Expected , or ; after element in value list", scanner.currentToken);
+			}
+		}
+	}
+
+	/**
+	 * Function: parseAssignment
+	 * Preconditions:
+	 *    - currentToken is an identifier
+	 * Postconditions:
+	 *    - currentToken is the token ending the right hand side
+	 */
+	private StmtNode parseAssignment() {
+
+		Token identToken = scanner.currentToken;
+		String identifier = identToken.tokenStr;
+
+		String token = scanner.getNext();
+
+		if (token.contains("=")) {
+
+			switch (token) {
+			case "=":
+			case "+=":
+			case "-=":
+			case "*=":
+			case "/=":
+				break;
+			default:
+				throw new SyntaxError("Expected assignment operator as part of assignment", scanner.nextToken);
+			}
+
+			scanner.getNext();
+
+			// fixedM = myArray; copies elements instead of evaluating myArray
+			boolean copiesVariable = token.equals("=")
+					&& scanner.currentToken.subClassif == Token.IDENTIFIER
+					&& scanner.nextToken.tokenStr.equals(";");
+
+			AssignmentNode node = new AssignmentNode(identToken, identifier, symbolTable.slot(identifier), token, parseExpression());
+			node.copiesVariable = copiesVariable;
+			node.end = scanner.currentToken;
+			return node;
+
+		} else if (token.equals("[")) {
+
+			scanner.getNext(); // get array index for assignment
+
+			ExprNode beginIndex = null;
+			ExprNode endIndex = null;
+			boolean isSlice = false;
+
+			if (scanner.currentToken.tokenStr.equals("~")) {
+				isSlice = true;
+				scanner.getNext();
+				endIndex = parseExpression();
+			} else {
+				beginIndex = parseExpression();
+			}
+
+			if (scanner.currentToken.tokenStr.equals("~")) {
+				isSlice = true;
+				scanner.getNext();
+				if (!scanner.currentToken.tokenStr.equals("]")) {
+					endIndex = parseExpression();
+				}
+			}
+
+			if (!scanner.currentToken.tokenStr.equals("]")) {
+				throw new SyntaxError("Expected closing bracket after index in assignment", scanner.currentToken);
+			}
+
+			if (!scanner.getNext().equals("=")) {
+				throw new SyntaxError("Expected assignment operator after array reference in assignment", scanner.currentToken);
+			}
+
+			scanner.getNext();
+
+			IndexedAssignmentNode node = new IndexedAssignmentNode(identToken, identifier, symbolTable.slot(identifier), beginIndex, endIndex, isSlice, parseExpression());
+			node.end = scanner.currentToken;
+			return node;
+
+		} else {
+			throw new SyntaxError("Expected array reference or assignment operator", scanner.currentToken);
+		}
+	}
+
+	/**
+	 * Function: parseArrayRef
+	 * Preconditions:
+	 * 	- currentToken is an identifier followed by "["
+	 * Postconditions:
+	 *  - currentToken is the closing "]"
+	 * @return an element reference or a slice
+	 */
+	private ExprNode parseArrayRef() {
+
+		Token nameToken = scanner.currentToken;
+		String arrayName = nameToken.tokenStr;
+
+		scanner.getNext(); // "["
+		scanner.getNext();
+
+		ExprNode node;
+
+		if (scanner.currentToken.tokenStr.equals("~")) {
+			// no begin slice
+			scanner.getNext();
+			node = new SliceNode(nameToken, arrayName, symbolTable.slot(arrayName), null, parseExpression());
+		} else {
+
+			ExprNode index = parseExpression();
+
+			switch (scanner.currentToken.tokenStr) {
+			case "]":
+				node = new ArrayRefNode(nameToken, arrayName, symbolTable.slot(arrayName), index);
+				break;
+			case "~":
+				scanner.getNext();
+				if (scanner.currentToken.tokenStr.equals("]")) {
+					node = new SliceNode(nameToken, arrayName, symbolTable.slot(arrayName), index, null);
+				} else {
+					node = new SliceNode(nameToken, arrayName, symbolTable.slot(arrayName), index, parseExpression());
+				}
+				break;
+			default:
+				throw new SyntaxError("Expected ] or slice operator ~", scanner.currentToken);
+			}
+		}
+
+		if (!scanner.currentToken.tokenStr.equals("]")) {
+			throw new SyntaxError("Expected ] to end array slice", scanner.currentToken);
+		}
+
+		node.end = scanner.currentToken;
+		return node;
+	}
+
+	/**
+	 * Function: parseFunctionCall
+	 * Preconditions:
+	 *    - currentToken is the name of a function
+	 * Postconditions:
+	 * 	  - currentToken is the closing parenthesis of the function call
+	 * @return the function call
+	 */
+	private CallNode parseFunctionCall() {
+
+		Token nameToken = scanner.currentToken;
+		String calledFunction = nameToken.tokenStr;
+
+		if (!scanner.getNext().equals("(")) {
+			throw new SyntaxError("Expected left parenthesis after function name", scanner.currentToken);
+		}
+
+		scanner.getNext(); // currentToken is beginning of first arg expression or )
+		List<ExprNode> args = new ArrayList<>();
+
+		switch (calledFunction) {
+		case "print":
+			print = true;
+			if (!scanner.currentToken.tokenStr.equals(")")) {
+				for (;;) {
+					args.add(parseExpression());
+					if (scanner.currentToken.tokenStr.equals(",")) {
+						scanner.getNext();
+					} else if (scanner.currentToken.tokenStr.equals(")")) {
+						break;
+					} else {
+						throw new SyntaxError("Expected `,` or `)` in function call", scanner.currentToken);
+					}
+				}
+			}
+			print = false;
+			break;
+		case "ELEM":
+		case "MAXELEM":
+			args.add(new IdentifierNode(scanner.currentToken, scanner.currentToken.tokenStr, symbolTable.slot(scanner.currentToken.tokenStr)));
+			scanner.getNext();
+			break;
+		case "LENGTH":
+		case "SPACES":
+			args.add(parseExpression());
+			break;
+		case "dateDiff":
+		case "dateAdj":
+		case "dateAge":
+			args.add(parseExpression());
+			if (!scanner.currentToken.tokenStr.equals(",")) {
+				throw new SyntaxError("Expected `,` between arguments in function call", scanner.currentToken);
+			}
+			scanner.getNext();
+			args.add(parseExpression());
+			break;
+		default:
+			throw new DeclarationError("Attempted to call undefined function " + calledFunction);
+		}
+
+		if (!scanner.currentToken.tokenStr.equals(")")) {
+			throw new SyntaxError("Expected `)` to end function call", scanner.currentToken);
+		}
+
+		CallNode node = new CallNode(nameToken, calledFunction, args);
+		node.end = scanner.currentToken;
+		return node;
+	}
+
+	/**
+	 * Function: parseExpression
+	 * Preconditions: currentToken is the first token of an infix expression
+	 * Postconditions: currentToken is the token that ended the expression
+	 * Purpose: converts an infix expression into a tree using the same
+	 * 			operator precedence and stack rules as Parser.parseExpression.
+	 * 			Operators missing operands are kept and reported when evaluated.
+	 * @return the root of the expression tree
+	 */
+	private ExprNode parseExpression() {
+
+		Stack<ExprNode> operands = new Stack<>();
+		Stack<Token> operators = new Stack<>();
+		List<ExprNode> built = new ArrayList<>();
+		boolean containsOperator = false;
+		String token = scanner.currentToken.tokenStr;
+
+		while (!(token.equals(";") || token.equals(":") || token.equals(",") || token.equals("~") || token.equals("]") ||
+				token.equals("to") || token.equals("in") ||  token.equals("by")))
+		{
+			Token current = scanner.currentToken;
+
+			if (current.primClassif == Token.OPERAND) {
+				ExprNode operand;
+				if (current.subClassif == Token.IDENTIFIER && scanner.nextToken.tokenStr.equals("[")) {
+					operand = parseArrayRef();
+				} else if (current.subClassif == Token.IDENTIFIER) {
+					operand = new IdentifierNode(current, token, symbolTable.slot(token));
+					built.add(operand);
+				} else {
+					operand = new LiteralNode(current, current.toResult());
+					built.add(operand);
+				}
+				operands.push(operand);
+			} else if (current.primClassif == Token.FUNCTION) {
+				operands.push(parseFunctionCall());
+				if (scanner.nextToken.tokenStr.equals(";")) {
+					// like Parser, a call followed by ; ends the expression on its ")"
+					break;
+				}
+			} else if (token.equals("{")) {
+				ExprNode valueList = parseValueList(null);
+				built.add(valueList);
+				operands.push(valueList);
+			} else if (current.primClassif == Token.OPERATOR) {
+				containsOperator = true;
+				while (!operators.isEmpty()) {
+					if (precedence(Parser.precedence, current) > precedence(Parser.stkPrecedence, operators.peek())) {
+						break;
+					}
+					reduce(operators.pop(), operands, built);
+				}
+				operators.push(current);
+			} else if (current.primClassif == Token.SEPARATOR) {
+				if (token.equals("(")) {
+					operators.push(current);
+				} else if (token.equals(")")) {
+					boolean lParen = false;
+					while (!operators.isEmpty()) {
+						Token popped = operators.pop();
+						if (popped.tokenStr.equals("(")) {
+							lParen = true;
+						} else {
+							reduce(popped, operands, built);
+						}
+					}
+					if (!lParen) {
+						// parenthesis belongs to an enclosing function call
+						break;
+					}
+				} else {
+					throw new SyntaxError("Invalid separator token '" + token + "' found in expression",
+							current.iSourceLineNr, current.iColPos);
+				}
+			} else {
+				throw new SyntaxError("Invalid token '" + token + "' found in expression",
+						current.iSourceLineNr, current.iColPos);
+			}
+			token = scanner.getNext();
+		}
+
+		while (!operators.isEmpty()) {
+			Token popped = operators.pop();
+			if (popped.tokenStr.equals("(")) {
+				throw new SyntaxError("Missing right parenthesis for '(' found",
+						scanner.currentToken.iSourceLineNr, scanner.currentToken.iColPos);
+			}
+			reduce(popped, operands, built);
+		}
+
+		if (operands.isEmpty()) {
+			throw new UnsupportedOperationError("Invalid Expression found. There are too few operands for the operators provided"
+					, scanner.currentToken);
+		}
+
+		ExprNode result = operands.pop();
+		if (print && !operands.isEmpty()) {
+			throw new SyntaxError("Expected a `,` to separate values in print", scanner.previous);
+		}
+
+		// operators run once the whole expression has been read
+		for (ExprNode node : built) {
+			node.end = scanner.currentToken;
+		}
+		result.containsOperator = containsOperator;
+
+		return result;
+	}
+
+	/**
+	 * Function: reduce
+	 * Purpose: pops the operands of an operator and pushes the operator node.
+	 * 			Missing operands are left null.
+	 */
+	private void reduce(Token operator, Stack<ExprNode> operands, List<ExprNode> built) {
+
+		ExprNode node;
+
+		if (Operators.isUnary(Operators.operatorId(operator.tokenStr))) {
+			node = new UnaryNode(operator, operands.isEmpty() ? null : operands.pop());
+		} else {
+			ExprNode right = operands.isEmpty() ? null : operands.pop();
+			ExprNode left = operands.isEmpty() ? null : operands.pop();
+			node = new BinaryNode(operator, left, right);
+		}
+
+		built.add(node);
+		operands.push(node);
+	}
+
+	/**
+	 * Function: precedence
+	 * @param table Parser.precedence or Parser.stkPrecedence
+	 * @param operator operator or parenthesis token
+	 * @return precedence of the token in the given table
+	 */
+	private static int precedence(HashMap<String, Integer> table, Token operator) {
+
+		Integer prec = table.get(operator.tokenStr.equals("!") ? "not" : operator.tokenStr);
+
+		if (prec == null) {
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.", operator);
+		}
+
+		return prec;
+	}
+
+}
@@ -0,0 +1,34 @@
+package havabol.ast;
+
+/**
+ * Operations over the Havabol syntax tree, one visit method per node class.
+ * @param <R> result type of the visit methods
+ */
+public interface AstVisitor<R> {
+	
+	// Expressions
+	R visitLiteral(LiteralNode node);
+	R visitIdentifier(IdentifierNode node);
+	R visitArrayRef(ArrayRefNode node);
+	R visitSlice(SliceNode node);
+	R visitCall(CallNode node);
+	R visitBinary(BinaryNode node);
+	R visitUnary(UnaryNode node);
+	R visitValueList(ValueListNode node);
+	
+	// Statements
+	R visitBlock(BlockNode node);
+	R visitDeclaration(DeclarationNode node);
+	R visitAssignment(AssignmentNode node);
+	R visitIndexedAssignment(IndexedAssignmentNode node);
+	R visitIf(IfNode node);
+	R visitWhile(WhileNode node);
+	R visitForCount(ForCountNode node);
+	R visitForIn(ForInNode node);
+	R visitForFrom(ForFromNode node);
+	R visitSelect(SelectNode node);
+	R visitBreak(BreakNode node);
+	R visitDebug(DebugNode node);
+	R visitCallStmt(CallStmtNode node);
+	
+}
@@ -0,0 +1,157 @@
+package havabol.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import havabol.lexer.Token;
+import havabol.parser.Parser;
+import havabol.parser.Value;
+import havabol.runtime.Operators;
+import havabol.storage.DataType;
+
+/**
+ * A binary operation. The operator is resolved to an Operators identifier.
+ *
+ * The node specializes itself to the operand types it sees. The first
+ * execution records them: two Ints, two Floats or two Strings select a
+ * variant that applies the operator without going through the coercing
+ * Operators methods, anything else selects the generic variant. A
+ * specialized node that sees other types rewrites itself to the generic
+ * variant for good, so a node never switches back and forth. Every variant
+ * computes what Operators.binary would.
+ *
+ * A chain of # operators is joined by its last node at once, see
+ * concatenation.
+ */
+public class BinaryNode extends ExprNode {
+	
+	// Variants of a node, see execute
+	public static final int UNINITIALIZED = 0;
+	public static final int INT = 1;
+	public static final int FLOAT = 2;
+	public static final int STRING = 3;
+	public static final int GENERIC = 4;
+	
+	public int operator;
+	public ExprNode left;
+	public ExprNode right;
+	public int specialization = UNINITIALIZED;
+	// Operands of the chain of # this node ends, see concatenation
+	private ExprNode[] chain;
+	
+	public BinaryNode(Token token, ExprNode left, ExprNode right) {
+		super(token);
+		this.operator = Operators.operatorId(token.tokenStr);
+		this.left = left;
+		this.right = right;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitBinary(this);
+	}
+	
+	/**
+	 * Function: execute
+	 * Purpose: applies the operator to evaluated operands through the
+	 * 			node's current variant, rewriting the variant when it does not
+	 * 			match the operand types
+	 * @param parser parser used for coercions and errors
+	 * @param op1 value of the left operand
+	 * @param op2 value of the right operand
+	 * @return the result of the operator
+	 */
+	public Value execute(Parser parser, Value op1, Value op2) {
+		switch (specialization) {
+		case INT:
+			if (op1.dataType == DataType.INTEGER && op2.dataType == DataType.INTEGER) {
+				return Operators.intBinary(parser, operator, op1.intValue, op2.intValue);
+			}
+			break;
+		case FLOAT:
+			if (op1.dataType == DataType.FLOAT && op2.dataType == DataType.FLOAT) {
+				return Operators.floatBinary(operator, op1.floatValue, op2.floatValue);
+			}
+			break;
+		case STRING:
+			if (op1.dataType == DataType.STRING && op2.dataType == DataType.STRING) {
+				return stringBinary(op1.text(), op2.text());
+			}
+			break;
+		case GENERIC:
+			return Operators.binary(parser, operator, op1, op2);
+		}
+		
+		// First execution or a miss, this execution takes the generic path
+		specialization = specialization == UNINITIALIZED ? select(op1, op2) : GENERIC;
+		return Operators.binary(parser, operator, op1, op2);
+	}
+	
+	/**
+	 * Function: concatenation
+	 * Purpose: collects the operands of the chain of # operators this node
+	 * 			ends, e.g. a, b and c for a # b # c. An operand that is a #
+	 * 			itself belongs to the chain, since # only ever gives a String,
+	 * 			so a # (b # c) has the same three operands.
+	 * @return the operands in the order they are evaluated, null if this is
+	 * 			not a # with both of its operands
+	 */
+	public ExprNode[] concatenation() {
+		if (chain == null && operator == Operators.CONCATENATE && left != null && right != null) {
+			List<ExprNode> operands = new ArrayList<>();
+			collect(this, operands);
+			chain = operands.toArray(new ExprNode[operands.size()]);
+		}
+		return chain;
+	}
+	
+	private static void collect(ExprNode node, List<ExprNode> operands) {
+		if (node instanceof BinaryNode) {
+			BinaryNode binary = (BinaryNode) node;
+			if (binary.operator == Operators.CONCATENATE && binary.left != null && binary.right != null) {
+				collect(binary.left, operands);
+				collect(binary.right, operands);
+				return;
+			}
+		}
+		operands.add(node);
+	}
+	
+	/**
+	 * Function: select
+	 * @return the variant for the operand types seen on the first execution
+	 */
+	private int select(Value op1, Value op2) {
+		if (op1.dataType != op2.dataType) {
+			return GENERIC;
+		}
+		
+		switch (op1.dataType) {
+		case INTEGER:
+			return Operators.isNumeric(operator) ? INT : GENERIC;
+		case FLOAT:
+			return Operators.isNumeric(operator) ? FLOAT : GENERIC;
+		case STRING:
+			return operator == Operators.CONCATENATE
+					|| (operator >= Operators.LESS && operator <= Operators.NOT_EQUAL) ? STRING : GENERIC;
+		default:
+			return GENERIC;
+		}
+	}
+	
+	/**
+	 * Function: stringBinary
+	 * Purpose: applies # or a comparison to two Strings, as Operators does
+	 */
+	private Value stringBinary(String op1, String op2) {
+		switch (operator) {
+		case Operators.CONCATENATE: return new Value(op1.concat(op2));
+		case Operators.LESS: return Value.valueOf(op1.compareTo(op2) < 0);
+		case Operators.GREATER: return Value.valueOf(op1.compareTo(op2) > 0);
+		case Operators.LESS_EQUAL: return Value.valueOf(op1.compareTo(op2) <= 0);
+		case Operators.GREATER_EQUAL: return Value.valueOf(op1.compareTo(op2) >= 0);
+		case Operators.DOUBLE_EQUAL: return Value.valueOf(op1.equals(op2));
+		default: return Value.valueOf(!op1.equals(op2));
+		}
+	}
+
+}
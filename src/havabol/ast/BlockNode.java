@@ -0,0 +1,23 @@
+package havabol.ast;
+
+import java.util.List;
+
+import havabol.lexer.Token;
+
+/**
+ * A sequence of statements, e.g. a loop body or the whole program.
+ */
+public class BlockNode extends StmtNode {
+	
+	public List<StmtNode> statements;
+	
+	public BlockNode(Token token, List<StmtNode> statements) {
+		super(token);
+		this.statements = statements;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitBlock(this);
+	}
+	
+}
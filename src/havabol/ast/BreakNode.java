@@ -0,0 +1,21 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * break; or continue; inside a while or for loop.
+ */
+public class BreakNode extends StmtNode {
+	
+	public boolean isContinue;
+	
+	public BreakNode(Token token, boolean isContinue) {
+		super(token);
+		this.isContinue = isContinue;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitBreak(this);
+	}
+	
+}
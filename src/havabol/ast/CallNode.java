@@ -0,0 +1,26 @@
+package havabol.ast;
+
+import java.util.List;
+
+import havabol.lexer.Token;
+
+/**
+ * A call to a builtin function. The single argument of ELEM and MAXELEM is
+ * an IdentifierNode naming the array, which is looked up but not evaluated.
+ */
+public class CallNode extends ExprNode {
+	
+	public String name;
+	public List<ExprNode> args;
+	
+	public CallNode(Token token, String name, List<ExprNode> args) {
+		super(token);
+		this.name = name;
+		this.args = args;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitCall(this);
+	}
+	
+}
@@ -0,0 +1,19 @@
+package havabol.ast;
+
+/**
+ * A function call used as a statement, e.g. print("hello");
+ */
+public class CallStmtNode extends StmtNode {
+	
+	public CallNode call;
+	
+	public CallStmtNode(CallNode call) {
+		super(call.token);
+		this.call = call;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitCallStmt(this);
+	}
+	
+}
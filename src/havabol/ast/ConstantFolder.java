@@ -0,0 +1,384 @@
+package havabol.ast;
+
+import java.util.HashMap;
+import java.util.List;
+
+import havabol.error.ArithmeticError;
+import havabol.error.TypeError;
+import havabol.error.UnsupportedOperationError;
+import havabol.parser.Parser;
+import havabol.parser.SelectTable;
+import havabol.parser.Structure;
+import havabol.parser.Value;
+import havabol.runtime.Membership;
+import havabol.runtime.Operators;
+import havabol.storage.DataType;
+import havabol.storage.StorageStructure;
+
+/**
+ * Optimization pass over a syntax tree, run before the tree is executed.
+ *
+ * An operator whose operands are constants is replaced by a literal of its
+ * result. The result is computed by Operators, so coercions are exactly
+ * those of Value.asType. An operator that fails is left in place, so its
+ * error is still raised when, and only if, it runs.
+ *
+ * A primitive variable that is declared once and written by one statement
+ * only, a top level declaration or assignment of a constant, is replaced by
+ * its value in the statements after that one. Statements before it would
+ * find the variable undeclared or unset, so they are left alone.
+ *
+ * Value lists only ever hold literals, so they are built here once.
+ *
+ * Expression visits return the node to use in place of the visited one,
+ * statement visits fold the expressions of the statement and return null.
+ */
+public class ConstantFolder implements AstVisitor<ExprNode> {
+
+	private Parser parser;
+
+	// Number of declarations and of other writes of each variable name
+	private HashMap<String, Integer> declarations = new HashMap<>();
+	private HashMap<String, Integer> assignments = new HashMap<>();
+	// Writes are counted on the first walk over the tree
+	private boolean counting;
+
+	// Top level declarations without a value, by variable name
+	private HashMap<String, DeclarationNode> declared = new HashMap<>();
+	// Values of the variables replaced in the statements being folded
+	private HashMap<String, Value> constants = new HashMap<>();
+
+	/**
+	 * Function/Constructor: ConstantFolder
+	 * @param parser parser used for coercions while folding
+	 */
+	public ConstantFolder(Parser parser) {
+		this.parser = parser;
+	}
+
+	/**
+	 * Function: fold
+	 * Purpose: folds the constants of a whole program in place
+	 * @param program block returned by AstBuilder.parseProgram
+	 * @return the program
+	 */
+	public BlockNode fold(BlockNode program) {
+
+		counting = true;
+		program.accept(this);
+		counting = false;
+
+		// Top level statements run in order, so a variable defined by one
+		// holds its constant in all of the ones after it
+		for (StmtNode stmt : program.statements) {
+			stmt.accept(this);
+			define(stmt);
+		}
+
+		return program;
+	}
+
+	/**
+	 * Records the variable a top level statement defines, if it is only
+	 * ever written by this statement and gets a constant.
+	 */
+	private void define(StmtNode stmt) {
+
+		if (stmt instanceof DeclarationNode) {
+			DeclarationNode node = (DeclarationNode) stmt;
+			if (node.structure != StorageStructure.PRIMITIVE || count(declarations, node.name) != 1) {
+				return;
+			}
+			if (node.init == null) {
+				declared.put(node.name, node);
+			} else if (count(assignments, node.name) == 0 && node.init instanceof LiteralNode) {
+				propagate(node.name, node.declaredType, ((LiteralNode) node.init).value);
+			}
+		} else if (stmt instanceof AssignmentNode) {
+			AssignmentNode node = (AssignmentNode) stmt;
+			if (node.operator.equals("=") && declared.containsKey(node.name)
+					&& count(assignments, node.name) == 1 && node.value instanceof LiteralNode) {
+				propagate(node.name, declared.get(node.name).declaredType, ((LiteralNode) node.value).value);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the variable by the value it is assigned from now on, coerced
+	 * to its declared type as the assignment does
+	 */
+	private void propagate(String name, DataType declaredType, Value value) {
+		try {
+			constants.put(name, value.asType(parser, declaredType));
+		} catch (TypeError e) {
+			// the assignment fails when it runs
+		}
+	}
+
+	private static int count(HashMap<String, Integer> counts, String name) {
+		Integer count = counts.get(name);
+		return count == null ? 0 : count;
+	}
+
+	private void write(HashMap<String, Integer> counts, String name) {
+		if (counting) {
+			counts.put(name, count(counts, name) + 1);
+		}
+	}
+
+	/**
+	 * Folds an expression that may be absent
+	 */
+	private ExprNode expression(ExprNode node) {
+		return node == null ? null : node.accept(this);
+	}
+
+	/**
+	 * Returns the value of a constant node, null if the node is not constant
+	 */
+	private static Value constant(ExprNode node) {
+		if (node instanceof LiteralNode) {
+			return ((LiteralNode) node).value;
+		} else if (node instanceof ValueListNode) {
+			return ((ValueListNode) node).value;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns a literal of the value to use in place of a node
+	 */
+	private static LiteralNode literal(ExprNode node, Value value) {
+		LiteralNode literal = new LiteralNode(node.token, value);
+		literal.end = node.end;
+		literal.containsOperator = node.containsOperator;
+		return literal;
+	}
+
+	// Expressions
+
+	public ExprNode visitLiteral(LiteralNode node) {
+		return node;
+	}
+
+	public ExprNode visitIdentifier(IdentifierNode node) {
+		Value value = constants.get(node.name);
+		return value == null ? node : literal(node, value);
+	}
+
+	public ExprNode visitArrayRef(ArrayRefNode node) {
+		node.index = expression(node.index);
+		return node;
+	}
+
+	public ExprNode visitSlice(SliceNode node) {
+		node.beginIndex = expression(node.beginIndex);
+		node.endIndex = expression(node.endIndex);
+		return node;
+	}
+
+	public ExprNode visitCall(CallNode node) {
+		if (node.name.equals("ELEM") || node.name.equals("MAXELEM")) {
+			// the argument names an array, it is not evaluated
+			return node;
+		}
+		List<ExprNode> args = node.args;
+		for (int i = 0; i < args.size(); i++) {
+			args.set(i, expression(args.get(i)));
+		}
+		return node;
+	}
+
+	public ExprNode visitBinary(BinaryNode node) {
+
+		node.left = expression(node.left);
+		node.right = expression(node.right);
+		Value op1 = constant(node.left);
+		Value op2 = constant(node.right);
+
+		if ((node.operator == Operators.IN || node.operator == Operators.NOTIN)
+				&& node.right instanceof ValueListNode && op2 != null && op1 == null) {
+			// the list is searched through a hash index, see Membership
+			((ValueListNode) node.right).membership = new Membership(parser, op2);
+		}
+
+		if (op1 == null || node.operator < 0) {
+			return node;
+		}
+
+		try {
+			if (node.operator == Operators.AND || node.operator == Operators.OR) {
+				// the right operand is skipped if the left one decides the result
+				boolean left = op1.asBoolean(parser).booleanValue;
+				if (left == (node.operator == Operators.OR)) {
+					return literal(node, Value.valueOf(left));
+				}
+			}
+			if (op2 != null) {
+				return literal(node, Operators.binary(parser, node.operator, op1, op2));
+			}
+		} catch (TypeError | ArithmeticError | UnsupportedOperationError e) {
+			// left to fail when it runs
+		}
+		return node;
+	}
+
+	public ExprNode visitUnary(UnaryNode node) {
+
+		node.operand = expression(node.operand);
+		Value op1 = constant(node.operand);
+
+		if (op1 == null) {
+			return node;
+		}
+
+		try {
+			return literal(node, Operators.unary(parser, node.operator, op1));
+		} catch (TypeError | ArithmeticError | UnsupportedOperationError e) {
+			// left to fail when it runs
+			return node;
+		}
+	}
+
+	public ExprNode visitValueList(ValueListNode node) {
+
+		if (node.value != null) {
+			return node;
+		}
+
+		Value array = new Value();
+		array.structure = Structure.MULTIVALUE;
+		array.numItems = 0;
+
+		// type of the list is that of the first element
+		Value elem = node.items.get(0).value;
+		array.add(parser, elem);
+		array.dataType = elem.dataType;
+
+		try {
+			for (int i = 1; i < node.items.size(); i++) {
+				array.add(parser, node.items.get(i).value.asType(parser, array.dataType));
+			}
+		} catch (TypeError e) {
+			// built when it runs, so the error is raised there
+			return node;
+		}
+
+		node.value = array;
+		return node;
+	}
+
+	// Statements
+
+	public ExprNode visitBlock(BlockNode node) {
+		for (StmtNode stmt : node.statements) {
+			stmt.accept(this);
+		}
+		return null;
+	}
+
+	public ExprNode visitDeclaration(DeclarationNode node) {
+		write(declarations, node.name);
+		node.init = expression(node.init);
+		node.size = expression(node.size);
+		if (node.values != null) {
+			node.values.accept(this);
+		}
+		return null;
+	}
+
+	public ExprNode visitAssignment(AssignmentNode node) {
+		write(assignments, node.name);
+		if (!node.copiesVariable) {
+			node.value = expression(node.value);
+		}
+		return null;
+	}
+
+	public ExprNode visitIndexedAssignment(IndexedAssignmentNode node) {
+		write(assignments, node.name);
+		node.beginIndex = expression(node.beginIndex);
+		node.endIndex = expression(node.endIndex);
+		node.value = expression(node.value);
+		return null;
+	}
+
+	public ExprNode visitIf(IfNode node) {
+		node.condition = expression(node.condition);
+		node.thenBlock.accept(this);
+		if (node.elseBlock != null) {
+			node.elseBlock.accept(this);
+		}
+		return null;
+	}
+
+	public ExprNode visitWhile(WhileNode node) {
+		node.condition = expression(node.condition);
+		node.body.accept(this);
+		return null;
+	}
+
+	public ExprNode visitForCount(ForCountNode node) {
+		write(declarations, node.name);
+		write(assignments, node.name);
+		node.start = expression(node.start);
+		node.limit = expression(node.limit);
+		node.incr = expression(node.incr);
+		node.body.accept(this);
+		return null;
+	}
+
+	public ExprNode visitForIn(ForInNode node) {
+		write(declarations, node.name);
+		write(assignments, node.name);
+		node.iterable = expression(node.iterable);
+		node.body.accept(this);
+		return null;
+	}
+
+	public ExprNode visitForFrom(ForFromNode node) {
+		write(declarations, node.name);
+		write(assignments, node.name);
+		node.source = expression(node.source);
+		node.delimiter = expression(node.delimiter);
+		node.body.accept(this);
+		return null;
+	}
+
+	public ExprNode visitSelect(SelectNode node) {
+		node.control = expression(node.control);
+		boolean constantWhens = true;
+		for (SelectNode.When when : node.whens) {
+			when.values.accept(this);
+			when.body.accept(this);
+			constantWhens &= when.values.value != null;
+		}
+		if (node.defaultBlock != null) {
+			node.defaultBlock.accept(this);
+		}
+
+		if (constantWhens) {
+			// nothing is left to fail when the lists are read, so all of
+			// them go into the case table now
+			node.table = new SelectTable<>(0);
+			for (int i = 0; i < node.whens.size(); i++) {
+				node.table.add(node.whens.get(i).values.value, i);
+			}
+		}
+		return null;
+	}
+
+	public ExprNode visitBreak(BreakNode node) {
+		return null;
+	}
+
+	public ExprNode visitDebug(DebugNode node) {
+		return null;
+	}
+
+	public ExprNode visitCallStmt(CallStmtNode node) {
+		node.call.accept(this);
+		return null;
+	}
+
+}
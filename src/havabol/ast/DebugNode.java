@@ -0,0 +1,23 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * debug kind on|off;
+ */
+public class DebugNode extends StmtNode {
+	
+	public String kind;
+	public boolean state;
+	
+	public DebugNode(Token token, String kind, boolean state) {
+		super(token);
+		this.kind = kind;
+		this.state = state;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitDebug(this);
+	}
+	
+}
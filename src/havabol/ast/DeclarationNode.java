@@ -0,0 +1,35 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+import havabol.storage.DataType;
+import havabol.storage.StorageStructure;
+
+/**
+ * A variable declaration:
+ *    Int i;                 primitive, init is null
+ *    Int i = expr;          primitive with init
+ *    Int arr[unbound];      unbounded array, values may follow
+ *    Int arr[] = 1, 2;      fixed array, size is null
+ *    Int arr[expr];         fixed array, values may follow
+ */
+public class DeclarationNode extends StmtNode {
+	
+	public DataType declaredType;
+	public String name;
+	public StorageStructure structure;
+	public ExprNode init;
+	public ExprNode size;
+	public ValueListNode values;
+	
+	public DeclarationNode(Token token, DataType declaredType, String name, StorageStructure structure) {
+		super(token);
+		this.declaredType = declaredType;
+		this.name = name;
+		this.structure = structure;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitDeclaration(this);
+	}
+	
+}
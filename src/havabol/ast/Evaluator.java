@@ -0,0 +1,719 @@
+package havabol.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import havabol.error.*;
+import havabol.error.InternalError;
+import havabol.lexer.Token;
+import havabol.parser.*;
+import havabol.runtime.*;
+import havabol.storage.*;
+
+/**
+ * Executes a syntax tree produced by AstBuilder. Statements return null,
+ * expressions return their Value.
+ *
+ * Before each step that can fail, the scanner is positioned on the token the
+ * direct interpreter would be on, so error messages report the same location.
+ */
+public class Evaluator implements AstVisitor<Value> {
+
+	// break / continue state while unwinding out of a loop body
+	private static final int NONE = 0;
+	private static final int BREAK = 1;
+	private static final int CONTINUE = 2;
+
+	private Parser parser;
+	private SymbolTable symbolTable;
+	private int jump = NONE;
+
+	/**
+	 * Function/Constructor: Evaluator
+	 * @param parser parser holding the scanner, symbol table and debug settings
+	 */
+	public Evaluator(Parser parser) {
+		this.parser = parser;
+		this.symbolTable = parser.symbolTable;
+	}
+
+	/**
+	 * Function: execute
+	 * Purpose: runs a whole program
+	 * @param program block returned by AstBuilder.parseProgram
+	 */
+	public void execute(BlockNode program) {
+		program.accept(this);
+	}
+
+	/**
+	 * Positions the scanner on the given token for error reporting.
+	 */
+	private void at(Token token) {
+		if (token != null) {
+			parser.scanner.setCurrentToken(token);
+		}
+	}
+
+	/**
+	 * Evaluates the root of an expression.
+	 */
+	private Value evaluate(ExprNode expr) {
+		Value value = expr.accept(this);
+		if (parser.debugExpr && expr.containsOperator) {
+			System.out.println("\t\t... Expression result = " + value);
+		}
+		return value;
+	}
+
+	/**
+	 * Runs a loop body and reports whether the loop should stop.
+	 */
+	private boolean runBody(BlockNode body) {
+		body.accept(this);
+		if (jump == BREAK) {
+			jump = NONE;
+			return false;
+		}
+		jump = NONE;
+		return true;
+	}
+
+	private static boolean isArray(STIdentifier variable) {
+		return variable.structure == StorageStructure.FIXED_ARRAY
+				|| variable.structure == StorageStructure.UNBOUNDED_ARRAY;
+	}
+
+	// Expressions
+
+	public Value visitLiteral(LiteralNode node) {
+		return node.value;
+	}
+
+	public Value visitIdentifier(IdentifierNode node) {
+		at(node.token);
+		STIdentifier variable = symbolTable.getVariable(parser, node.slot);
+		if (isArray(variable)) {
+			return variable.sliceWithoutEnd(parser, 0);
+		}
+		return variable.getValue();
+	}
+
+	/**
+	 * Evaluates an operand of an operator. The operator consumes the value
+	 * right away, so a variable is read without handing out its value.
+	 */
+	private Value operand(ExprNode node) {
+		if (!(node instanceof IdentifierNode)) {
+			return node.accept(this);
+		}
+		IdentifierNode identifier = (IdentifierNode) node;
+		at(identifier.token);
+		STIdentifier variable = symbolTable.getVariable(parser, identifier.slot);
+		if (isArray(variable)) {
+			return variable.sliceWithoutEnd(parser, 0);
+		}
+		return variable.peekValue();
+	}
+
+	/**
+	 * Returns the index to search for the right operand of IN or NOTIN, a
+	 * literal list or an array variable, null for other operands
+	 */
+	private Membership membership(ExprNode node) {
+		if (node instanceof ValueListNode) {
+			return ((ValueListNode) node).membership;
+		} else if (!(node instanceof IdentifierNode)) {
+			return null;
+		}
+		IdentifierNode identifier = (IdentifierNode) node;
+		at(identifier.token);
+		STIdentifier variable = symbolTable.getVariable(parser, identifier.slot);
+		return isArray(variable) ? variable.membership(parser) : null;
+	}
+
+	public Value visitArrayRef(ArrayRefNode node) {
+
+		at(node.token);
+		STIdentifier array = symbolTable.getVariable(parser, node.slot);
+
+		if (!isArray(array) && array.peekValue().dataType != DataType.STRING) {
+			throw new TypeError("Expected an array type but found " + array.structure, parser.scanner.currentToken);
+		}
+
+		int index = evaluate(node.index).asInteger(parser).intValue;
+		at(node.end);
+
+		if (isArray(array)) {
+			if (index == -1) {
+				if (array.structure == StorageStructure.UNBOUNDED_ARRAY) {
+					return array.fetch(parser, array.maxPopulatedIndex);
+				}
+				return array.fetch(parser, array.declaredSize - 1);
+			}
+			return array.fetch(parser, index);
+		}
+
+		Value str = array.peekValue().asString(parser);
+		if (index == -1) {
+			return new Value("" + str.charAt(str.length() - 1));
+		}
+		return new Value("" + str.charAt(index));
+	}
+
+	public Value visitSlice(SliceNode node) {
+
+		at(node.token);
+		STIdentifier array = symbolTable.getVariable(parser, node.slot);
+
+		if (!isArray(array) && array.peekValue().dataType != DataType.STRING) {
+			throw new TypeError("Expected an array type but found " + array.structure, parser.scanner.currentToken);
+		}
+
+		if (node.beginIndex == null) {
+			int endIndex = evaluate(node.endIndex).asInteger(parser).intValue;
+			at(node.end);
+			return array.sliceWithoutBegin(parser, endIndex);
+		}
+
+		int beginIndex = evaluate(node.beginIndex).asInteger(parser).intValue;
+
+		if (node.endIndex == null) {
+			at(node.end);
+			return array.sliceWithoutEnd(parser, beginIndex);
+		}
+
+		int endIndex = evaluate(node.endIndex).asInteger(parser).intValue;
+		at(node.end);
+		return array.fetchSlice(parser, beginIndex, endIndex);
+	}
+
+	public Value visitCall(CallNode node) {
+
+		switch (node.name) {
+		case "print":
+			List<Value> args = new ArrayList<>();
+			for (ExprNode arg : node.args) {
+				args.add(evaluate(arg));
+			}
+			at(node.end);
+			return Functions.print(parser, args);
+		case "ELEM":
+		case "MAXELEM":
+			IdentifierNode arg = (IdentifierNode) node.args.get(0);
+			at(arg.token);
+			STIdentifier array = symbolTable.getVariable(parser, arg.slot);
+			if (node.name.equals("ELEM")) {
+				return Functions.elem(parser, array);
+			}
+			return Functions.maxElem(parser, array);
+		case "LENGTH":
+			// LENGTH consumes its argument right away
+			ExprNode expr = node.args.get(0);
+			Value string = expr instanceof IdentifierNode ? operand(expr) : evaluate(expr);
+			at(node.end);
+			return Functions.length(parser, string);
+		case "SPACES":
+			string = evaluate(node.args.get(0));
+			at(node.end);
+			return Functions.spaces(parser, string);
+		}
+
+		Value dateVal1 = evaluate(node.args.get(0));
+		Value dateVal2 = evaluate(node.args.get(1));
+		at(node.end);
+
+		switch (node.name) {
+		case "dateDiff":
+			return Functions.dateDiff(parser, dateVal1, dateVal2);
+		case "dateAdj":
+			return Functions.dateAdj(parser, dateVal1, dateVal2);
+		case "dateAge":
+			return Functions.dateAge(parser, dateVal1, dateVal2);
+		default:
+			throw new DeclarationError("Attempted to call undefined function " + node.name);
+		}
+	}
+
+	public Value visitBinary(BinaryNode node) {
+
+		if (node.left == null) {
+			// operator was parsed with a missing operand
+			if (node.right == null) {
+				throw new UnsupportedOperationError("No operand(s) to be evaluated by the operator.", node.token);
+			}
+			node.right.accept(this);
+			String message = "Too few operands for operation to be evaluated";
+			if (node.operator >= Operators.NOT_EQUAL && node.operator <= Operators.NOTIN) {
+				message += ".";
+			}
+			throw new UnsupportedOperationError(message, node.token.iSourceLineNr, node.token.iColPos);
+		}
+
+		ExprNode[] chain = node.concatenation();
+		if (chain != null && chain.length > 2) {
+			// the chain is joined at once, without intermediate strings
+			Value[] operands = new Value[chain.length];
+			for (int i = 0; i < chain.length; i++) {
+				operands[i] = operand(chain[i]);
+			}
+			at(node.end);
+			return Operators.concatenate(parser, operands, 0, chain.length);
+		}
+
+		Value op1 = operand(node.left);
+
+		if (node.operator == Operators.AND || node.operator == Operators.OR) {
+			// the right operand is skipped if the left one decides the result
+			at(node.end);
+			boolean left = op1.asBoolean(parser).booleanValue;
+			if (left == (node.operator == Operators.OR)) {
+				return Value.valueOf(left);
+			}
+		}
+
+		if (node.operator == Operators.IN || node.operator == Operators.NOTIN) {
+			Membership membership = membership(node.right);
+			if (membership != null) {
+				at(node.end);
+				return Value.valueOf(membership.contains(parser, op1) == (node.operator == Operators.IN));
+			}
+		}
+
+		Value op2 = operand(node.right);
+		at(node.end);
+
+		if (node.operator < 0) {
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.", node.token);
+		}
+
+		return node.execute(parser, op1, op2);
+	}
+
+	public Value visitUnary(UnaryNode node) {
+
+		if (node.operand == null) {
+			throw new UnsupportedOperationError("No operand(s) to be evaluated by the operator.", node.token);
+		}
+
+		Value op1 = operand(node.operand);
+		at(node.end);
+
+		return Operators.unary(parser, node.operator, op1);
+	}
+
+	public Value visitValueList(ValueListNode node) {
+
+		if (node.value != null) {
+			return node.value;
+		}
+
+		Value array = new Value();
+		array.structure = Structure.MULTIVALUE;
+		array.numItems = 0;
+
+		// type of the list is that of the first element
+		Value elem = node.items.get(0).value;
+		array.add(parser, elem);
+		array.dataType = elem.dataType;
+
+		for (int i = 1; i < node.items.size(); i++) {
+			LiteralNode item = node.items.get(i);
+			at(item.token);
+			array.add(parser, item.value.asType(parser, array.dataType));
+		}
+
+		return array;
+	}
+
+	// Statements
+
+	public Value visitBlock(BlockNode node) {
+		for (StmtNode stmt : node.statements) {
+			stmt.accept(this);
+			if (jump != NONE) {
+				break;
+			}
+		}
+		return null;
+	}
+
+	public Value visitDeclaration(DeclarationNode node) {
+
+		STIdentifier variable = new STIdentifier(node.name, node.declaredType, node.structure);
+		Value rhsExpr;
+
+		switch (node.structure) {
+		case PRIMITIVE:
+			if (node.init != null) {
+				rhsExpr = evaluate(node.init);
+				at(node.end);
+
+				if (rhsExpr.structure != Structure.PRIMITIVE) {
+					throw new TypeError("Right hand side of assignment must be a primitive value if variable is primitive", parser.scanner.currentToken);
+				}
+
+				variable.setValue(parser, rhsExpr.asType(parser, variable.declaredType));
+			}
+			break;
+		case UNBOUNDED_ARRAY:
+			if (node.values != null) {
+				variable.setValue(parser, evaluate(node.values));
+			} else {
+				variable.allocate(0);
+			}
+			break;
+		default:
+			if (node.size == null) {
+				// Array size depends on the length of given value list
+				rhsExpr = evaluate(node.values);
+				variable.allocate(rhsExpr.numItems);
+				for (int i = 0; i < rhsExpr.numItems; i++) {
+					variable.arrayStorage.set(parser, i, rhsExpr.arrayValue.get(i));
+				}
+				variable.declaredSize = rhsExpr.numItems;
+			} else {
+				int declaredSize = evaluate(node.size).asInteger(parser).intValue;
+				variable.allocate(declaredSize);
+				variable.declaredSize = declaredSize;
+
+				if (node.values != null) {
+					rhsExpr = evaluate(node.values);
+
+					if (rhsExpr.numItems > variable.declaredSize) {
+						throw new IndexError("Value list contains too many elements to fit into given array");
+					}
+
+					for (int i = 0; i < rhsExpr.numItems; i++) {
+						variable.arrayStorage.set(parser, i, rhsExpr.arrayValue.get(i));
+					}
+				}
+			}
+			break;
+		}
+
+		symbolTable.createSymbol(parser, node.name, variable);
+		return null;
+	}
+
+	public Value visitAssignment(AssignmentNode node) {
+
+		at(node.token);
+		STIdentifier variable = symbolTable.getVariable(parser, node.slot);
+		Value rhsExpr = null;
+
+		if (node.operator.equals("=")) {
+
+			if (variable.structure == StorageStructure.FIXED_ARRAY) {
+
+				STIdentifier srcArray = null;
+				if (node.copiesVariable) {
+					at(node.value.token);
+					srcArray = symbolTable.getVariable(parser, ((IdentifierNode) node.value).slot);
+				}
+
+				if (srcArray != null && isArray(srcArray)) {
+					// fixedM = myArray; fills fixedM with elements from myArray
+					int fillSize = Math.min(variable.declaredSize, srcArray.declaredSize);
+					variable.arrayStorage.copyFrom(parser, srcArray.arrayStorage, fillSize);
+				} else {
+					Value toAssign = evaluate(node.value);
+					at(node.end);
+
+					if (toAssign.structure == Structure.PRIMITIVE) {
+						// fixedM = 4 + 1; sets every element
+						variable.arrayStorage.fill(parser, toAssign);
+					} else {
+						variable.setValue(parser, toAssign);
+					}
+				}
+
+			} else if (variable.structure == StorageStructure.UNBOUNDED_ARRAY) {
+
+				Value rhs = evaluate(node.value);
+				at(node.end);
+
+				if (rhs.structure == Structure.MULTIVALUE) {
+					variable.setValue(parser, rhs);
+				} else {
+					throw new TypeError("Cannot perform scalar assignment to an unbounded array", parser.scanner.currentToken);
+				}
+
+			} else if (appends(node, variable)) {
+				// s = s # x ... adds the other operands to the end of s
+				ExprNode[] chain = ((BinaryNode) node.value).concatenation();
+				Value[] operands = new Value[chain.length];
+				for (int i = 1; i < chain.length; i++) {
+					operands[i] = operand(chain[i]);
+				}
+				at(node.end);
+				variable.append(Operators.concatenate(parser, operands, 1, chain.length - 1).text());
+				if (parser.debugAssignment) {
+					rhsExpr = variable.peekValue();
+				}
+			} else {
+				Value res02 = evaluate(node.value);
+				at(node.end);
+				rhsExpr = res02.asType(parser, variable.declaredType);
+				variable.setValue(parser, rhsExpr);
+			}
+
+		} else {
+			// +=, -=, *= and /= apply the operator to the current value
+			Value res02 = node.value instanceof IdentifierNode ? operand(node.value) : evaluate(node.value);
+			at(node.end);
+			variable.apply(parser, node.compoundOperator, res02);
+			rhsExpr = variable.peekValue();
+		}
+
+		if (parser.debugAssignment) {
+			System.out.println("\t\t... Assignment variable = " + node.name);
+			System.out.println("\t\t... Assignment value = " + rhsExpr);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns true if an assignment has the form s = s # x ... with s a
+	 * String variable, so the other operands can be appended to s instead
+	 * of copying it. With debug Expr on, the whole result is needed.
+	 */
+	private boolean appends(AssignmentNode node, STIdentifier variable) {
+		if (!(node.value instanceof BinaryNode) || parser.debugExpr) {
+			return false;
+		}
+		ExprNode[] chain = ((BinaryNode) node.value).concatenation();
+		return chain != null && chain[0] instanceof IdentifierNode
+				&& ((IdentifierNode) chain[0]).slot == node.slot && variable.appendable();
+	}
+
+	public Value visitIndexedAssignment(IndexedAssignmentNode node) {
+
+		at(node.token);
+		STIdentifier variable = symbolTable.getVariable(parser, node.slot);
+
+		int beginIndex = 0;
+		int endIndex = 0;
+
+		if (node.beginIndex != null) {
+			beginIndex = evaluate(node.beginIndex).asInteger(parser).intValue;
+		}
+		if (node.endIndex != null) {
+			endIndex = evaluate(node.endIndex).asInteger(parser).intValue;
+		}
+
+		Value rhsExpr = evaluate(node.value);
+		at(node.end);
+
+		if (isArray(variable)) {
+			variable.set(parser, beginIndex, rhsExpr);
+		} else if (variable.peekValue().dataType == DataType.STRING) {
+			if (node.isSlice) {
+				variable.splice(parser, beginIndex, endIndex, node.endIndex != null, rhsExpr.asString(parser).text());
+			} else {
+				variable.splice(parser, beginIndex, rhsExpr.asString(parser).text());
+			}
+		} else {
+			throw new TypeError("Cannot assign to non-string / non-array value", parser.scanner.currentToken);
+		}
+
+		if (parser.debugAssignment) {
+			System.out.println("\t\t... Assignment variable = " + node.name);
+			System.out.println("\t\t... Assignment value = " + rhsExpr);
+		}
+
+		return null;
+	}
+
+	public Value visitIf(IfNode node) {
+
+		Value resCond = evaluate(node.condition);
+		at(node.end);
+
+		if (resCond.asBoolean(parser).booleanValue) {
+			node.thenBlock.accept(this);
+		} else if (node.elseBlock != null) {
+			node.elseBlock.accept(this);
+		}
+
+		return null;
+	}
+
+	public Value visitWhile(WhileNode node) {
+
+		for (;;) {
+			Value whileCond = evaluate(node.condition);
+			at(node.end);
+
+			if (!whileCond.asBoolean(parser).booleanValue || !runBody(node.body)) {
+				return null;
+			}
+		}
+	}
+
+	public Value visitForCount(ForCountNode node) {
+
+		Value value = evaluate(node.start);
+		STIdentifier controlVariable = new STIdentifier(node.name, value.dataType, StorageStructure.PRIMITIVE);
+		controlVariable.setValue(parser, value);
+		symbolTable.createSymbol(parser, node.name, controlVariable);
+
+		Value limit = evaluate(node.limit);
+		Value incr = node.incr == null ? new Value(1) : evaluate(node.incr);
+		at(node.end);
+
+		controlVariable.setValue(parser, controlVariable.getValue().asInteger(parser));
+		limit = limit.asInteger(parser);
+		incr = incr.asInteger(parser);
+
+		while (controlVariable.peekValue().intValue < limit.intValue) {
+			if (!runBody(node.body)) {
+				break;
+			}
+			controlVariable.setInt(controlVariable.peekValue().intValue + incr.intValue);
+		}
+
+		return null;
+	}
+
+	public Value visitForIn(ForInNode node) {
+
+		at(node.sourceToken);
+
+		if (!symbolTable.containsSymbol(node.sourceName)) {
+			throw new InternalError("Implictly generated symbol does not exist");
+		}
+		STIdentifier array = (STIdentifier) symbolTable.getSymbol(parser, node.sourceName);
+		if (!isArray(array) && array.declaredType != DataType.STRING) {
+			throw new TypeError("Cannot iterate over " + node.sourceName + " because it is not a string or array", parser.scanner.currentToken);
+		}
+
+		STIdentifier controlVariable = new STIdentifier(node.name, array.declaredType, StorageStructure.PRIMITIVE);
+		symbolTable.createSymbol(parser, node.name, controlVariable);
+
+		ArrayStorage loopOver;
+
+		if (node.iterable != null) {
+			Value iterable = evaluate(node.iterable);
+			at(node.end);
+			if (iterable.structure == Structure.MULTIVALUE) {
+				loopOver = new ArrayStorage(iterable.arrayValue.toArray(new Value[0]));
+			} else {
+				loopOver = new ArrayStorage(toCharValues(iterable));
+			}
+		} else if (isArray(array)) {
+			loopOver = array.arrayStorage;
+		} else {
+			loopOver = new ArrayStorage(toCharValues(array.getValue()));
+		}
+
+		int loopLength = loopOver.capacity();
+		for (int i = loopOver.nextSet(0); i >= 0 && i < loopLength; i = loopOver.nextSet(i + 1)) {
+			controlVariable.setValue(parser, loopOver.get(i));
+			if (!runBody(node.body)) {
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	private Value[] toCharValues(Value value) {
+		char[] strToLoop = value.asString(parser).text().toCharArray();
+		Value[] values = new Value[strToLoop.length];
+		for (int i = 0; i < strToLoop.length; i++) {
+			values[i] = new Value(String.valueOf(strToLoop[i]));
+		}
+		return values;
+	}
+
+	public Value visitForFrom(ForFromNode node) {
+
+		Value value = evaluate(node.source);
+		STIdentifier controlVariable = new STIdentifier(node.name, value.dataType, StorageStructure.PRIMITIVE);
+		controlVariable.setValue(parser, value);
+		symbolTable.createSymbol(parser, node.name, controlVariable);
+
+		Value limit = evaluate(node.delimiter);
+		at(node.end);
+
+		controlVariable.setValue(parser, controlVariable.getValue().asString(parser));
+		String delim = "\\" + limit.asString(parser).text();
+		String[] splitString = controlVariable.getValue().text().split(delim);
+
+		for (String word : splitString) {
+			controlVariable.setValue(parser, new Value(word));
+			if (!runBody(node.body)) {
+				break;
+			}
+		}
+
+		return null;
+	}
+
+	public Value visitSelect(SelectNode node) {
+
+		evaluate(node.control);
+		at(node.end);
+		STIdentifier controlVariable = (STIdentifier) symbolTable.getSymbol(parser, node.controlName);
+
+		if (node.table != null) {
+			Integer when = node.table.find(controlVariable);
+			if (when != null) {
+				node.whens.get(when).body.accept(this);
+			} else if (node.defaultBlock != null) {
+				node.defaultBlock.accept(this);
+			}
+			return null;
+		}
+
+		for (SelectNode.When when : node.whens) {
+			Value caseVal = evaluate(when.values);
+			for (Value v : caseVal.arrayValue) {
+				boolean matches = false;
+				if (controlVariable.declaredType == DataType.STRING) {
+					matches = controlVariable.getValue().text().equals(v.text());
+				} else if (controlVariable.declaredType == DataType.INTEGER) {
+					matches = controlVariable.getValue().intValue == v.intValue;
+				}
+				if (matches) {
+					when.body.accept(this);
+					return null;
+				}
+			}
+		}
+
+		if (node.defaultBlock != null) {
+			node.defaultBlock.accept(this);
+		}
+
+		return null;
+	}
+
+	public Value visitBreak(BreakNode node) {
+		jump = node.isContinue ? CONTINUE : BREAK;
+		return null;
+	}
+
+	public Value visitDebug(DebugNode node) {
+		switch (node.kind) {
+		case "assignment":
+			parser.debugAssignment = node.state;
+			break;
+		case "expression":
+			parser.debugExpr = node.state;
+			break;
+		default:
+			// debug token is applied by AstBuilder while tokens are read
+			break;
+		}
+		return null;
+	}
+
+	public Value visitCallStmt(CallStmtNode node) {
+		node.call.accept(this);
+		return null;
+	}
+
+}
@@ -0,0 +1,17 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * Base class of nodes that evaluate to a Value.
+ */
+public abstract class ExprNode extends Node {
+	
+	// Set on the root of an expression that contains an operator, for debug expr output
+	public boolean containsOperator = false;
+	
+	public ExprNode(Token token) {
+		super(token);
+	}
+	
+}
@@ -0,0 +1,29 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * for i = start to limit by incr: ... endfor; The increment is null when absent.
+ */
+public class ForCountNode extends StmtNode {
+	
+	public String name;
+	public ExprNode start;
+	public ExprNode limit;
+	public ExprNode incr;
+	public BlockNode body;
+	
+	public ForCountNode(Token token, String name, ExprNode start, ExprNode limit, ExprNode incr, BlockNode body) {
+		super(token);
+		this.name = name;
+		this.start = start;
+		this.limit = limit;
+		this.incr = incr;
+		this.body = body;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitForCount(this);
+	}
+	
+}
@@ -0,0 +1,27 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * for word from str by delim: ... endfor;
+ */
+public class ForFromNode extends StmtNode {
+	
+	public String name;
+	public ExprNode source;
+	public ExprNode delimiter;
+	public BlockNode body;
+	
+	public ForFromNode(Token token, String name, ExprNode source, ExprNode delimiter, BlockNode body) {
+		super(token);
+		this.name = name;
+		this.source = source;
+		this.delimiter = delimiter;
+		this.body = body;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitForFrom(this);
+	}
+	
+}
@@ -0,0 +1,31 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * for x in source: ... endfor; where source names an array or string variable.
+ * When the source is followed by a subscript, e.g. for x in arr[2~5], the
+ * iterable expression is evaluated and looped over instead.
+ */
+public class ForInNode extends StmtNode {
+	
+	public String name;
+	public String sourceName;
+	public Token sourceToken;
+	public ExprNode iterable;
+	public BlockNode body;
+	
+	public ForInNode(Token token, String name, Token sourceToken, ExprNode iterable, BlockNode body) {
+		super(token);
+		this.name = name;
+		this.sourceToken = sourceToken;
+		this.sourceName = sourceToken.tokenStr;
+		this.iterable = iterable;
+		this.body = body;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitForIn(this);
+	}
+	
+}
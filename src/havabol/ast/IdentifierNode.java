@@ -0,0 +1,24 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * A reference to a variable. Array variables evaluate to all of their elements.
+ */
+public class IdentifierNode extends ExprNode {
+	
+	public String name;
+	// Frame slot of the variable, see SymbolTable.slot
+	public int slot;
+	
+	public IdentifierNode(Token token, String name, int slot) {
+		super(token);
+		this.name = name;
+		this.slot = slot;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitIdentifier(this);
+	}
+	
+}
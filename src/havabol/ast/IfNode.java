@@ -0,0 +1,25 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * if cond: ... else: ... endif; The else block is null when absent.
+ */
+public class IfNode extends StmtNode {
+	
+	public ExprNode condition;
+	public BlockNode thenBlock;
+	public BlockNode elseBlock;
+	
+	public IfNode(Token token, ExprNode condition, BlockNode thenBlock, BlockNode elseBlock) {
+		super(token);
+		this.condition = condition;
+		this.thenBlock = thenBlock;
+		this.elseBlock = elseBlock;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitIf(this);
+	}
+	
+}
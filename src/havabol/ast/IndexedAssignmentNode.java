@@ -0,0 +1,34 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * An assignment to an array element or to part of a string:
+ *    arr[i] = expr;   str[i] = expr;   str[a~b] = expr;
+ * A missing slice bound is null.
+ */
+public class IndexedAssignmentNode extends StmtNode {
+	
+	public String name;
+	// Frame slot of the variable, see SymbolTable.slot
+	public int slot;
+	public ExprNode beginIndex;
+	public ExprNode endIndex;
+	public boolean isSlice;
+	public ExprNode value;
+	
+	public IndexedAssignmentNode(Token token, String name, int slot, ExprNode beginIndex, ExprNode endIndex, boolean isSlice, ExprNode value) {
+		super(token);
+		this.name = name;
+		this.slot = slot;
+		this.beginIndex = beginIndex;
+		this.endIndex = endIndex;
+		this.isSlice = isSlice;
+		this.value = value;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitIndexedAssignment(this);
+	}
+	
+}
@@ -0,0 +1,22 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+import havabol.parser.Value;
+
+/**
+ * A constant Int, Float, Bool or String operand.
+ */
+public class LiteralNode extends ExprNode {
+	
+	public Value value;
+	
+	public LiteralNode(Token token, Value value) {
+		super(token);
+		this.value = value;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitLiteral(this);
+	}
+	
+}
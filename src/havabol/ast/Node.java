@@ -0,0 +1,26 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * Base class of all Havabol syntax tree nodes.
+ */
+public abstract class Node {
+	
+	// Token this node was parsed from, used when reporting errors
+	public Token token;
+	// Token the direct interpreter is positioned on when it finishes this node
+	public Token end;
+	
+	public Node(Token token) {
+		this.token = token;
+	}
+	
+	/**
+	 * Dispatches this node to the matching visit method of a visitor.
+	 * @param visitor visitor walking the syntax tree
+	 * @return the visitor's result for this node
+	 */
+	public abstract <R> R accept(AstVisitor<R> visitor);
+	
+}
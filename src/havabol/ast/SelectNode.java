@@ -0,0 +1,50 @@
+package havabol.ast;
+
+import java.util.List;
+
+import havabol.lexer.Token;
+import havabol.parser.SelectTable;
+
+/**
+ * select var: when v1, v2: ... default: ... endselect;
+ * Cases are matched against the variable named by the first token of the
+ * select expression. The default block is null when absent.
+ */
+public class SelectNode extends StmtNode {
+	
+	public String controlName;
+	public ExprNode control;
+	public List<When> whens;
+	public BlockNode defaultBlock;
+	// Position in whens of the when each case value selects, made by
+	// ConstantFolder when every when list is a constant, null otherwise
+	public SelectTable<Integer> table;
+	
+	public SelectNode(Token token, String controlName, ExprNode control, List<When> whens, BlockNode defaultBlock) {
+		super(token);
+		this.controlName = controlName;
+		this.control = control;
+		this.whens = whens;
+		this.defaultBlock = defaultBlock;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitSelect(this);
+	}
+	
+	/**
+	 * One when clause: its literal case values and the body they select.
+	 */
+	public static class When {
+		
+		public ValueListNode values;
+		public BlockNode body;
+		
+		public When(ValueListNode values, BlockNode body) {
+			this.values = values;
+			this.body = body;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,29 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * A slice of an array or string, e.g. arr[2~5], arr[~5] or arr[2~].
+ * A missing bound is null.
+ */
+public class SliceNode extends ExprNode {
+	
+	public String name;
+	// Frame slot of the variable, see SymbolTable.slot
+	public int slot;
+	public ExprNode beginIndex;
+	public ExprNode endIndex;
+	
+	public SliceNode(Token token, String name, int slot, ExprNode beginIndex, ExprNode endIndex) {
+		super(token);
+		this.name = name;
+		this.slot = slot;
+		this.beginIndex = beginIndex;
+		this.endIndex = endIndex;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitSlice(this);
+	}
+	
+}
@@ -0,0 +1,14 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * Base class of nodes that are executed as statements.
+ */
+public abstract class StmtNode extends Node {
+	
+	public StmtNode(Token token) {
+		super(token);
+	}
+	
+}
@@ -0,0 +1,24 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+import havabol.runtime.Operators;
+
+/**
+ * A unary minus or logical not.
+ */
+public class UnaryNode extends ExprNode {
+	
+	public int operator;
+	public ExprNode operand;
+	
+	public UnaryNode(Token token, ExprNode operand) {
+		super(token);
+		this.operator = Operators.operatorId(token.tokenStr);
+		this.operand = operand;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitUnary(this);
+	}
+	
+}
@@ -0,0 +1,32 @@
+package havabol.ast;
+
+import java.util.List;
+
+import havabol.lexer.Token;
+import havabol.parser.Value;
+import havabol.runtime.Membership;
+
+/**
+ * A list of literal values, e.g. {1, 2, 3} or the initializer of an array
+ * declaration. Elements are coerced to the type of the first element, which
+ * AstBuilder makes a Float when an Int starts the list of a Float array.
+ */
+public class ValueListNode extends ExprNode {
+	
+	public List<LiteralNode> items;
+	// The list built once by ConstantFolder, null if it is built when it runs
+	public Value value;
+	// Index of value when the list is the right operand of IN or NOTIN,
+	// made by ConstantFolder along with it
+	public Membership membership;
+	
+	public ValueListNode(Token token, List<LiteralNode> items) {
+		super(token);
+		this.items = items;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitValueList(this);
+	}
+	
+}
@@ -0,0 +1,23 @@
+package havabol.ast;
+
+import havabol.lexer.Token;
+
+/**
+ * while cond: ... endwhile;
+ */
+public class WhileNode extends StmtNode {
+	
+	public ExprNode condition;
+	public BlockNode body;
+	
+	public WhileNode(Token token, ExprNode condition, BlockNode body) {
+		super(token);
+		this.condition = condition;
+		this.body = body;
+	}
+	
+	public <R> R accept(AstVisitor<R> visitor) {
+		return visitor.visitWhile(this);
+	}
+	
+}
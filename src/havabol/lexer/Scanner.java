@@ -1,14 +1,11 @@
 package havabol.lexer;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
+import havabol.error.InternalError;
 import havabol.error.SyntaxError;
 import havabol.parser.Parser;
 import havabol.storage.SymbolTable;
@@ -17,14 +14,14 @@ public class Scanner {
 	
 	// Source file information
 	public String sourceFileNm;
-	public ArrayList<String> sourceLineM = new ArrayList<>();
+	public SourceBuffer source;
 	public SymbolTable symbolTable;
 	
-	// Holds source lines buffered for printing
-	public ArrayList<String> lineBuffer = new ArrayList<>();
-	
-	// Scanner current line
-	public char[] textCharM;
+	// Offset and length of the current scanner line in source
+	private int lineStart;
+	private int lineLength;
+	// Scratch buffer for the characters of a token
+	private char[] literalM = new char[64];
 	// Source line number of our current cursor position, zero-indexed
 	public int iSourceLineNr = 0;
 	// Source character index of the current scanner line, zero-indexed
@@ -39,12 +36,39 @@ public class Scanner {
 	public int commentFoundOn = 0;
 	// Done scanning this file
 	public boolean done = false;
-	private boolean stop = false;
 	public boolean unary = false;
 	public boolean printBuffer = false;
 	
 	public boolean debugToken = false;
 	
+	// Lookahead ring buffer: tokens lexed past currentToken, in order from
+	// aheadFirst, each with the cursor position following it
+	public final static int LOOKAHEAD_MAX = 4;
+	private Token[] aheadM = new Token[LOOKAHEAD_MAX];
+	private int[] aheadLineM = new int[LOOKAHEAD_MAX];
+	private int[] aheadColM = new int[LOOKAHEAD_MAX];
+	private int aheadFirst = 0;
+	private int aheadCount = 0;
+	// Cursor position lexing resumes from, following the last buffered token
+	private int lexLineNr = 0;
+	private int lexColPos = 0;
+	
+	// Pre-tokenized token stream, populated once at load time when requested
+	public boolean preTokenized = false;
+	Token[] tokenM;
+	int[] tokenLineM;
+	int[] tokenColM;
+	int iTokenCount = 0;
+	// Index of the token the next call to getNext will return
+	private int iTokenIndex = 0;
+	// Lexical error found while pre-tokenizing, raised when its token is reached
+	Error deferredError;
+	// Index of the matching end keyword of each block-opening token, -1 if none
+	int[] blockEndM;
+	// Index of the next else, when, default or endselect of each if, when
+	// and default token, -1 if none
+	int[] nextClauseM;
+	
 	
 	private final static String DELIMITERS = " {}\t;:()\'\"~=!<>+-*/[]#^,\n"; // terminate a token
 	private final static String WHITESPACE = " \t\n";
@@ -53,14 +77,58 @@ public class Scanner {
 	private final static String SEPARATORS = ",;:[](){}";
 	private final static String ESCAPEPRINT ="\\'\"";
 	
-	private final static HashMap<Character, Character> escapeMap = new HashMap<Character, Character>(){
-		private static final long serialVersionUID = 1L;
-
-	{
-		put('t', '\t');
-		put('n', '\n');
-		put('a', (char) 0x07);    
-		}};
+	// Character classes of the ASCII characters, built from the strings above
+	private final static int DELIMITER = 1;
+	private final static int SPACE = 2;
+	private final static int QUOTE = 4;
+	private final static int OPERATOR = 8;
+	private final static int ESCAPE_PRINT = 16;
+	private final static byte[] CHAR_CLASS = new byte[128];
+	// One-character token strings, shared by every token
+	private final static String[] CHAR_STRING = new String[128];
+	
+	static {
+		addClass(DELIMITERS, DELIMITER);
+		addClass(WHITESPACE, SPACE);
+		addClass(QUOTES, QUOTE);
+		addClass(OPERATORS, OPERATOR);
+		addClass(ESCAPEPRINT, ESCAPE_PRINT);
+		for (char c = 0; c < 128; c++) {
+			CHAR_STRING[c] = String.valueOf(c).intern();
+		}
+	}
+	
+	private static void addClass(String chars, int charClass) {
+		for (int i = 0; i < chars.length(); i++) {
+			CHAR_CLASS[chars.charAt(i)] |= charClass;
+		}
+	}
+	
+	/**
+	 * Function: is
+	 * @return true if the character is in the given character class
+	 */
+	private static boolean is(char c, int charClass) {
+		return c < 128 && (CHAR_CLASS[c] & charClass) != 0;
+	}
+	
+	/**
+	 * Function: escape
+	 * @return the character an escape sequence stands for, 0 if the
+	 * 			character after the backslash has no meaning of its own
+	 */
+	private static char escape(char c) {
+		switch (c) {
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'a':
+			return (char) 0x07;
+		default:
+			return 0;
+		}
+	}
 		
 	private final static String[] WORD_OPERATORS = {"and", "or", "not", "in", "notin"};
 	private final static String[] FLOW_OPERATORS = {"if", "endif", "else", "while", "endwhile", "for", "endfor"};
@@ -69,64 +137,289 @@ public class Scanner {
 															"<=", ">=", "!=", "#", "and", "or", "u-", "(", ",",
 															"!", "if", "select", "while", "when");
 	/**
-	 * Reads a Havabol source file and initializes environment for scanning.
+	 * Maps a Havabol source file and initializes environment for scanning.
 	 * @param sourceFileNm Havabol source file path
-	 * @param symbolTable TODO: not yet implemented
+	 * @param symbolTable symbol table of the program; the scanner classifies
+	 * 			tokens from its own tables and does not consult it
 	 * @throws IOException Exception encountered while reading file
 	 * @throws FileNotFoundException Source file not found or inaccessible
 	 */
 	public Scanner(String sourceFileNm, SymbolTable symbolTable) throws IOException, FileNotFoundException {
 		
-		// Read all source lines into an ArrayList
-		try (BufferedReader sourceIn = new BufferedReader(new FileReader(sourceFileNm))) {
-			String line;
-			while ((line = sourceIn.readLine()) != null) {
-				sourceLineM.add(line);
-			}
-		}
+		source = new SourceBuffer(sourceFileNm);
 		
 		// Initialize scanning environment
 		currentToken = new Token();
 		nextToken = new Token();
 
-		if (sourceLineM.size() > 0) {
-			textCharM = sourceLineM.get(0).toCharArray();
-			bufferLine(0);
+		if (source.lineCount() > 0) {
+			setLine(0);
 		} else {
 			done = true;
 		}
 
 	}
 	
+	/**
+	 * Reads a Havabol source file and, if requested, lexes the whole file once
+	 * into a flat token array. In pre-tokenized mode getNext and setPosition
+	 * only move an index through that array, so loop bodies are never lexed twice.
+	 * @param sourceFileNm Havabol source file path
+	 * @param symbolTable symbol table of the program, see
+	 * 			Scanner(String, SymbolTable)
+	 * @param preTokenize true to lex the whole file at load time
+	 * @throws IOException Exception encountered while reading file
+	 * @throws FileNotFoundException Source file not found or inaccessible
+	 */
+	public Scanner(String sourceFileNm, SymbolTable symbolTable, boolean preTokenize) throws IOException, FileNotFoundException {
+		this(sourceFileNm, symbolTable, preTokenize, null);
+	}
+	
+	/**
+	 * Reads a Havabol source file like Scanner(String, SymbolTable, boolean),
+	 * taking the token array from a token cache when it holds one for this
+	 * source, and adding it to the cache otherwise.
+	 * @param sourceFileNm Havabol source file path
+	 * @param symbolTable symbol table of the program, see
+	 * 			Scanner(String, SymbolTable)
+	 * @param preTokenize true to lex the whole file at load time
+	 * @param cache token cache to use, null for none
+	 * @throws IOException Exception encountered while reading file
+	 * @throws FileNotFoundException Source file not found or inaccessible
+	 */
+	public Scanner(String sourceFileNm, SymbolTable symbolTable, boolean preTokenize, TokenCache cache) throws IOException, FileNotFoundException {
+		this(sourceFileNm, symbolTable);
+		if (preTokenize) {
+			if (cache == null || !cache.load(this)) {
+				tokenizeSource();
+				if (cache != null) {
+					cache.store(this);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Lexes the remainder of the source file into the token array and switches
+	 * this scanner into pre-tokenized mode. Each entry records the token as
+	 * getNext would have returned it along with the cursor position following it.
+	 * A lexical error is held back and raised once getNext reaches the token
+	 * that caused it, so output produced before the error is unchanged.
+	 */
+	private void tokenizeSource() {
+		
+		Token[] tokens = new Token[64];
+		int[] lines = new int[64];
+		int[] cols = new int[64];
+		int count = 0;
+		
+		try {
+			for (;;) {
+				getNext();
+				if (count == tokens.length) {
+					tokens = Arrays.copyOf(tokens, count * 2);
+					lines = Arrays.copyOf(lines, count * 2);
+					cols = Arrays.copyOf(cols, count * 2);
+				}
+				lines[count] = iSourceLineNr;
+				cols[count] = iColPos;
+				if (currentToken.primClassif == Token.EOF) {
+					break;
+				}
+				currentToken.iTokenIndex = count;
+				tokens[count++] = currentToken;
+			}
+		} catch (SyntaxError e) {
+			deferredError = e;
+			lines[count] = iSourceLineNr;
+			cols[count] = iColPos;
+		}
+		
+		// The entry past the last token is an EOF sentinel
+		Token eof = new Token();
+		eof.primClassif = Token.EOF;
+		eof.iTokenIndex = count;
+		tokens[count] = eof;
+		
+		tokenM = tokens;
+		tokenLineM = lines;
+		tokenColM = cols;
+		iTokenCount = count;
+		buildBlockTables();
+		
+		startTokenStream();
+	}
+	
+	/**
+	 * Switches this scanner into pre-tokenized mode once the token array
+	 * and block tables are filled in, with the cursor before the first token.
+	 */
+	void startTokenStream() {
+		iTokenIndex = 0;
+		currentToken = new Token();
+		nextToken = new Token();
+		previous = null;
+		iSourceLineNr = 0;
+		iColPos = 0;
+		preTokenized = true;
+	}
+	
+	/**
+	 * Matches every if, while, for and select token of the token array with
+	 * its end keyword, and every if, when and default token with the clause
+	 * following it, so control statements can jump over a block instead of
+	 * walking its tokens. The trailing `;` is the token after the end keyword.
+	 */
+	private void buildBlockTables() {
+		
+		blockEndM = new int[iTokenCount];
+		nextClauseM = new int[iTokenCount];
+		Arrays.fill(blockEndM, -1);
+		Arrays.fill(nextClauseM, -1);
+		
+		// open blocks, with the last clause seen in each one
+		int[] openM = new int[16];
+		int[] clauseM = new int[16];
+		int depth = 0;
+		
+		for (int i = 0; i < iTokenCount; i++) {
+			
+			if (tokenM[i].subClassif == Token.STRING) {
+				continue;
+			}
+			
+			String top = depth > 0 ? tokenM[openM[depth - 1]].tokenStr : "";
+			
+			switch (tokenM[i].tokenStr) {
+			case "if":
+			case "while":
+			case "for":
+			case "select":
+				if (depth == openM.length) {
+					openM = Arrays.copyOf(openM, depth * 2);
+					clauseM = Arrays.copyOf(clauseM, depth * 2);
+				}
+				openM[depth] = i;
+				clauseM[depth++] = i;
+				break;
+			case "else":
+				if (top.equals("if")) {
+					nextClauseM[clauseM[depth - 1]] = i;
+					clauseM[depth - 1] = i;
+				}
+				break;
+			case "when":
+			case "default":
+				if (top.equals("select")) {
+					if (clauseM[depth - 1] != openM[depth - 1]) {
+						nextClauseM[clauseM[depth - 1]] = i;
+					}
+					clauseM[depth - 1] = i;
+				}
+				break;
+			case "endif":
+			case "endwhile":
+			case "endfor":
+			case "endselect":
+				if (tokenM[i].tokenStr.equals("end" + top)) {
+					if (clauseM[depth - 1] != openM[depth - 1] && !top.equals("if")) {
+						nextClauseM[clauseM[depth - 1]] = i;
+					}
+					blockEndM[openM[--depth]] = i;
+				}
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Returns the index of the end keyword matching a block-opening token.
+	 * @param iTokenIndex index of an if, while, for or select token
+	 * @return index of its endif, endwhile, endfor or endselect, or the index
+	 * 			of the end of the token stream if the block is never closed
+	 */
+	public int getBlockEnd(int iTokenIndex) {
+		int end = blockEndM[iTokenIndex];
+		return end < 0 ? iTokenCount : end;
+	}
+	
+	/**
+	 * Returns the index of the clause following an if, when or default token.
+	 * @param iTokenIndex index of an if, when or default token
+	 * @return index of the if's else, or of the next when, default or
+	 * 			endselect of a select, -1 if there is none
+	 */
+	public int getNextClause(int iTokenIndex) {
+		return nextClauseM[iTokenIndex];
+	}
+	
+	/**
+	 * Returns a token of the pre-tokenized token array without moving to it.
+	 * @param iTokenIndex index of the token
+	 * @return the token, or the EOF token past the end of the array
+	 */
+	public Token tokenAt(int iTokenIndex) {
+		return tokenM[Math.min(iTokenIndex, iTokenCount)];
+	}
+	
+	/**
+	 * Moves forward onto the token at the given index, leaving the scanner in
+	 * the state getNext would have reached it in. Tokens in between are walked
+	 * only while debug token is on, so each of them is still printed.
+	 * @param iTokenIndex index of the token that becomes currentToken
+	 */
+	public void skipTo(int iTokenIndex) {
+		
+		if (debugToken) {
+			while (currentToken.iTokenIndex < iTokenIndex && currentToken.primClassif != Token.EOF) {
+				getNext();
+			}
+			return;
+		}
+		
+		setPosition(iTokenIndex);
+		if (iTokenIndex > 0 && iTokenIndex <= iTokenCount) {
+			previous = tokenM[iTokenIndex - 1];
+		}
+	}
+	
 	/**
 	 * Reads and classifies the next token in the source file.
 	 * Returns the next token as a string, functionally.
 	 * @return String representation of the next token
 	 */
 	public String getNext() throws SyntaxError {
+		
+		if (preTokenized) {
+			return getNextPreTokenized();
+		}
+		
 		previous = currentToken;	
 		
-		currentToken = getNextToken(false);
+		if (aheadCount == 0) {
+			lexAhead();
+		}
+		currentToken = aheadM[aheadFirst];
+		iSourceLineNr = aheadLineM[aheadFirst];
+		iColPos = aheadColM[aheadFirst];
+		aheadFirst = (aheadFirst + 1) % LOOKAHEAD_MAX;
+		aheadCount--;
+		
 		//debugger for token
 		if (debugToken) {
 			System.out.println("\t\t... Current Token = " + currentToken.tokenStr);
 		}
 		
-		if (stop) {
-			currentToken.primClassif = Token.EOF;
-			return "";
-		}
-		
 		if (currentToken.primClassif == Token.EOF) {
-			if (!nextToken.tokenStr.equals("")) {
-				currentToken = nextToken;
-				stop = true;
-				return currentToken.tokenStr;
-			}
 			return "";
 		}
 		
-		nextToken = getNextToken(true);
+		nextToken = lookahead(1);
+		if (nextToken.primClassif == Token.EOF) {
+			// Looking ahead to the end of the source leaves the cursor there
+			iSourceLineNr = aheadLineM[aheadFirst];
+			iColPos = aheadColM[aheadFirst];
+		}
 		//Take care of unary minus
 		if(currentToken.subClassif != Token.STRING && nextToken.subClassif != Token.STRING)
 			if(UNARY.contains(previous.tokenStr) && currentToken.tokenStr.equals("-")){
@@ -137,6 +430,89 @@ public class Scanner {
 		return currentToken.tokenStr;
 	}
 	
+	/**
+	 * Returns a token following currentToken without moving to it. Tokens
+	 * are lexed once into the lookahead buffer and handed out from there.
+	 * @param k 1 for nextToken, 2 for the token after it, up to LOOKAHEAD_MAX
+	 * @return the token, an EOF token past the end of the source
+	 */
+	public Token lookahead(int k) {
+		
+		if (k < 1 || k > LOOKAHEAD_MAX) {
+			throw new InternalError("Lookahead is limited to " + LOOKAHEAD_MAX + " tokens");
+		}
+		
+		if (preTokenized) {
+			return tokenM[Math.min(iTokenIndex + k - 1, iTokenCount)];
+		}
+		
+		while (aheadCount < k) {
+			lexAhead();
+		}
+		return aheadM[(aheadFirst + k - 1) % LOOKAHEAD_MAX];
+	}
+	
+	/**
+	 * Lexes one more token into the lookahead buffer, leaving the cursor on
+	 * currentToken. A token that ends at the end of the source keeps the
+	 * cursor position of the token preceding it, the EOF token gets the
+	 * position the end of the source was found at.
+	 */
+	private void lexAhead() {
+		
+		int lineNr = iSourceLineNr;
+		int colPos = iColPos;
+		
+		iSourceLineNr = lexLineNr;
+		iColPos = lexColPos;
+		if (!done) {
+			setLine(lexLineNr);
+		}
+		
+		Token token = getNextToken();
+		
+		if (!done || token.primClassif == Token.EOF) {
+			lexLineNr = iSourceLineNr;
+			lexColPos = iColPos;
+		}
+		
+		int slot = (aheadFirst + aheadCount++) % LOOKAHEAD_MAX;
+		aheadM[slot] = token;
+		aheadLineM[slot] = lexLineNr;
+		aheadColM[slot] = lexColPos;
+		
+		iSourceLineNr = lineNr;
+		iColPos = colPos;
+	}
+	
+	/**
+	 * Advances to the next token of the pre-tokenized token array.
+	 * @return String representation of the next token
+	 */
+	private String getNextPreTokenized() {
+		
+		if (iTokenIndex == iTokenCount && deferredError != null) {
+			throw deferredError;
+		}
+		
+		previous = currentToken;
+		currentToken = tokenM[iTokenIndex];
+		iSourceLineNr = tokenLineM[iTokenIndex];
+		iColPos = tokenColM[iTokenIndex];
+		
+		if (iTokenIndex < iTokenCount) {
+			iTokenIndex++;
+		}
+		nextToken = tokenM[iTokenIndex];
+		
+		//debugger for token
+		if (debugToken) {
+			System.out.println("\t\t... Current Token = " + currentToken.tokenStr);
+		}
+		
+		return currentToken.tokenStr;
+	}
+	
 	/**
 	 * Returns the next available token from the scanner's current internal
 	 * cursor position.
@@ -149,8 +525,6 @@ public class Scanner {
 		 * 		- Internal cursor is ON or BEFORE the beginning of our token.
 		 * 
 		 * Algorithm:
-		 * 		If backtrack is true:
-		 * 			Save internal cursor state
 		 * 		Skip any and all whitespace and comments
 		 * 		If our cursor is ON a delimiter:
 		 * 			If delimiter is a quote:
@@ -159,47 +533,32 @@ public class Scanner {
 		 * 				Read one character into tokenStr
 		 * 		Otherwise:
 		 * 			Read characters into tokenStr until cursor is ON a delimiter.
-		 * 		If backtrack is true:
-		 * 			Restore internal cursor state
 		 * 
 		 * Postconditions:
-		 * 		- If backtrack is false: internal cursor is STRICTLY AFTER the end of our token.
-		 * 		- If backtrack is true: internal cursor is unchanged from its state before the call to this function.
+		 * 		- Internal cursor is STRICTLY AFTER the end of our token.
 		 *
-	 * @param lookahead If true, save and restore scanner's internal cursor position
 	 * @return The next available token
 	 */
-	private Token getNextToken(boolean lookahead) {
-		
-		int beforeSourceLineNr = -1;
-		int beforeColPos = -1;
-		
-		if (lookahead) {
-			beforeSourceLineNr = iSourceLineNr;
-			beforeColPos = iColPos;
-		}
+	private Token getNextToken() {
 
 		Token token = new Token();
-		StringBuilder tokenStr = new StringBuilder();
 		boolean isStringLiteral = false;
 		commentFound = false;
 		
 		// Skip until we find something other than whitespace, comments, or we finish
-		while ((iColPos >= textCharM.length || textCharM[iColPos] == '/'
-				|| WHITESPACE.contains(Character.toString(textCharM[iColPos]))) && !done)
+		while (!done && (iColPos >= lineLength || source.charAt(lineStart + iColPos) == '/'
+				|| is(source.charAt(lineStart + iColPos), SPACE)))
 		{
-			if ((iColPos >= textCharM.length || WHITESPACE.contains(Character.toString(textCharM[iColPos]))) && !done)
-				advanceCursor(!lookahead);
-			else if (textCharM[iColPos] == '/')
-			{
-				if(iColPos < (textCharM.length - 1) && textCharM[iColPos + 1] == '/'){
-					commentFound = true; 
-					commentFoundOn = iSourceLineNr;
-					while (iSourceLineNr == commentFoundOn)
-						advanceCursor(!lookahead);
-				} else {
-					break;
-				}
+			if (iColPos >= lineLength || is(source.charAt(lineStart + iColPos), SPACE))
+				advanceCursor(true);
+			else if (iColPos < lineLength - 1 && source.charAt(lineStart + iColPos + 1) == '/') {
+				// Skip the rest of the line
+				commentFound = true; 
+				commentFoundOn = iSourceLineNr;
+				iColPos = lineLength - 1;
+				advanceCursor(true);
+			} else {
+				break;
 			}
 		}
 		
@@ -213,85 +572,102 @@ public class Scanner {
 		token.iColPos = iColPos;
 		token.iSourceLineNr = iSourceLineNr;
 		debugColPos = iColPos;
-		char currentChar = textCharM[iColPos];
-		char [] retCharM = new char[textCharM.length];
-		int iRet = 0;
-		
-	
-		if (DELIMITERS.contains(Character.toString(currentChar))) {
-			if (QUOTES.contains(Character.toString(currentChar))) {
-				char openStringChar = currentChar;
-				boolean escapeNext = false;
-				int openQuoteLineNr = iSourceLineNr;
-				for (;;) {
-					
-					advanceCursor(!lookahead);	
-					if (iSourceLineNr != openQuoteLineNr) {
-						// Quote literal must end on opening line
-						throw new SyntaxError("String literal must begin and end on same line", openQuoteLineNr + 1);
-					}
-					
-					currentChar = textCharM[iColPos];
-					if (done || (currentChar == openStringChar && !escapeNext)) {
-						isStringLiteral = true;
-						break;
-					}
+		int start = lineStart + iColPos;
+		char currentChar = source.charAt(start);
+		
+		if (is(currentChar, QUOTE)) {
+			char openStringChar = currentChar;
+			boolean escapeNext = false;
+			int openQuoteLineNr = iSourceLineNr;
+			int iRet = 0;
+			if (literalM.length < lineLength) {
+				literalM = new char[lineLength];
+			}
+			for (;;) {
+				
+				advanceCursor(true);	
+				if (iSourceLineNr != openQuoteLineNr) {
+					// Quote literal must end on opening line
+					throw new SyntaxError("String literal must begin and end on same line", openQuoteLineNr + 1);
+				}
+				
+				currentChar = source.charAt(lineStart + iColPos);
+				if (currentChar == openStringChar && !escapeNext) {
+					isStringLiteral = true;
+					break;
+				}
 
-					if (currentChar == '\\' && !escapeNext) {
-						escapeNext = true;
-						if(ESCAPEPRINT.contains(Character.toString(textCharM[iColPos + 1])))
-							continue;
-						else{
-							token.nonPrintable = true;
-							if (escapeMap.containsKey(textCharM[iColPos + 1])){
-								retCharM[iRet++] = escapeMap.get(textCharM[iColPos + 1]);
-								continue;
-							}
-						}
-					} else {
-						escapeNext = false;
-					}
-					if(textCharM[iColPos - 1] != '\\') {
-						retCharM[iRet++] = textCharM[iColPos];
+				if (currentChar == '\\' && !escapeNext) {
+					escapeNext = true;
+					char escaped = iColPos + 1 < lineLength ? source.charAt(lineStart + iColPos + 1) : 0;
+					if (is(escaped, ESCAPE_PRINT))
+						continue;
+					token.nonPrintable = true;
+					if (escape(escaped) != 0) {
+						literalM[iRet++] = escape(escaped);
+						continue;
 					}
+				} else {
+					escapeNext = false;
 				}
-			
-				tokenStr =  tokenStr.insert(0, retCharM, 0, iRet);
-				tokenStr.delete(iRet, tokenStr.length() + 1);
-				advanceCursor(!lookahead);
+				if (source.charAt(lineStart + iColPos - 1) != '\\') {
+					literalM[iRet++] = currentChar;
+				}
+			}
+		
+			token.tokenStr = new String(literalM, 0, iRet);
+			advanceCursor(true);
+		} else if (is(currentChar, DELIMITER)) {
+			if (is(currentChar, OPERATOR) && iColPos + 1 < lineLength && source.charAt(start + 1) == '=') {
+				literalM[0] = currentChar;
+				literalM[1] = '=';
+				token.tokenStr = new String(literalM, 0, 2);
+				advanceCursor(true);
 			} else {
-				if(OPERATORS.contains(Character.toString(textCharM[iColPos])) && 
-						textCharM[iColPos + 1] == '=')
-				{
-					tokenStr.append(textCharM[iColPos]);
-					tokenStr.append(textCharM[iColPos + 1]);
-					advanceCursor(!lookahead);
-				}else
-					tokenStr.append(currentChar);
-				advanceCursor(!lookahead);
+				token.tokenStr = CHAR_STRING[currentChar];
 			}
+			advanceCursor(true);
 		} else {
-			while (!DELIMITERS.contains(Character.toString(currentChar))) {
-				tokenStr.append(currentChar);
-				advanceCursor(!lookahead);
-				currentChar = textCharM[iColPos];
-			}
+			// A word runs until a delimiter, continuing onto the next line
+			// if it reaches the end of its own
+			int startLineNr = iSourceLineNr;
+			int startColPos = iColPos;
+			do {
+				advanceCursor(true);
+			} while (!done && (iColPos >= lineLength || !is(source.charAt(lineStart + iColPos), DELIMITER)));
+			token.tokenStr = wordText(startLineNr, startColPos);
 		}
 
-		token.tokenStr = tokenStr.toString();
 		classifyToken(token, isStringLiteral);
-		//System.out.println("token is = " + token.tokenStr);
-		//System.out.println("token subclass is = " + token.subClassif);
-		
-		if (lookahead) {
-			iSourceLineNr = beforeSourceLineNr;
-			iColPos = beforeColPos;
-			textCharM = sourceLineM.get(beforeSourceLineNr).toCharArray();
-		}
 		
 		return token;
 	}
 
+	/**
+	 * Returns the text of a word from its start up to the cursor, joining
+	 * the parts of a word that continued onto following lines.
+	 * @param startLineNr line the word starts on
+	 * @param startColPos column the word starts at
+	 */
+	private String wordText(int startLineNr, int startColPos) {
+		
+		int endLineNr = done ? source.lineCount() - 1 : iSourceLineNr;
+		int endColPos = done ? source.lineLength(endLineNr) : iColPos;
+		int length = 0;
+		
+		for (int lineNr = startLineNr; lineNr <= endLineNr; lineNr++) {
+			int from = source.lineStart(lineNr) + (lineNr == startLineNr ? startColPos : 0);
+			int to = source.lineStart(lineNr) + (lineNr == endLineNr ? endColPos : source.lineLength(lineNr));
+			if (literalM.length < length + to - from) {
+				literalM = Arrays.copyOf(literalM, (length + to - from) * 2);
+			}
+			source.getChars(from, to, literalM, length);
+			length += to - from;
+		}
+		
+		return new String(literalM, 0, length);
+	}
+	
 	/**
 	 * Sets the cursor position of this scanner
 	 * @param iSourceLineNr Zero-based line number to set cursor at
@@ -299,16 +675,77 @@ public class Scanner {
 	 */
 	public void setPosition(int iSourceLineNr, int iColPos) 
 	{
-		this.textCharM = sourceLineM.get(iSourceLineNr).toCharArray();
+		if (preTokenized) {
+			// Find the token whose end position matches the given cursor
+			int low = 0, high = iTokenCount;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (tokenLineM[mid] < iSourceLineNr
+						|| (tokenLineM[mid] == iSourceLineNr && tokenColM[mid] < iColPos)) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			setPosition(low + 1);
+			return;
+		}
+		
 		this.iSourceLineNr = iSourceLineNr;
 		this.iColPos = iColPos;
 		this.done = false;
 		
+		// Tokens buffered from the old position no longer follow
+		aheadCount = 0;
+		lexLineNr = iSourceLineNr;
+		lexColPos = iColPos;
+		
 		//System.out.println("Set position to: " + (iSourceLineNr + 1) + " " + (iColPos + 1));
-		//System.out.println("On line: " + String.valueOf(textCharM));
 		this.getNext();
 	}
 	
+	/**
+	 * Returns the index of the token following currentToken in the
+	 * pre-tokenized token array. Pass it to setPosition(int) to jump back.
+	 * @return index of the next token
+	 */
+	public int getTokenIndex() {
+		return iTokenIndex;
+	}
+	
+	/**
+	 * Sets the cursor position of a pre-tokenized scanner and advances
+	 * onto the token at the given index, like setPosition(int, int).
+	 * @param iTokenIndex index of the token that becomes currentToken
+	 */
+	public void setPosition(int iTokenIndex) {
+		
+		if (!preTokenized) {
+			throw new InternalError("Token index positions require a pre-tokenized scanner");
+		}
+		
+		this.iTokenIndex = Math.min(iTokenIndex, iTokenCount);
+		this.getNext();
+	}
+	
+	/**
+	 * Makes a token of the pre-tokenized token array the current token and
+	 * restores the cursor position recorded after it, without moving the
+	 * token stream. Engines that run already parsed code use this so errors
+	 * report the same position as the direct interpreter.
+	 * @param token a token returned by getNext in pre-tokenized mode
+	 */
+	public void setCurrentToken(Token token) {
+		
+		if (!preTokenized || token.iTokenIndex < 0) {
+			throw new InternalError("Token positions require a pre-tokenized scanner");
+		}
+		
+		currentToken = token;
+		iSourceLineNr = tokenLineM[token.iTokenIndex];
+		iColPos = tokenColM[token.iTokenIndex];
+	}
+	
 	/**
 	 * Classifies a token and sets necessary token fields.
 	 * @param token Token to populate
@@ -422,32 +859,31 @@ public class Scanner {
 		
 	}
 	
-	/**
-	 * Adds the given source code line to the line print buffer
-	 * @param lineNumber The 0-based line number of the line to add to the buffer
-	 */
-	public void bufferLine(int lineNumber) {
-		lineBuffer.add("  " + (lineNumber + 1) + " " + sourceLineM.get(lineNumber));
-	}
-	
 	/**
 	 * Advances the scanner's cursor location by one, reading in new lines
 	 * as necessary.
 	 */
 	public void advanceCursor(boolean print) {
 		iColPos += 1;
-		//if(iColPos < textCharM.length)
-		//System.out.println("Line: " + (iSourceLineNr) + " Col: " + (iColPos - 1) + " Char: " + textCharM[iColPos - 1]);
-		if (iColPos >= textCharM.length) {
+		if (iColPos >= lineLength) {
 			iColPos = 0;
 			iSourceLineNr++;
-			if (iSourceLineNr < sourceLineM.size()) {
-				textCharM = sourceLineM.get(iSourceLineNr).toCharArray();
+			if (iSourceLineNr < source.lineCount()) {
+				setLine(iSourceLineNr);
 			} else {
 				done = true;
 			}
 		}
 	}
+	
+	/**
+	 * Makes the given line the scanner line the cursor column refers to.
+	 * @param lineNumber The 0-based line number
+	 */
+	private void setLine(int lineNumber) {
+		lineStart = source.lineStart(lineNumber);
+		lineLength = source.lineLength(lineNumber);
+	}
 
 }
 
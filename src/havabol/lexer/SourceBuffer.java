@@ -0,0 +1,242 @@
+package havabol.lexer;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Text of a Havabol source file. The file is memory mapped and read in
+ * place, so the source text is never copied onto the heap; only the index
+ * of line starts is. Files below MAP_THRESHOLD are read into a heap buffer
+ * instead, since mapping them costs more than it saves. Lines end at \n, \r
+ * or \r\n, which are not part of the line.
+ *
+ * Characters of a line that is all ASCII are its bytes. A line holding other
+ * bytes is decoded as UTF-8 when it is read, so that its columns still count
+ * characters; a malformed sequence becomes U+FFFD, as it does in
+ * new String(bytes, UTF_8). Only the line decoded last is kept, since the
+ * scanner reads one line at a time. A FileReader used the platform charset
+ * instead, which is UTF-8 on most platforms.
+ *
+ * Offsets count bytes up to the start of a line and characters within it. A
+ * line never decodes to more characters than it has bytes, so the offsets of
+ * one line stay below the start of the next.
+ */
+public class SourceBuffer {
+
+	public static final int MAP_THRESHOLD = 1 << 16;
+
+	// Bytes of the file
+	private ByteBuffer bytes;
+	private int length;
+
+	// Offset of the first character of each line
+	private int[] lineStartM;
+	private int lineCount;
+
+	// Lines holding bytes outside of ASCII, null if there are none
+	private BitSet decodedLines;
+	// Last of those lines decoded, and its characters
+	private int decodedLine = -1;
+	private char[] decodedM;
+	// Line charAt last read from, as it mostly reads along a line
+	private int lastLine = 0;
+
+	/**
+	 * Maps a source file and indexes its lines.
+	 * @param sourceFileNm Havabol source file path
+	 * @throws IOException Exception encountered while mapping the file
+	 */
+	public SourceBuffer(String sourceFileNm) throws IOException {
+
+		try (RandomAccessFile file = new RandomAccessFile(sourceFileNm, "r");
+				FileChannel channel = file.getChannel()) {
+
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Source file is larger than 2GB: " + sourceFileNm);
+			}
+
+			length = (int) channel.size();
+			if (length < MAP_THRESHOLD) {
+				bytes = ByteBuffer.allocate(length);
+				while (bytes.hasRemaining()) {
+					if (channel.read(bytes) < 0)
+						break;
+				}
+				bytes.flip();
+				length = bytes.limit();
+			} else {
+				bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			}
+		}
+
+		indexLines();
+	}
+
+	/**
+	 * Records the start of every line, and the lines that are not all
+	 * ASCII. Like BufferedReader.readLine, a terminator at the very end of
+	 * the file does not start another line.
+	 */
+	private void indexLines() {
+
+		lineStartM = new int[64];
+		lineCount = 0;
+
+		int start = 0;
+		while (start < length) {
+			if (lineCount == lineStartM.length) {
+				lineStartM = Arrays.copyOf(lineStartM, lineCount * 2);
+			}
+			lineStartM[lineCount++] = start;
+
+			int i = start;
+			byte b;
+			while (i < length && (b = bytes.get(i)) != '\n' && b != '\r') {
+				if (b < 0) {
+					if (decodedLines == null)
+						decodedLines = new BitSet();
+					decodedLines.set(lineCount - 1);
+				}
+				i++;
+			}
+			if (i < length && bytes.get(i) == '\r' && i + 1 < length && bytes.get(i + 1) == '\n') {
+				i++;
+			}
+			start = i + 1;
+		}
+
+		lineStartM = Arrays.copyOf(lineStartM, lineCount);
+	}
+
+	/**
+	 * Function: decoded
+	 * @param lineNumber 0-based line number of a line holding bytes
+	 * 			outside of ASCII
+	 * @return characters of the line, decoded unless it was the last line
+	 * 			decoded
+	 */
+	private char[] decoded(int lineNumber) {
+		if (lineNumber != decodedLine) {
+			ByteBuffer line = bytes.duplicate();
+			line.position(lineStartM[lineNumber]);
+			line.limit(lineStartM[lineNumber] + byteLength(lineNumber));
+			CharBuffer chars = StandardCharsets.UTF_8.decode(line);
+			decodedM = Arrays.copyOf(chars.array(), chars.limit());
+			decodedLine = lineNumber;
+		}
+		return decodedM;
+	}
+
+	/**
+	 * Function: byteLength
+	 * @param lineNumber 0-based line number
+	 * @return number of bytes in the line, without its terminator
+	 */
+	private int byteLength(int lineNumber) {
+		int start = lineStartM[lineNumber];
+		int end = lineNumber + 1 < lineCount ? lineStartM[lineNumber + 1] : length;
+
+		if (end > start && (bytes.get(end - 1) == '\n' || bytes.get(end - 1) == '\r')) {
+			end--;
+			if (end > start && bytes.get(end) == '\n' && bytes.get(end - 1) == '\r') {
+				end--;
+			}
+		}
+		return end - start;
+	}
+
+	/**
+	 * Function: digest
+	 * Purpose: adds the bytes of the file to a message digest
+	 */
+	public void digest(MessageDigest digest) {
+		digest.update(bytes.duplicate());
+	}
+
+	/**
+	 * Function: lineCount
+	 * @return number of lines in the file
+	 */
+	public int lineCount() {
+		return lineCount;
+	}
+
+	/**
+	 * Function: lineStart
+	 * @param lineNumber 0-based line number
+	 * @return offset of the first character of the line
+	 */
+	public int lineStart(int lineNumber) {
+		return lineStartM[lineNumber];
+	}
+
+	/**
+	 * Function: lineLength
+	 * @param lineNumber 0-based line number
+	 * @return number of characters in the line, without its terminator
+	 */
+	public int lineLength(int lineNumber) {
+		if (decodedLines != null && decodedLines.get(lineNumber)) {
+			return decoded(lineNumber).length;
+		}
+		return byteLength(lineNumber);
+	}
+
+	/**
+	 * Function: charAt
+	 * @param offset offset of a character in the file
+	 */
+	public char charAt(int offset) {
+		if (decodedLines == null) {
+			return (char) bytes.get(offset);
+		}
+
+		int lineNumber = lastLine;
+		if (offset < lineStartM[lineNumber]
+				|| lineNumber + 1 < lineCount && offset >= lineStartM[lineNumber + 1]) {
+			lineNumber = Arrays.binarySearch(lineStartM, offset);
+			if (lineNumber < 0) {
+				lineNumber = -lineNumber - 2;
+			}
+			lastLine = lineNumber;
+		}
+
+		if (!decodedLines.get(lineNumber)) {
+			return (char) bytes.get(offset);
+		}
+		return decoded(lineNumber)[offset - lineStartM[lineNumber]];
+	}
+
+	/**
+	 * Function: getChars
+	 * Purpose: copies characters of the file into an array
+	 * @param start offset of the first character
+	 * @param end offset after the last character
+	 * @param dst array to copy into
+	 * @param dstBegin index in dst to copy the first character to
+	 */
+	public void getChars(int start, int end, char[] dst, int dstBegin) {
+		for (int i = start; i < end; i++) {
+			dst[dstBegin++] = charAt(i);
+		}
+	}
+
+	/**
+	 * Function: line
+	 * @param lineNumber 0-based line number
+	 * @return text of the line, without its terminator
+	 */
+	public String line(int lineNumber) {
+		char[] text = new char[lineLength(lineNumber)];
+		getChars(lineStartM[lineNumber], lineStartM[lineNumber] + text.length, text, 0);
+		return new String(text);
+	}
+
+}
@@ -17,6 +17,10 @@ public class Token
 	public boolean nonPrintable = false;
 	public boolean whileStmt = false;
 	public boolean forStmt = false;
+	// Position in a pre-tokenized token array, -1 if the token was not pre-tokenized
+	public int iTokenIndex = -1;
+	// Frame slot of an identifier, set by SymbolTable.resolve, -1 if unresolved
+	public int iSlot = -1;
 
 	// Constants for primClassif
 	public static final int OPERAND = 1; // constants, identifier
@@ -165,6 +169,7 @@ public class Token
 		newToken.iColPos = this.iColPos;
 		newToken.iSourceLineNr = this.iSourceLineNr;
 		newToken.nonPrintable = this.nonPrintable;
+		newToken.iSlot = this.iSlot;
 		return newToken;
 	}
 
@@ -282,9 +287,7 @@ public class Token
 			res.booleanValue = tokenStr.equals("T");
 			break;
 		case STRING:
-			res.dataType = DataType.STRING;
-			res.structure = Structure.PRIMITIVE;
-			res.strValue = tokenStr;
+			res = new Value(tokenStr);
 			break;
 		}
 		
@@ -0,0 +1,303 @@
+package havabol.lexer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+import havabol.parser.Parser;
+
+/**
+ * Directory of pre-tokenized sources. Each entry holds the token array of a
+ * source file with its cursor positions and block tables, in a file named
+ * after the SHA-256 hash of the cache format version, the class files of
+ * the build and the source text. A later run of the same source with the
+ * same build maps the entry instead of lexing.
+ *
+ * Entries are only ever an optimization: a missing, unreadable, corrupt or
+ * outdated entry makes the scanner lex the source as usual, and a failure
+ * to write one is ignored.
+ */
+public class TokenCache {
+
+	// Bump whenever the lexer, classifyToken or the block tables change
+	// what they produce, so entries of older versions are no longer used
+	public static final int FORMAT_VERSION = 2;
+	
+	// Classes whose code decides what an entry holds or how it is read.
+	// Their class files are part of every key, so a rebuilt interpreter
+	// does not use entries of an older build even if the version was not
+	// bumped.
+	private static final Class<?>[] BUILD_CLASSES = {
+		Scanner.class, Token.class, SourceBuffer.class, TokenCache.class, Parser.class
+	};
+	// Hash of those class files, computed once
+	private static byte[] buildKey;
+
+	private static final int MAGIC = 0x48425443; // "HBTC"
+	// magic, version, key, payload length, payload CRC
+	private static final int HEADER_SIZE = 4 + 4 + 32 + 4 + 8;
+
+	public File directory;
+
+	// Key of the last source hashed, kept so a miss doesn't hash twice
+	private SourceBuffer keySource;
+	private byte[] key;
+
+	public TokenCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Function: load
+	 * Purpose: fills in the token array of a scanner from its cache entry
+	 * 			and switches the scanner into pre-tokenized mode
+	 * @param scanner scanner of the source, not pre-tokenized yet
+	 * @return true if the entry was found and used, false if the source
+	 * 			still has to be lexed
+	 */
+	public boolean load(Scanner scanner) {
+
+		try (RandomAccessFile file = new RandomAccessFile(entry(scanner), "r");
+				FileChannel channel = file.getChannel()) {
+
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				return false;
+			}
+
+			ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (in.get() != key[i]) {
+					return false;
+				}
+			}
+			int payloadLength = in.getInt();
+			long crc = in.getLong();
+			if (payloadLength != in.remaining()) {
+				return false;
+			}
+			CRC32 check = new CRC32();
+			check.update(in.duplicate());
+			if (check.getValue() != crc) {
+				return false;
+			}
+
+			String[] strings = new String[in.getInt()];
+			for (int i = 0; i < strings.length; i++) {
+				char[] text = new char[in.getInt()];
+				for (int j = 0; j < text.length; j++) {
+					text[j] = in.getChar();
+				}
+				strings[i] = new String(text);
+			}
+
+			int count = in.getInt();
+			Token[] tokens = new Token[count + 1];
+			for (int i = 0; i < count; i++) {
+				Token token = new Token(strings[in.getInt()]);
+				token.primClassif = in.get();
+				token.subClassif = in.get();
+				token.nonPrintable = in.get() != 0;
+				token.iSourceLineNr = in.getInt();
+				token.iColPos = in.getInt();
+				token.iTokenIndex = i;
+				tokens[i] = token;
+			}
+
+			// The entry past the last token is an EOF sentinel
+			Token eof = new Token();
+			eof.primClassif = Token.EOF;
+			eof.iTokenIndex = count;
+			tokens[count] = eof;
+
+			int[] lines = new int[count + 1];
+			int[] cols = new int[count + 1];
+			for (int i = 0; i <= count; i++) {
+				lines[i] = in.getInt();
+				cols[i] = in.getInt();
+			}
+
+			int[] blockEnds = new int[count];
+			int[] nextClauses = new int[count];
+			for (int i = 0; i < count; i++) {
+				blockEnds[i] = in.getInt();
+				nextClauses[i] = in.getInt();
+			}
+
+			scanner.tokenM = tokens;
+			scanner.tokenLineM = lines;
+			scanner.tokenColM = cols;
+			scanner.iTokenCount = count;
+			scanner.blockEndM = blockEnds;
+			scanner.nextClauseM = nextClauses;
+			scanner.startTokenStream();
+			return true;
+
+		} catch (IOException | RuntimeException e) {
+			// no usable entry, lex the source instead
+			return false;
+		}
+	}
+
+	/**
+	 * Function: store
+	 * Purpose: writes the token array of a pre-tokenized scanner to its
+	 * 			cache entry. Sources with a lexical error are not stored, so
+	 * 			the error is raised by lexing every time.
+	 * @param scanner scanner that just pre-tokenized its source
+	 */
+	public void store(Scanner scanner) {
+
+		if (scanner.deferredError != null) {
+			return;
+		}
+
+		File tempFile = null;
+
+		try {
+			File entry = entry(scanner);
+
+			ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(payloadBytes);
+			int count = scanner.iTokenCount;
+
+			// Token strings, each written once
+			HashMap<String, Integer> stringIndex = new HashMap<>();
+			int[] tokenStrings = new int[count];
+			for (int i = 0; i < count; i++) {
+				String str = scanner.tokenM[i].tokenStr;
+				Integer index = stringIndex.get(str);
+				if (index == null) {
+					index = stringIndex.size();
+					stringIndex.put(str, index);
+				}
+				tokenStrings[i] = index;
+			}
+			String[] strings = new String[stringIndex.size()];
+			for (String str : stringIndex.keySet()) {
+				strings[stringIndex.get(str)] = str;
+			}
+			out.writeInt(strings.length);
+			for (String str : strings) {
+				out.writeInt(str.length());
+				out.writeChars(str);
+			}
+
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				Token token = scanner.tokenM[i];
+				out.writeInt(tokenStrings[i]);
+				out.writeByte(token.primClassif);
+				out.writeByte(token.subClassif);
+				out.writeByte(token.nonPrintable ? 1 : 0);
+				out.writeInt(token.iSourceLineNr);
+				out.writeInt(token.iColPos);
+			}
+			for (int i = 0; i <= count; i++) {
+				out.writeInt(scanner.tokenLineM[i]);
+				out.writeInt(scanner.tokenColM[i]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeInt(scanner.blockEndM[i]);
+				out.writeInt(scanner.nextClauseM[i]);
+			}
+			out.flush();
+
+			byte[] payload = payloadBytes.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+
+			// Write to a temporary file and move it into place, so a
+			// concurrent run never maps a partly written entry
+			directory.mkdirs();
+			tempFile = File.createTempFile("tokens", ".tmp", directory);
+			try (DataOutputStream file = new DataOutputStream(new FileOutputStream(tempFile))) {
+				file.writeInt(MAGIC);
+				file.writeInt(FORMAT_VERSION);
+				file.write(key);
+				file.writeInt(payload.length);
+				file.writeLong(crc.getValue());
+				file.write(payload);
+			}
+			Files.move(tempFile.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tempFile = null;
+
+		} catch (IOException | RuntimeException e) {
+			// the next run lexes the source again
+		} finally {
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Function: entry
+	 * @return the cache entry file of the scanner's source
+	 */
+	private File entry(Scanner scanner) {
+
+		if (keySource != scanner.source) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(ByteBuffer.allocate(4).putInt(0, FORMAT_VERSION));
+				digest.update(buildKey());
+				scanner.source.digest(digest);
+				key = digest.digest();
+				keySource = scanner.source;
+			} catch (NoSuchAlgorithmException e) {
+				// every Java platform provides SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+
+		StringBuilder name = new StringBuilder();
+		for (byte b : key) {
+			name.append(String.format("%02x", b));
+		}
+		return new File(directory, name.append(".tok").toString());
+	}
+
+	/**
+	 * Function: buildKey
+	 * @return the SHA-256 hash of the class files of BUILD_CLASSES. A class
+	 * 			file that can't be read adds only the class name, leaving
+	 * 			FORMAT_VERSION to tell the builds apart.
+	 */
+	private static synchronized byte[] buildKey() throws NoSuchAlgorithmException {
+
+		if (buildKey == null) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			for (Class<?> buildClass : BUILD_CLASSES) {
+				digest.update(buildClass.getName().getBytes());
+				try (InputStream in = buildClass.getResourceAsStream(buildClass.getSimpleName() + ".class")) {
+					int read;
+					while (in != null && (read = in.read(buffer)) > 0) {
+						digest.update(buffer, 0, read);
+					}
+				} catch (IOException e) {
+					// hashed as far as it could be read
+				}
+			}
+			buildKey = digest.digest();
+		}
+		return buildKey;
+	}
+
+}
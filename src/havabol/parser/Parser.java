@@ -2,7 +2,9 @@ package havabol.parser;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Stack;
 import havabol.error.*;
@@ -21,13 +23,16 @@ public class Parser {
 	public boolean whileStmt = false;
 	public boolean forStmt = false;
 	public boolean print = false;
-	public int whileCnt = 0;
-	public int endForCnt = 0;
 	public int surWhile = 0;
 	public int surFor = 0;
 	
+	// Postfix form of simple expressions, indexed by their start token index
+	private Postfix[] postfixCache = new Postfix[0];
+	// Case tables of select statements by the index of their select token
+	private HashMap<Integer, SelectTable<int[]>> selectTables = new HashMap<>();
+	
 	//precedence values while operator tokens are outside of stack
-	private final static HashMap<String, Integer> precedence = new HashMap<String, Integer>(){
+	public final static HashMap<String, Integer> precedence = new HashMap<String, Integer>(){
 		private static final long serialVersionUID = 1L;
 	{
 		put("and", 3); put("or", 3); put("not", 4); put("IN", 5); put("NOTIN", 5);    
@@ -37,7 +42,7 @@ public class Parser {
 	}};
 	
 	//precedence values while tokens are on the stack
-	private final static HashMap<String, Integer> stkPrecedence = new HashMap<String, Integer>(){
+	public final static HashMap<String, Integer> stkPrecedence = new HashMap<String, Integer>(){
 		private static final long serialVersionUID = 1L;
 
 	{
@@ -53,17 +58,58 @@ public class Parser {
 	 * @param symbolTable
 	 */
 	public Parser(String sourceFilename, SymbolTable symbolTable) {
+		this(sourceFilename, symbolTable, null);
+	}
+	
+	/**
+	 * Function/Constructor: Parser
+	 * @param sourceFilename
+	 * @param symbolTable
+	 * @param cache token cache to take the source's tokens from, null for none
+	 */
+	public Parser(String sourceFilename, SymbolTable symbolTable, TokenCache cache) {
 		
 		this.symbolTable = symbolTable;
 		
 		try {
-			scanner = new Scanner(sourceFilename, symbolTable);
+			scanner = new Scanner(sourceFilename, symbolTable, true, cache);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return;
+		}
+		
+		// Resolve every identifier to its frame slot before anything runs
+		for (int i = 0; scanner.tokenAt(i).primClassif != Token.EOF; i++) {
+			symbolTable.resolve(scanner.tokenAt(i));
 		}
 		
 	}
 	
+	/**
+	 * Function: variable
+	 * Purpose: returns the variable an identifier token refers to, through
+	 * 			the token's frame slot once it has been resolved
+	 * @param token identifier token
+	 */
+	private STIdentifier variable(Token token) {
+		if (token.iSlot >= 0) {
+			return symbolTable.getVariable(this, token.iSlot);
+		}
+		return (STIdentifier) symbolTable.getSymbol(this, token.tokenStr);
+	}
+	
+	/**
+	 * Function: isDeclared
+	 * @param token identifier token
+	 * @return true if the variable the token refers to is declared
+	 */
+	private boolean isDeclared(Token token) {
+		if (token.iSlot >= 0) {
+			return symbolTable.frame[token.iSlot] != null;
+		}
+		return symbolTable.containsSymbol(token.tokenStr);
+	}
+	
 	/**
 	 * Function: beginParsing()
 	 * Purpose: starts the process of parsing tokens based on their
@@ -85,6 +131,7 @@ public class Parser {
 	 */
 	
 	private void parseIf() {
+		int ifTokenIndex = scanner.currentToken.iTokenIndex;
 		scanner.getNext();
 		
 		//System.out.println("called if on " + scanner.currentToken.tokenStr);
@@ -118,44 +165,24 @@ public class Parser {
 			}
 		
 			// skip everything inside else
-			int ifCnt = 0;
-			
-			while (!scanner.currentToken.tokenStr.equals("endif") || ifCnt > 0) {
-				if (scanner.currentToken.tokenStr.equals("if")) {
-					ifCnt++;
-				}
-				if (scanner.currentToken.tokenStr.equals("endif")) {
-					ifCnt--;
-				}
-				scanner.getNext();
-			}
+			scanner.skipTo(scanner.getBlockEnd(ifTokenIndex));
 			scanner.getNext();
 			// done, semi-colon handled by parseStatement
 		} else {
 			// Skip everything until else or endif
 			//System.out.println("---> token " + scanner.currentToken.tokenStr);
 			
-			int ifCnt = 0;
-			for (;;) {
+			int elseTokenIndex = scanner.getNextClause(ifTokenIndex);
+			if (elseTokenIndex < 0) {
+				scanner.skipTo(scanner.getBlockEnd(ifTokenIndex));
 				scanner.getNext();
-				if (scanner.currentToken.tokenStr.equals("if")) {
-					ifCnt++;
-				}
-				if (scanner.currentToken.tokenStr.equals("else")) {
-					if (ifCnt == 0) {
-						scanner.getNext(); // pass "else"
-						scanner.getNext(); // pass ":"
-						break;
-					}
-				} else if (scanner.currentToken.tokenStr.equals("endif")) {
-					if (ifCnt == 0) {
-						scanner.getNext();
-						return; // currentToken should be ;, handled by parseStatement
-					} else 
-						ifCnt--;
-				}
-			}		
-			// skip everything inside else
+				return; // currentToken should be ;, handled by parseStatement
+			}
+			scanner.skipTo(elseTokenIndex);
+			scanner.getNext(); // pass "else"
+			scanner.getNext(); // pass ":"
+			
+			// run everything inside else
 			while (!scanner.currentToken.tokenStr.equals("endif")) {
 				parseStatement();
 				if (scanner.currentToken.tokenStr.equals("continue") || scanner.currentToken.tokenStr.equals("break")){
@@ -175,8 +202,8 @@ public class Parser {
 	
 	private void parseWhile() {
 		
-		int loopSrcLine = scanner.iSourceLineNr;
-		int loopColPos = scanner.iColPos;
+		int endTokenIndex = scanner.getBlockEnd(scanner.currentToken.iTokenIndex);
+		int loopTokenIndex = scanner.getTokenIndex();
 		
 		// ASSUME currentToken is "while" on call
 		scanner.getNext(); // advance past "while"
@@ -202,27 +229,13 @@ public class Parser {
 					
 					//continue for whileStmt
 					if (scanner.currentToken.tokenStr.equals("continue") ){
-						while (!scanner.currentToken.tokenStr.equals("endwhile") || whileCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("while")) {
-								whileCnt++;
-							} else if (scanner.currentToken.tokenStr.equals("endwhile")) {
-								whileCnt--;
-							}
-							scanner.getNext();
-						}	
+						scanner.skipTo(endTokenIndex);
 					}
 					
 					//break for whileStmt
 					if(scanner.currentToken.tokenStr.equals("break")){
-						// Evaluated to false, skip loop past endwhile and return				
-						while (!scanner.currentToken.tokenStr.equals("endwhile") || whileCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("while")) {
-								whileCnt++;
-							} else if (scanner.currentToken.tokenStr.equals("endwhile")) {
-								whileCnt--;
-							}
-							scanner.getNext();
-						}				
+						// skip loop past endwhile and return
+						scanner.skipTo(endTokenIndex);
 						scanner.getNext(); // pass "endwhile"
 						return; // return to parseStatement, expects ;
 					}
@@ -232,18 +245,10 @@ public class Parser {
 				scanner.getNext(); // pass ";"
 								
 				// Done executing loop body, let's loop back!
-				scanner.setPosition(loopSrcLine, loopColPos);	
+				scanner.setPosition(loopTokenIndex);	
 			} else {
-				// Evaluated to false, skip loop past endwhile and return				
-				//int whileCnt = 0;
-				while (!scanner.currentToken.tokenStr.equals("endwhile") || whileCnt > 0) {
-					if (scanner.currentToken.tokenStr.equals("while")) {
-						whileCnt++;
-					} else if (scanner.currentToken.tokenStr.equals("endwhile")) {
-						whileCnt--;
-					}
-					scanner.getNext();
-				}				
+				// Evaluated to false, skip loop past endwhile and return
+				scanner.skipTo(endTokenIndex);
 				scanner.getNext(); // pass "endwhile"
 				return; // return to parseStatement, expects ;
 			}	
@@ -266,6 +271,7 @@ public class Parser {
 	 */
 	private void parseFor(){
 		
+		int endTokenIndex = scanner.getBlockEnd(scanner.currentToken.iTokenIndex);
 		scanner.getNext(); // get past for
 		
 		assert(scanner.currentToken.subClassif == Token.IDENTIFIER);
@@ -273,9 +279,7 @@ public class Parser {
 		String cv = scanner.currentToken.tokenStr;
 		Value value, limit = null, incr = new Value(1);
 		STIdentifier controlVariable = null;
-		int lineNm;
-		//int endForCnt = 0;
-		int colPos;
+		int loopTokenIndex;
 		
 		scanner.getNext();
 		
@@ -285,7 +289,7 @@ public class Parser {
 			value = parseExpression("to"); 
 			DataType dt = value.dataType;
 			controlVariable = new STIdentifier(cv, dt, StorageStructure.PRIMITIVE);
-			controlVariable.setValue(value);
+			controlVariable.setValue(this, value);
 			symbolTable.createSymbol(this, cv, controlVariable);
 			
 			assert(scanner.currentToken.tokenStr.equals("to"));
@@ -307,10 +311,9 @@ public class Parser {
 			
 			
 			
-			lineNm = scanner.iSourceLineNr;
-			colPos = scanner.iColPos;
+			loopTokenIndex = scanner.getTokenIndex();
 			
-			controlVariable.setValue(controlVariable.getValue().asInteger(this));
+			controlVariable.setValue(this, controlVariable.getValue().asInteger(this));
 			limit = limit.asInteger(this);
 			incr = incr.asInteger(this);
 			
@@ -318,51 +321,30 @@ public class Parser {
 			
 			scanner.getNext();
 			
-			while (controlVariable.getValue().intValue < limit.intValue) {
+			while (controlVariable.peekValue().intValue < limit.intValue) {
 				
 				while (!scanner.currentToken.tokenStr.equals("endfor")) {
 					parseStatement();
 					//continue for forStmt
 					if(scanner.currentToken.tokenStr.equals("continue")){
-						while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("for")){
-								endForCnt++;
-							}
-							else if (scanner.currentToken.tokenStr.equals("endfor")){
-								endForCnt--;
-							}
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 					}
 					//break for forStmt
 					if(scanner.currentToken.tokenStr.equals("break")){
-						while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("for"))
-								endForCnt++;
-							else if (scanner.currentToken.tokenStr.equals("endfor"))
-								endForCnt--;
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 						scanner.getNext();
 						return;
 					}
 					
 				}
 				
-				controlVariable.getValue().intValue += incr.intValue;
+				controlVariable.setInt(controlVariable.peekValue().intValue + incr.intValue);
 				
-				scanner.setPosition(lineNm,colPos);
+				scanner.setPosition(loopTokenIndex);
 				
 			}
 			
-			endForCnt = 0;
-			while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-				if (scanner.currentToken.tokenStr.equals("for"))
-					endForCnt++;
-				else if (scanner.currentToken.tokenStr.equals("endfor"))
-					endForCnt--;
-				scanner.getNext();
-			}
+			scanner.skipTo(endTokenIndex);
 			
 			assert(scanner.currentToken.tokenStr.equals("endfor"));
 			scanner.getNext();
@@ -399,81 +381,52 @@ public class Parser {
 			
 			assert(scanner.currentToken.tokenStr.equals(":"));
 			
-			lineNm = scanner.iSourceLineNr;
-			colPos = scanner.iColPos;
+			loopTokenIndex = scanner.getTokenIndex();
 			int internalIndex = 0;
 						
 			scanner.getNext();
 			
-			Value[] loopOver;
+			ArrayStorage loopOver;
 			
 			if (iterable != null) {
 				if (iterable.structure == Structure.MULTIVALUE) {
-					loopOver = iterable.arrayValue.toArray(new Value[0]);
+					loopOver = new ArrayStorage(iterable.arrayValue.toArray(new Value[0]));
 				} else {
-					char[] strToLoop = iterable.asString(this).strValue.toCharArray();
-					loopOver = new Value[strToLoop.length];
-					for (int i = 0; i < strToLoop.length; i++) {
-						loopOver[i] = new Value(String.valueOf(strToLoop[i]));
-					}
+					loopOver = charValues(iterable);
 				}
 			} else {
 				if (array.structure == StorageStructure.FIXED_ARRAY || array.structure == StorageStructure.UNBOUNDED_ARRAY) {
-					loopOver = array.arrayValue;
+					loopOver = array.arrayStorage;
 				} else {
-					char[] strToLoop = array.getValue().asString(this).strValue.toCharArray();
-					loopOver = new Value[strToLoop.length];
-					for (int i = 0; i < strToLoop.length; i++) {
-						loopOver[i] = new Value(String.valueOf(strToLoop[i]));
-					}
+					loopOver = charValues(array.getValue());
 				}
 			}
 			
-			//loop until hits declared array size or null
-			while (internalIndex < loopOver.length) {
+			int loopLength = loopOver.capacity();
+			
+			//loop until hits declared array size, skipping undefined indices
+			while ((internalIndex = loopOver.nextSet(internalIndex)) >= 0 && internalIndex < loopLength) {
 				
-				value = loopOver[internalIndex++];
-				if (value == null) {
-					continue;
-				}
+				value = loopOver.get(internalIndex++);
 				
-				controlVariable.setValue(value);
+				controlVariable.setValue(this, value);
 
 				while (!scanner.currentToken.tokenStr.equals("endfor")) {
 					parseStatement();
 					if(scanner.currentToken.tokenStr.equals("continue")){
-						while (!scanner.currentToken.tokenStr.equals("endfor")) {
-							if (scanner.currentToken.tokenStr.equals("for"))
-								endForCnt++;
-							else if (scanner.currentToken.tokenStr.equals("endfor"))
-								endForCnt--;
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 					}else if(scanner.currentToken.tokenStr.equals("break")){
-						while (!scanner.currentToken.tokenStr.equals("endfor")) {
-							if (scanner.currentToken.tokenStr.equals("for"))
-								endForCnt++;
-							else if (scanner.currentToken.tokenStr.equals("endfor"))
-								endForCnt--;
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 						scanner.getNext();
 						return;
 					}
 				}
 								
-				scanner.setPosition(lineNm,colPos);
+				scanner.setPosition(loopTokenIndex);
 				
 			}
 			
-			endForCnt = 0;
-			while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-				if (scanner.currentToken.tokenStr.equals("for"))
-					endForCnt++;
-				else if (scanner.currentToken.tokenStr.equals("endfor"))
-					endForCnt--;
-				scanner.getNext();
-			}
+			scanner.skipTo(endTokenIndex);
 			
 			
 			assert(scanner.currentToken.tokenStr.equals("endfor"));
@@ -489,7 +442,7 @@ public class Parser {
 			value = parseExpression("by"); 
 			//DataType dt = value.dataType;
 			controlVariable = new STIdentifier(cv, value.dataType, StorageStructure.PRIMITIVE);
-			controlVariable.setValue(value);
+			controlVariable.setValue(this, value);
 			symbolTable.createSymbol(this, cv, controlVariable);
 			
 			assert(scanner.currentToken.tokenStr.equals("by"));
@@ -498,60 +451,40 @@ public class Parser {
 			
 			limit = parseExpression(":");
 			
-			lineNm = scanner.iSourceLineNr;
-			colPos = scanner.iColPos;
+			loopTokenIndex = scanner.getTokenIndex();
 			
-			controlVariable.setValue(controlVariable.getValue().asString(this));
+			controlVariable.setValue(this, controlVariable.getValue().asString(this));
 			limit = limit.asString(this);
-			String delim = "\\" + limit.strValue;
+			String delim = "\\" + limit.text();
 			assert(scanner.currentToken.tokenStr.equals(":"));
 			
 			scanner.getNext();
-			String[] splitString = controlVariable.getValue().strValue.split(delim);
+			String[] splitString = controlVariable.getValue().text().split(delim);
 			
 			for (String word: splitString) {
 				value = new Value(word);
-				controlVariable.setValue(value);
+				controlVariable.setValue(this, value);
 
 				while (!scanner.currentToken.tokenStr.equals("endfor")) {
 					parseStatement();
 					//continue for forStmt
 					if(scanner.currentToken.tokenStr.equals("continue")){
-						while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("for"))
-								endForCnt++;
-							else if (scanner.currentToken.tokenStr.equals("endfor"))
-								endForCnt--;
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 					}
 					//break for forStmt
 					if(scanner.currentToken.tokenStr.equals("break")){
-						while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-							if (scanner.currentToken.tokenStr.equals("for"))
-								endForCnt++;
-							else if (scanner.currentToken.tokenStr.equals("endfor"))
-								endForCnt--;
-							scanner.getNext();
-						}
+						scanner.skipTo(endTokenIndex);
 						scanner.getNext();
 						return;
 					}
 					
 				}
 								
-				scanner.setPosition(lineNm,colPos);
+				scanner.setPosition(loopTokenIndex);
 				
 			}
 			
-			endForCnt = 0;
-			while (!scanner.currentToken.tokenStr.equals("endfor") || endForCnt > 0) {
-				if (scanner.currentToken.tokenStr.equals("for"))
-					endForCnt++;
-				else if (scanner.currentToken.tokenStr.equals("endfor"))
-					endForCnt--;
-				scanner.getNext();
-			}
+			scanner.skipTo(endTokenIndex);
 			
 			assert(scanner.currentToken.tokenStr.equals("endfor"));
 			scanner.getNext();
@@ -563,6 +496,20 @@ public class Parser {
 		}
 	}
 	
+	/**
+	 * Function: charValues
+	 * @param value value to loop over
+	 * @return storage holding each character of the value as a String
+	 */
+	private ArrayStorage charValues(Value value) {
+		char[] strToLoop = value.asString(this).text().toCharArray();
+		Value[] values = new Value[strToLoop.length];
+		for (int i = 0; i < strToLoop.length; i++) {
+			values[i] = new Value(String.valueOf(strToLoop[i]));
+		}
+		return new ArrayStorage(values);
+	}
+	
 	/**
 	 * Function: parseSelect
 	 * Preconditions:
@@ -593,14 +540,15 @@ public class Parser {
 	private void parseSelect() {
 		
 		Value caseVal;
-		int selects = 1;
+		int selectTokenIndex = scanner.currentToken.iTokenIndex;
+		int endTokenIndex = scanner.getBlockEnd(selectTokenIndex);
 		
 		scanner.getNext();
 		
 		// currentToken should be beginning of conditional expression
-		String cv = scanner.currentToken.tokenStr;
+		Token cv = scanner.currentToken;
 		parseExpression(":"); // used to get to colon: 
-		STIdentifier sti = ((STIdentifier) symbolTable.getSymbol(this, cv));
+		STIdentifier sti = variable(cv);
 		STIdentifier controlVariable = sti;
 		
 		//if (!controlVariable.getValue().asBoolean(this).booleanValue)
@@ -613,73 +561,59 @@ public class Parser {
 		scanner.getNext(); // advance past :
 		
 		assert(scanner.currentToken.tokenStr.equals("when"));
-		for(;;){
-			if(scanner.currentToken.tokenStr.equals("when")){ // if first case is a when
-				scanner.getNext();
-				caseVal = parseValueList(":").tempValue;
-				for(Value v : caseVal.arrayValue){
-					if(controlVariable.declaredType.toString().equals("STRING")){
-						if(controlVariable.getValue().strValue.equals(v.strValue)){
-							scanner.getNext();
-							while(!(scanner.currentToken.tokenStr.equals("when") || scanner.currentToken.tokenStr.equals("default"))){
-								parseStatement();
-							}
-							while(!scanner.currentToken.tokenStr.equals("endselect") || selects > 0){
-								scanner.getNext();
-								if(scanner.currentToken.tokenStr.equals("select"))
-									selects++;
-								if(scanner.currentToken.tokenStr.equals("endselect"))
-									selects--;
-							}
-							scanner.getNext();
-							return;
-						}
-					}else if(controlVariable.declaredType.toString().equals("INTEGER")){
-						if(controlVariable.getValue().intValue == v.intValue){
-							scanner.getNext();
-							while(!(scanner.currentToken.tokenStr.equals("when") || scanner.currentToken.tokenStr.equals("default"))){
-								parseStatement();
-							}
-							while(!scanner.currentToken.tokenStr.equals("endselect") || selects > 0){
-								scanner.getNext();
-								if(scanner.currentToken.tokenStr.equals("select"))
-									selects++;
-								if(scanner.currentToken.tokenStr.equals("endselect"))
-									selects--;
-							}
-							scanner.getNext();
-							return;
-						}
-					}
-				}
+		
+		// case bodies as {index of the `:` ending the when list, index of the next clause}
+		SelectTable<int[]> table = selectTables.get(selectTokenIndex);
+		if (table == null) {
+			table = new SelectTable<>(scanner.currentToken.iTokenIndex);
+			selectTables.put(selectTokenIndex, table);
+		}
+		
+		// add when lists until one matches or all of them are in the table
+		int[] body = table.find(controlVariable);
+		while (body == null && table.nextClause < endTokenIndex
+				&& scanner.tokenAt(table.nextClause).tokenStr.equals("when")) {
+			scanner.skipTo(table.nextClause);
+			int nextTokenIndex = scanner.getNextClause(table.nextClause);
+			if (nextTokenIndex < 0) {
+				nextTokenIndex = endTokenIndex;
 			}
-			if(scanner.currentToken.tokenStr.equals("default")){
-				scanner.getNext(); // advance past default
-				scanner.getNext(); // advance past :
-				for(;;){
-					if(scanner.currentToken.tokenStr.equals("endselect")){
-						scanner.getNext(); //advance past ;
-						return;
-					}
-					parseStatement();
-				}
+			scanner.getNext();
+			caseVal = parseValueList(":", null).tempValue;
+			table.add(caseVal, new int[] {scanner.currentToken.iTokenIndex, nextTokenIndex});
+			table.nextClause = nextTokenIndex;
+			body = table.find(controlVariable);
+		}
+		
+		if (body != null) {
+			scanner.skipTo(body[0]);
+			scanner.getNext(); // advance past :
+			// run statements up to the next when, default or endselect
+			while (scanner.currentToken.iTokenIndex < body[1]) {
+				parseStatement();
 			}
-			else{
-				selects = 0;
-				while(!(scanner.currentToken.tokenStr.equals("when") || scanner.currentToken.tokenStr.equals("default"))){
-					scanner.getNext();
-					if(scanner.currentToken.tokenStr.equals("select")){
-						while(!scanner.currentToken.tokenStr.equals("endselect") || selects > 0){
-							scanner.getNext();
-							if(scanner.currentToken.tokenStr.equals("select"))
-								selects++;
-							if(scanner.currentToken.tokenStr.equals("endselect"))
-								selects--;
-						}
-						scanner.getNext();
-					}
+			scanner.skipTo(endTokenIndex);
+			scanner.getNext();
+			return;
+		}
+		
+		scanner.skipTo(table.nextClause);
+		if (scanner.currentToken.tokenStr.equals("default")) {
+			scanner.getNext(); // advance past default
+			scanner.getNext(); // advance past :
+			for(;;){
+				if(scanner.currentToken.tokenStr.equals("endselect")){
+					scanner.getNext(); //advance past ;
+					return;
 				}
+				parseStatement();
 			}
+		} else if (scanner.currentToken.tokenStr.equals("endselect")) {
+			// no when matched and there is no default
+			scanner.getNext();
+			return;
+		} else {
+			throw new SyntaxError("Expected `when` or `default` in select", scanner.currentToken);
 		}
 	}
 	
@@ -887,7 +821,7 @@ public class Parser {
 				
 				// Check and cast (if necessary) type and store value
 				rhsExpr = rhsExpr.asType(this, variable.declaredType);
-				variable.setValue(rhsExpr);
+				variable.setValue(this, rhsExpr);
 				
 				break;
 			case "[":
@@ -904,11 +838,11 @@ public class Parser {
 						
 						case "=": // value list will follow
 							scanner.getNext();
-							rhsExpr = parseValueList(";").tempValue;
-							variable.setValue(rhsExpr);
+							rhsExpr = parseValueList(";", declaredType).tempValue;
+							variable.setValue(this, rhsExpr);
 							break;
 						case ";": // init empty array value and we're done
-							variable.arrayValue = new Value[0];
+							variable.allocate(0);
 							break;
 						default: // syntax error
 							throw new SyntaxError("Expected assignment or semi-colon after array declaration", scanner.currentToken);
@@ -920,10 +854,10 @@ public class Parser {
 						scanner.getNext(); // pass "]". Int array[] = 1, 2, 3;
 						scanner.getNext(); // pass =
 						
-						rhsExpr = parseValueList(";").tempValue;
-						variable.arrayValue = new Value[rhsExpr.numItems];
+						rhsExpr = parseValueList(";", declaredType).tempValue;
+						variable.allocate(rhsExpr.numItems);
 						for (int i = 0; i < rhsExpr.numItems; i++) {
-							variable.arrayValue[i] = rhsExpr.arrayValue.get(i);
+							variable.arrayStorage.set(this, i, rhsExpr.arrayValue.get(i));
 						}
 						variable.declaredSize = rhsExpr.numItems;
 						variable.structure = StorageStructure.FIXED_ARRAY;
@@ -935,7 +869,7 @@ public class Parser {
 						
 						variable = new STIdentifier(identifier, declaredType, StorageStructure.FIXED_ARRAY);
 						
-						variable.arrayValue = new Value[declaredSize];
+						variable.allocate(declaredSize);
 						variable.declaredSize = declaredSize;
 
 						if (!scanner.currentToken.tokenStr.equals("]")) {
@@ -959,14 +893,14 @@ public class Parser {
 							// Int array[10] = 1, 2, 3;
 							scanner.getNext(); // advance past =
 							//could be assigned
-							rhsExpr = parseValueList(";").tempValue;
+							rhsExpr = parseValueList(";", declaredType).tempValue;
 							
 							if (rhsExpr.numItems > variable.declaredSize) {
 								throw new IndexError("Value list contains too many elements to fit into given array");
 							}
 							
 							for (int i = 0; i < rhsExpr.numItems; i++) {
-								variable.arrayValue[i] = rhsExpr.arrayValue.get(i);
+								variable.arrayStorage.set(this, i, rhsExpr.arrayValue.get(i));
 							}							
 							break;
 						default:
@@ -991,9 +925,11 @@ public class Parser {
 	 * 		String fruit[] = "apple", "pear", "orange";
 	 *                       ^^^^^^^
 	 * @param terminatingStr the token string that says to stop parsing values
+	 * @param declaredType element type of the array the list initializes,
+	 * 			null if it is not a declaration
 	 * @return a ResultValue representing a value list
 	 */
-	private Token parseValueList(String terminatingStr) {
+	private Token parseValueList(String terminatingStr, DataType declaredType) {
 		
 		//System.out.println("started on " + scanner.currentToken.tokenStr);
 		if (scanner.currentToken.tokenStr.equals("{")) {
@@ -1006,6 +942,10 @@ public class Parser {
 		
 		// Parse first element and set data type to that of first elem
 		Value elem = scanner.currentToken.toResult();
+		if (declaredType == DataType.FLOAT && elem.dataType == DataType.INTEGER) {
+			// so the Float elements after it keep their fraction
+			elem = elem.asFloat(this);
+		}
 		array.add(this, elem);
 		array.dataType = elem.dataType;
 		
@@ -1092,7 +1032,8 @@ public class Parser {
 			throw new SyntaxError("Expected an identifier to begin assignment", scanner.currentToken);
 		}
 		
-		String identifier = scanner.currentToken.tokenStr;
+		Token identToken = scanner.currentToken;
+		String identifier = identToken.tokenStr;
 		
 		if(bfor || bto || bby){
 			// for single integer control variables
@@ -1122,13 +1063,12 @@ public class Parser {
 		}
 		
 		// Ensure identifier has been declared
-		STIdentifier variable = (STIdentifier) symbolTable.getSymbol(this, identifier);
+		STIdentifier variable = variable(identToken);
 		
 		if (variable == null && !bfor) {
 			throw new DeclarationError("Reference to undeclared identifier found", scanner.currentToken);
 		}
 		
-		Value res01;
 		Value res02, rhsExpr = null;
 		
 		String token = scanner.getNext();
@@ -1152,20 +1092,14 @@ public class Parser {
 							
 							if (scanner.nextToken.tokenStr.equals(";")) {
 								// case 3
-								STIdentifier srcArray = (STIdentifier) symbolTable.getSymbol(this, scanner.currentToken.tokenStr);
+								STIdentifier srcArray = variable(scanner.currentToken);
 								
 								int destSize = variable.declaredSize;
 								int srcSize = srcArray.declaredSize;
 								
 								int fillSize = Math.min(destSize, srcSize);
 								
-								for (int i = 0; i < fillSize; i++) {
-									
-									if (srcArray.arrayValue[i] == null)
-										break;
-									
-									variable.arrayValue[i] = srcArray.arrayValue[i].clone();
-								}
+								variable.arrayStorage.copyFrom(this, srcArray.arrayStorage, fillSize);
 								
 							} else {
 								// case 1 or 2
@@ -1174,32 +1108,24 @@ public class Parser {
 								
 								if (toAssign.structure == Structure.PRIMITIVE) {
 								
-									for (int i = 0; i < variable.declaredSize; i++) {
-										variable.arrayValue[i] = toAssign.clone();
-									}
+									variable.arrayStorage.fill(this, toAssign);
 								
 								} else {
-									variable.setValue(toAssign);
+									variable.setValue(this, toAssign);
 								}
 								
 								break;
 							
 							}
 							
-							STIdentifier srcArray = (STIdentifier) symbolTable.getSymbol(this, scanner.currentToken.tokenStr);
+							STIdentifier srcArray = variable(scanner.currentToken);
 						
 							int destSize = variable.declaredSize;
 							int srcSize = srcArray.declaredSize;
 							
 							int fillSize = Math.min(destSize, srcSize);
 							
-							for (int i = 0; i < fillSize; i++) {
-								
-								if (srcArray.arrayValue[i] == null)
-									break;
-								
-								variable.arrayValue[i] = srcArray.arrayValue[i].clone();
-							}
+							variable.arrayStorage.copyFrom(this, srcArray.arrayStorage, fillSize);
 							
 							scanner.getNext();
 							
@@ -1208,9 +1134,7 @@ public class Parser {
 							
 							Value srcForAll = parseExpression(";");
 							
-							for (int i = 0; i < variable.declaredSize; i++) {
-								variable.arrayValue[i] = srcForAll.clone();
-							}
+							variable.arrayStorage.fill(this, srcForAll);
 							
 						}
 						
@@ -1220,7 +1144,7 @@ public class Parser {
 						
 						if (rhs.structure == Structure.MULTIVALUE) {
 							// unboundedM = myArr[2~];
-							variable.setValue(rhs);
+							variable.setValue(this, rhs);
 						} else {
 							// unboundedM = 4 + 1;
 							throw new TypeError("Cannot perform scalar assignment to an unbounded array", scanner.currentToken);
@@ -1229,49 +1153,29 @@ public class Parser {
 					} else { // primitive
 						
 						scanner.getNext();
+						if (appendPostfix(variable)) {
+							break;
+						}
 						res02 = parseExpression(";");
 						// Ensure type of rhsExpr matches declared type, or can be 	cast to such.
 						rhsExpr = res02.asType(this, variable.declaredType); // Parse expression on right-hand side of assignment
-						variable.setValue(rhsExpr);
+						variable.setValue(this, rhsExpr);
 						
 					}
 					break;
 				case "+=":
-					scanner.getNext();
-					res02 = parseExpression(";");
-					res01 = ((STIdentifier) symbolTable.getSymbol(this, identifier)).getValue();
-					//run the subtract, Operators should figure out if it is valid
-					rhsExpr = Operators.subtract(this, res01, res02);
-					variable.setValue(rhsExpr);
-					break;
 				case "-=":
-					scanner.getNext();
-					res02 = parseExpression(";");
-					res01 = ((STIdentifier) symbolTable.getSymbol(this, identifier)).getValue();
-					//run the subtract, Operators should figure out if it is valid
-					rhsExpr = Operators.add(this, res01, res02);
-					variable.setValue(rhsExpr);
-					break;
 				case "*=":
-					scanner.getNext();
-					res02 = parseExpression(";");
-					res01 = ((STIdentifier) symbolTable.getSymbol(this, identifier)).getValue();
-					//run the subtract, Operators should figure out if it is valid
-	
-					rhsExpr = Operators.multiply(this, res01, res02);
-					variable.setValue(rhsExpr);
-					break;
 				case "/=":
 					scanner.getNext();
 					res02 = parseExpression(";");
-					res01 = ((STIdentifier) symbolTable.getSymbol(this, identifier)).getValue();
-					//run the subtract, Operators should figure out if it is valid
-					rhsExpr = Operators.divide(this, res01, res02);
-					variable.setValue(rhsExpr);
+					//apply the operator, Operators should figure out if it is valid
+					variable.apply(this, Operators.operatorId(token.substring(0, 1)), res02);
+					rhsExpr = variable.peekValue();
 					break;
 				default:
 					if(bin){
-						rhsExpr = ((STIdentifier) symbolTable.getSymbol(this, identifier)).getValue();
+						rhsExpr = variable(identToken).getValue();
 						break;
 					}
 					throw new SyntaxError("Expected assignment operator as part of assignment", scanner.nextToken);
@@ -1325,9 +1229,9 @@ public class Parser {
 				variable.set(this, beginIndex, rhsExpr);
 			} else if (variable.getValue().dataType == DataType.STRING) {
 				if (isSlice) {
-					variable.getValue().spliceString(this, beginIndex, endIndex, isEnded, rhsExpr.asString(this).strValue);
+					variable.getValue().spliceString(this, beginIndex, endIndex, isEnded, rhsExpr.asString(this).text());
 				} else {
-					variable.getValue().spliceString(this, beginIndex, rhsExpr.asString(this).strValue);
+					variable.getValue().spliceString(this, beginIndex, rhsExpr.asString(this).text());
 				}
 			} else {
 				throw new TypeError("Cannot assign to non-string / non-array value", scanner.currentToken);
@@ -1366,7 +1270,7 @@ public class Parser {
 		
 		String arrayName = scanner.currentToken.tokenStr;
 		
-		STIdentifier array = (STIdentifier) symbolTable.getSymbol(this, arrayName);
+		STIdentifier array = variable(scanner.currentToken);
 
 		if (array.structure != StorageStructure.FIXED_ARRAY && array.structure != StorageStructure.UNBOUNDED_ARRAY && array.getValue().dataType != DataType.STRING) {
 			throw new TypeError("Expected an array type but found " + array.structure, scanner.currentToken);
@@ -1427,10 +1331,11 @@ public class Parser {
 				} else 
 					result = array.fetch(this, beginSliceIndex);
 			} else {
+				Value str = array.getValue().asString(this);
 				if (beginSliceIndex == -1) {
-					result = new Value("" + array.getValue().asString(this).strValue.charAt(array.getValue().asString(this).strValue.length() - 1));
+					result = new Value("" + str.charAt(str.length() - 1));
 				} else {
-					result = new Value("" + array.getValue().asString(this).strValue.charAt(beginSliceIndex));
+					result = new Value("" + str.charAt(beginSliceIndex));
 				}
 			}
 			// Singular array value
@@ -1533,12 +1438,12 @@ public class Parser {
 			break;
 		case "ELEM":
 			argVar = scanner.currentToken.tokenStr;
-			retVal = Functions.elem(this, (STIdentifier) symbolTable.getSymbol(this, argVar));
+			retVal = Functions.elem(this, variable(scanner.currentToken));
 			scanner.getNext();
 			break;
 		case "MAXELEM":
 			argVar = scanner.currentToken.tokenStr;
-			retVal = Functions.maxElem(this, (STIdentifier) symbolTable.getSymbol(this, argVar));
+			retVal = Functions.maxElem(this, variable(scanner.currentToken));
 			scanner.getNext();
 			break;
 		case "LENGTH":
@@ -1591,6 +1496,13 @@ public class Parser {
 	 * @return the evaluated value of an expression
 	 */
 	private Value parseExpression(String terminatingStr) throws SyntaxError{
+		
+		int startTokenIndex = scanner.currentToken.iTokenIndex;
+		if (startTokenIndex >= 0 && startTokenIndex < postfixCache.length
+				&& postfixCache[startTokenIndex] != null && !scanner.debugToken) {
+			return evaluatePostfix(postfixCache[startTokenIndex]);
+		}
+		
 		ArrayList <Token> out = new ArrayList<Token>();
 		Stack<Token> stackToken = new Stack<>();
 		Stack<Value> stackResult = new Stack<>();
@@ -1598,6 +1510,16 @@ public class Parser {
 		String token = scanner.currentToken.tokenStr;
 		Token popped;
 		boolean containsOperator = false;
+		// only literals, identifiers and operators can be cached as postfix
+		boolean cacheable = startTokenIndex >= 0;
+		// Conditional jumps in out, each mapped to the and or or it skips to
+		// when the left operand already decides the result
+		HashMap<Token, Token> jumps = new HashMap<>();
+		// Function calls and array references in out that are run when the
+		// postfix is evaluated, so one in a skipped right operand never runs
+		HashSet<Token> deferred = new HashSet<>();
+		// Once an and or or is read, operands after it may be skipped
+		boolean deferring = false;
 		
 		//System.out.println("****************in");
 		//System.out.println("token = " + scanner.currentToken.tokenStr);
@@ -1607,21 +1529,42 @@ public class Parser {
 			
 			if (scanner.currentToken.primClassif == Token.OPERAND || scanner.currentToken.primClassif == Token.FUNCTION) {
 				//if function or operand place in postfix out
-				if (scanner.currentToken.primClassif == Token.OPERAND){
+				if (deferring && scanner.currentToken.primClassif == Token.OPERAND
+						&& scanner.currentToken.subClassif == Token.IDENTIFIER) {
+					// read when the postfix is evaluated
+					out.add(scanner.currentToken);
+					if (scanner.nextToken.tokenStr.equals("[")) {
+						cacheable = false;
+						deferred.add(scanner.currentToken);
+						scanner.skipTo(closingBracket(scanner.currentToken.iTokenIndex + 1));
+					}
+				} else if (deferring && scanner.currentToken.primClassif == Token.FUNCTION
+						&& scanner.nextToken.tokenStr.equals("(")) {
+					cacheable = false;
+					deferred.add(scanner.currentToken);
+					out.add(scanner.currentToken);
+					scanner.skipTo(closingBracket(scanner.currentToken.iTokenIndex + 1));
+					if (scanner.nextToken.tokenStr.equals(";")) {
+						break;
+					}
+				} else if (scanner.currentToken.primClassif == Token.OPERAND){
 					if(scanner.currentToken.subClassif == Token.IDENTIFIER && ( 
-						  ((STIdentifier) symbolTable.getSymbol(this, token)).structure == StorageStructure.FIXED_ARRAY ||
-						  ((STIdentifier) symbolTable.getSymbol(this, token)).structure == StorageStructure.UNBOUNDED_ARRAY
+						  variable(scanner.currentToken).structure == StorageStructure.FIXED_ARRAY ||
+						  variable(scanner.currentToken).structure == StorageStructure.UNBOUNDED_ARRAY
 						)) {
 						if (scanner.nextToken.tokenStr.equals("[")) {
+							cacheable = false;
 							Token array = parseArrayRef();
 							out.add(array);
 						} else {
-							out.add(((STIdentifier) symbolTable.getSymbol(this, token)).sliceWithoutEnd(this, 0).toToken(this));
+							// whole array, sliced when the postfix is evaluated
+							out.add(scanner.currentToken);
 						}
 					} else if (scanner.currentToken.subClassif == Token.IDENTIFIER 
-							&& symbolTable.containsSymbol(token) 
-							&& ((STIdentifier) symbolTable.getSymbol(this, token)).getValue().dataType == DataType.STRING 
+							&& isDeclared(scanner.currentToken) 
+							&& variable(scanner.currentToken).getValue().dataType == DataType.STRING 
 							&& scanner.nextToken.tokenStr.equals("[") ) {
+						cacheable = false;
 						Token str = parseArrayRef();
 						out.add(str);
 					} else{
@@ -1629,6 +1572,7 @@ public class Parser {
 					}
 				}
 				if (scanner.currentToken.primClassif == Token.FUNCTION){
+					cacheable = false;
 					Token funcResult = parseFunctionCall();
 					if (funcResult != null)
 						out.add(funcResult);
@@ -1648,8 +1592,9 @@ public class Parser {
 					}
 				}
 			} else if (scanner.currentToken.tokenStr.equals("{")) {
-				// Parse value list (inline array declaration)
-				Token valList = parseValueList("}");
+				// Parse value list (inline array declaration), only cached as
+				// the right operand of IN or NOTIN, see cachePostfix
+				Token valList = parseValueList("}", null);
 				//System.out.println(valList.tempValue + " expr ended on " + scanner.currentToken.tokenStr);
 				out.add(valList);
 			}
@@ -1663,6 +1608,14 @@ public class Parser {
 					}
 					out.add(stackToken.pop());
 				}
+				if ((token.equals("and") || token.equals("or")) && startTokenIndex >= 0) {
+					// out now ends with the left operand, jump over the right
+					// one if the left one decides the result
+					Token jump = scanner.currentToken.clone();
+					jumps.put(jump, scanner.currentToken);
+					out.add(jump);
+					deferring = true;
+				}
 				stackToken.push(scanner.currentToken); 
 			}
 			else if (scanner.currentToken.primClassif == Token.SEPARATOR){
@@ -1715,18 +1668,65 @@ public class Parser {
 		}
 				
 		//At this point, our postfix expression is already populated
+		if (cacheable) {
+			cachePostfix(startTokenIndex, out, jumps, containsOperator);
+		}
+		int endTokenIndex = scanner.currentToken.iTokenIndex;
+		
 		//check for possible errors
-		for(Token entry : out){	
+		for (int i = 0; i < out.size(); i++) {
+			Token entry = out.get(i);
 			Value res = null, res2 = null;
 			token = entry.tokenStr;
-			if (entry.isValueContainer) {
+			if (jumps.containsKey(entry)) {
+				Token operator = jumps.get(entry);
+				if (!stackResult.isEmpty()) {
+					boolean left = stackResult.peek().asBoolean(this).booleanValue;
+					if (left == operator.tokenStr.equals("or")) {
+						// the right operand can't change the result, skip it
+						stackResult.pop();
+						stackResult.push(Value.valueOf(left));
+						i = out.indexOf(operator);
+					}
+				}
+			} else if (deferred.contains(entry)) {
+				// its tokens were already shown by debug Token when skipped
+				boolean debugToken = scanner.debugToken;
+				scanner.debugToken = false;
+				try {
+					scanner.skipTo(entry.iTokenIndex);
+					Token result = entry.primClassif == Token.FUNCTION ? parseFunctionCall() : parseArrayRef();
+					scanner.skipTo(endTokenIndex);
+					if (result != null) {
+						stackResult.push(result.tempValue);
+					}
+				} finally {
+					scanner.debugToken = debugToken;
+				}
+			} else if (entry.isValueContainer) {
 				stackResult.push(entry.tempValue);
 			} else if(entry.primClassif == Token.OPERAND){
 				//Found operand; check if it is an actual value
 				//if not, convert to an actual value and push to stack
 				switch(entry.subClassif){
 					case Token.IDENTIFIER:
-						res = ((STIdentifier) symbolTable.getSymbol(this, token)).getValue();
+						if (deferring && !isDeclared(entry)) {
+							// report it on the identifier, as reading it while
+							// converting to postfix would have
+							scanner.setCurrentToken(entry);
+						}
+						STIdentifier variable = variable(entry);
+						if (variable.structure == StorageStructure.FIXED_ARRAY
+								|| variable.structure == StorageStructure.UNBOUNDED_ARRAY) {
+							// sliced on the identifier, as it was when the array
+							// was read while converting to postfix
+							Token current = scanner.currentToken;
+							scanner.setCurrentToken(entry);
+							res = variable.sliceWithoutEnd(this, 0);
+							scanner.setCurrentToken(current);
+						} else {
+							res = variable.getValue();
+						}
 						//System.out.println("before end 1= " + res);
 						stackResult.push(res);
 						break;
@@ -1925,4 +1925,268 @@ public class Parser {
 	}
 
 
+	/**
+	 * Function: closingBracket
+	 * @param openTokenIndex token index of a ( or [
+	 * @return token index of the ) or ] that closes it, or of the end of the
+	 * 			source if it is never closed
+	 */
+	private int closingBracket(int openTokenIndex) {
+		
+		int depth = 0;
+		for (int i = openTokenIndex; ; i++) {
+			Token token = scanner.tokenAt(i);
+			if (token.primClassif == Token.EOF) {
+				return i;
+			} else if (token.primClassif != Token.SEPARATOR) {
+				continue;
+			} else if (token.tokenStr.equals("(") || token.tokenStr.equals("[")) {
+				depth++;
+			} else if ((token.tokenStr.equals(")") || token.tokenStr.equals("]")) && --depth == 0) {
+				return i;
+			}
+		}
+	}
+	
+	/**
+	 * Function: cachePostfix
+	 * Purpose: stores the postfix form of an expression that only contains
+	 * 			literals, identifiers and operators, so the next time it is
+	 * 			reached only the postfix evaluation runs
+	 * @param startTokenIndex token index the expression starts on
+	 * @param out postfix expression built by parseExpression
+	 * @param jumps conditional jumps in out, mapped to their and or or
+	 * @param containsOperator whether the expression has an operator
+	 */
+	private void cachePostfix(int startTokenIndex, ArrayList<Token> out, HashMap<Token, Token> jumps, boolean containsOperator) {
+		
+		if (out.isEmpty()) {
+			return;
+		}
+		
+		Token[] tokens = out.toArray(new Token[out.size()]);
+		int[] operators = new int[tokens.length];
+		int[] jumpTargets = new int[tokens.length];
+		Value[] literals = new Value[tokens.length];
+		
+		for (int i = 0; i < tokens.length; i++) {
+			Token entry = tokens[i];
+			operators[i] = Postfix.OPERAND;
+			if (jumps.containsKey(entry)) {
+				operators[i] = Postfix.JUMP;
+				jumpTargets[i] = out.indexOf(jumps.get(entry));
+			} else if (entry.isValueContainer && entry.tempValue != null 
+					&& entry.tempValue.structure == Structure.MULTIVALUE && i + 1 < tokens.length
+					&& (tokens[i + 1].tokenStr.equals("IN") || tokens[i + 1].tokenStr.equals("NOTIN"))) {
+				// a value list searched by IN or NOTIN, which leave it as it is
+				literals[i] = entry.tempValue;
+			} else if (entry.isValueContainer || entry.iTokenIndex < 0) {
+				return;
+			} else if (entry.primClassif == Token.OPERATOR) {
+				operators[i] = Operators.operatorId(entry.tokenStr);
+				if (operators[i] < 0) {
+					return;
+				}
+			} else if (entry.primClassif != Token.OPERAND) {
+				return;
+			} else if (entry.subClassif != Token.IDENTIFIER) {
+				switch (entry.subClassif) {
+				case Token.INTEGER:
+				case Token.FLOAT:
+				case Token.BOOLEAN:
+				case Token.STRING:
+				case Token.DATE:
+					literals[i] = entry.toResult();
+					break;
+				default:
+					return;
+				}
+			}
+		}
+		
+		if (startTokenIndex >= postfixCache.length) {
+			postfixCache = Arrays.copyOf(postfixCache, Math.max(startTokenIndex + 1, postfixCache.length * 2));
+		}
+		postfixCache[startTokenIndex] = new Postfix(this, tokens, operators, jumpTargets, literals, containsOperator, 
+				scanner.currentToken.iTokenIndex);
+	}
+	
+	/**
+	 * Function: appendPostfix
+	 * Purpose: evaluates the right hand side of an assignment s = s # x ...
+	 * 			to a String variable by appending the other operands to s,
+	 * 			instead of copying s into a new string. Only expressions
+	 * 			that are cached, which are those reached again as in a loop
+	 * 			building up a string, are evaluated this way.
+	 * @param variable the variable assigned to
+	 * @return true if the assignment was done, false if it is still to be
+	 * 			evaluated as usual
+	 */
+	private boolean appendPostfix(STIdentifier variable) {
+		
+		int startTokenIndex = scanner.currentToken.iTokenIndex;
+		if (startTokenIndex < 0 || startTokenIndex >= postfixCache.length
+				|| scanner.debugToken || debugExpr || debugAssignment) {
+			return false;
+		}
+		
+		Postfix postfix = postfixCache[startTokenIndex];
+		if (postfix == null || postfix.accumulator == null 
+				|| !postfix.accumulator.tokenStr.equals(variable.symbol) || !variable.appendable()) {
+			return false;
+		}
+		
+		evaluatePostfix(postfix, variable);
+		return true;
+	}
+	
+	/**
+	 * Function: evaluatePostfix
+	 * Purpose: evaluates a cached postfix expression and leaves the scanner
+	 * 			on the token the expression ended on, as parseExpression does
+	 * @param postfix postfix form stored by cachePostfix
+	 * @return the evaluated value of the expression
+	 */
+	private Value evaluatePostfix(Postfix postfix) {
+		return evaluatePostfix(postfix, null);
+	}
+	
+	/**
+	 * Function: evaluatePostfix
+	 * Purpose: evaluates a cached postfix expression. With an accumulator,
+	 * 			the expression is one appending to it: its first operand is
+	 * 			not read and the other operands of its final # are appended
+	 * 			to the accumulator.
+	 * @param postfix postfix form stored by cachePostfix
+	 * @param accumulator variable named by postfix.accumulator, or null
+	 * @return the evaluated value of the expression, null with an accumulator
+	 */
+	private Value evaluatePostfix(Postfix postfix, STIdentifier accumulator) {
+		
+		Token[] tokens = postfix.tokens;
+		int[] operators = postfix.operators;
+		Value[] operands = new Value[tokens.length];
+		// Index of each array operand searched by IN or NOTIN, which has no value
+		Membership[] searched = postfix.searched == null ? null : new Membership[tokens.length];
+		
+		// Identifiers up to the first jump are resolved before anything is
+		// evaluated, the ones after it only if they are reached
+		for (int i = accumulator == null ? 0 : 1; i < postfix.firstJump; i++) {
+			if (operators[i] == Postfix.OPERAND) {
+				operands[i] = operand(postfix, i, searched);
+			}
+		}
+		
+		// Move to the end of the expression, keeping the token before it as previous
+		scanner.setPosition(postfix.endTokenIndex - 1);
+		scanner.getNext();
+		Token endToken = scanner.currentToken;
+		
+		// The stack never grows past the entry being read, so it can
+		// share the array with the operands already consumed
+		Value[] stackResult = operands;
+		int sp = 0;
+		
+		for (int i = 0; i < tokens.length; i++) {
+			int operator = operators[i];
+			if (operator == Postfix.OPERAND) {
+				if (i < postfix.firstJump) {
+					stackResult[sp++] = operands[i];
+				} else {
+					stackResult[sp++] = operand(postfix, i, searched);
+					scanner.setCurrentToken(endToken);
+				}
+			} else if (operator == Postfix.JUMP) {
+				if (sp > 0) {
+					boolean left = stackResult[sp - 1].asBoolean(this).booleanValue;
+					if (left == (operators[postfix.jumpTargets[i]] == Operators.OR)) {
+						// the right operand can't change the result, skip it
+						stackResult[sp - 1] = Value.valueOf(left);
+						i = postfix.jumpTargets[i];
+					}
+				}
+			} else if (sp == 0) {
+				throw new UnsupportedOperationError("No operand(s) to be evaluated by the operator.", tokens[i]);
+			} else if (Operators.isUnary(operator)) {
+				stackResult[sp - 1] = Operators.unary(this, operator, stackResult[sp - 1]);
+			} else if (sp == 1) {
+				String message = "Too few operands for operation to be evaluated";
+				if (operator >= Operators.NOT_EQUAL && operator <= Operators.NOTIN) {
+					message += ".";
+				}
+				throw new UnsupportedOperationError(message, tokens[i].iSourceLineNr, tokens[i].iColPos);
+			} else if (accumulator != null && i == tokens.length - 1) {
+				// the first operand is the accumulator itself
+				int count = postfix.concatCounts[i] - 1;
+				accumulator.append(Operators.concatenate(this, stackResult, sp - count, count).text());
+				return null;
+			} else if (operator == Operators.CONCATENATE && postfix.concatCounts[i] > 2) {
+				int count = postfix.concatCounts[i];
+				sp -= count - 1;
+				stackResult[sp - 1] = Operators.concatenate(this, stackResult, sp - 1, count);
+			} else if (searched != null && (postfix.memberships[i] != null || searched[i - 1] != null)) {
+				// IN or NOTIN of a literal list or an array
+				Membership membership = postfix.memberships[i] != null ? postfix.memberships[i] : searched[i - 1];
+				sp--;
+				stackResult[sp - 1] = Value.valueOf(membership.contains(this, stackResult[sp - 1]) == (operator == Operators.IN));
+			} else {
+				sp--;
+				stackResult[sp - 1] = Operators.binary(this, operator, stackResult[sp - 1], stackResult[sp]);
+			}
+		}
+		
+		//what's left in stack should be the final result
+		if (sp == 0) {
+			throw new UnsupportedOperationError("Invalid Expression found. There are too few operands for the operators provided"
+					, scanner.currentToken);
+		}
+		Value finalValue = stackResult[--sp];
+		if (print && sp > 0)
+			throw new SyntaxError("Expected a `,` to separate values in print", scanner.previous);
+		if (debugExpr && postfix.containsOperator){
+			System.out.println("\t\t... Expression result = " + finalValue);
+		}
+		
+		return finalValue;
+	}
+	
+	/**
+	 * Function: operand
+	 * Purpose: reads an operand entry of a cached postfix expression. Errors
+	 * 			are reported on the operand's token, which is left as the
+	 * 			current token if the operand is an array.
+	 * @param postfix postfix form stored by cachePostfix
+	 * @param i index of the operand entry
+	 * @param searched where the index of an array searched by IN or NOTIN
+	 * 			is stored instead of copying the array, null if there are none
+	 * @return a copy of a literal, a value list, or the value of a variable,
+	 * 			null for an array that is searched
+	 */
+	private Value operand(Postfix postfix, int i, Membership[] searched) {
+		
+		if (postfix.literals[i] != null) {
+			// a value list is only ever searched, so it is not copied
+			Value literal = postfix.literals[i];
+			return literal.structure == Structure.MULTIVALUE ? literal : literal.clone();
+		}
+		
+		Token token = postfix.tokens[i];
+		if (!isDeclared(token)) {
+			scanner.setCurrentToken(token);
+		}
+		STIdentifier variable = variable(token);
+		if (variable.structure == StorageStructure.FIXED_ARRAY 
+				|| variable.structure == StorageStructure.UNBOUNDED_ARRAY) {
+			scanner.setCurrentToken(token);
+			if (searched != null && postfix.searched[i]) {
+				searched[i] = variable.membership(this);
+				return null;
+			}
+			return variable.sliceWithoutEnd(this, 0);
+		} else if (postfix.consumesOperands) {
+			return variable.peekValue();
+		}
+		return variable.getValue();
+	}
+
 }	
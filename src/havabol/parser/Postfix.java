@@ -0,0 +1,328 @@
+package havabol.parser;
+
+import java.util.Arrays;
+
+import havabol.error.ArithmeticError;
+import havabol.error.TypeError;
+import havabol.error.UnsupportedOperationError;
+import havabol.lexer.Token;
+import havabol.runtime.Membership;
+import havabol.runtime.Operators;
+
+/**
+ * Postfix form of an expression that only contains literals, identifiers
+ * and operators. Parser keeps one per expression start token so that an
+ * expression inside a loop is converted from infix only once. Operators
+ * with literal operands are evaluated when the postfix form is made, and a
+ * chain of # operators becomes a single entry joining all of its operands.
+ * IN and NOTIN search a literal list or an array through a hash index.
+ */
+public class Postfix {
+
+	// Entries of operators that are not operator identifiers
+	public static final int OPERAND = -1;
+	public static final int JUMP = -2;
+
+	// Operands and operators in postfix order
+	public Token[] tokens;
+	// Operator identifier of each entry, OPERAND for operands and JUMP for
+	// the conditional jump that follows the left operand of an and or or
+	public int[] operators;
+	// Index of the and or or entry each JUMP entry skips to when its left
+	// operand decides the result, unused for other entries
+	public int[] jumpTargets;
+	// Index of the first JUMP entry, the length of tokens if there is none.
+	// Identifiers after it may be skipped, so they are only read when reached.
+	public int firstJump;
+	// Value of each literal operand, null for identifiers and operators
+	public Value[] literals;
+	// Number of operands each # entry joins. A chain a # b # c is a single
+	// entry joining three operands, so it builds no intermediate strings.
+	public int[] concatCounts;
+	// Identifier the expression appends to, when it has the form s # x ...
+	// with s its first entry, null for other expressions
+	public Token accumulator;
+	// Index of the literal list each IN and NOTIN entry searches, null for
+	// other entries. Both arrays are null if no IN or NOTIN has a single
+	// entry for its right operand.
+	public Membership[] memberships;
+	// Whether each identifier entry is the right operand of an IN or NOTIN,
+	// an array is then searched through its index instead of being copied
+	public boolean[] searched;
+
+	public boolean containsOperator;
+	// Every operand is consumed by an operator, so none can end up as the
+	// result and variables may be read without handing out their value
+	public boolean consumesOperands;
+	// Token index the expression ended on
+	public int endTokenIndex;
+
+	public Postfix(Parser parser, Token[] tokens, int[] operators, int[] jumpTargets, Value[] literals, boolean containsOperator, int endTokenIndex) {
+		this.tokens = tokens;
+		this.operators = operators;
+		this.jumpTargets = jumpTargets;
+		this.literals = literals;
+		this.containsOperator = containsOperator;
+		this.endTokenIndex = endTokenIndex;
+		
+		foldConstants(parser);
+		chainConcatenations();
+		this.consumesOperands = consumesOperands(this.operators, this.concatCounts);
+		indexMemberships(parser);
+		
+		firstJump = 0;
+		while (firstJump < this.operators.length && this.operators[firstJump] != JUMP) {
+			firstJump++;
+		}
+	}
+	
+	/**
+	 * Function: foldConstants
+	 * Purpose: replaces every operator whose operands are literals by a
+	 * 			literal of its result, computed by Operators as evaluation
+	 * 			would. An operator that fails is kept, so it fails when the
+	 * 			expression runs. Expressions with missing operands are kept
+	 * 			as they are.
+	 * @param parser parser used for coercions while folding
+	 */
+	private void foldConstants(Parser parser) {
+		
+		int length = operators.length;
+		Token[] foldedTokens = new Token[length];
+		int[] foldedOperators = new int[length];
+		int[] foldedTargets = new int[length];
+		Value[] foldedLiterals = new Value[length];
+		// Index each entry was copied to
+		int[] copiedTo = new int[length];
+		int n = 0;
+		
+		// Stack of the evaluation: where each operand starts in the folded
+		// entries and whether it is a literal
+		int[] start = new int[length];
+		boolean[] constant = new boolean[length];
+		int sp = 0;
+		
+		for (int i = 0; i < length; i++) {
+			int operator = operators[i];
+			copiedTo[i] = n;
+			foldedTokens[n] = tokens[i];
+			foldedOperators[n] = operator;
+			foldedTargets[n] = jumpTargets[i];
+			foldedLiterals[n] = literals[i];
+			n++;
+			
+			if (operator == JUMP) {
+				continue;
+			} else if (operator == OPERAND) {
+				start[sp] = n - 1;
+				constant[sp] = literals[i] != null;
+				sp++;
+				continue;
+			}
+			
+			boolean unary = Operators.isUnary(operator);
+			if (unary ? sp < 1 : sp < 2) {
+				// evaluation throws on this operator
+				return;
+			}
+			
+			// The operands are the entries first to sp - 1 of the stack
+			int first = unary ? sp - 1 : sp - 2;
+			boolean literalOperands = constant[first] && constant[sp - 1];
+			sp = first + 1;
+			constant[first] = false;
+			if (!literalOperands) {
+				continue;
+			}
+			
+			Value result;
+			try {
+				if (unary) {
+					result = Operators.unary(parser, operator, foldedLiterals[start[first]]);
+				} else {
+					result = Operators.binary(parser, operator, foldedLiterals[start[first]], foldedLiterals[start[first + 1]]);
+				}
+			} catch (TypeError | ArithmeticError | UnsupportedOperationError e) {
+				// left to fail when it runs
+				continue;
+			}
+			
+			// The operands, and any jump between them, become one literal
+			n = start[first];
+			foldedOperators[n] = OPERAND;
+			foldedLiterals[n] = result;
+			constant[first] = true;
+			n++;
+		}
+		
+		for (int i = 0; i < n; i++) {
+			if (foldedOperators[i] == JUMP) {
+				foldedTargets[i] = copiedTo[foldedTargets[i]];
+			}
+		}
+		
+		tokens = Arrays.copyOf(foldedTokens, n);
+		operators = Arrays.copyOf(foldedOperators, n);
+		jumpTargets = Arrays.copyOf(foldedTargets, n);
+		literals = Arrays.copyOf(foldedLiterals, n);
+	}
+	
+	/**
+	 * Function: indexMemberships
+	 * Purpose: finds the IN and NOTIN entries whose right operand is the
+	 * 			entry before them. A literal list there gets its index now,
+	 * 			an identifier is marked so an array is indexed when read.
+	 * @param parser parser used for coercions while indexing
+	 */
+	private void indexMemberships(Parser parser) {
+		
+		for (int i = 1; i < operators.length; i++) {
+			if ((operators[i] != Operators.IN && operators[i] != Operators.NOTIN) || operators[i - 1] != OPERAND) {
+				continue;
+			}
+			
+			if (memberships == null) {
+				memberships = new Membership[operators.length];
+				searched = new boolean[operators.length];
+			}
+			
+			if (literals[i - 1] == null) {
+				searched[i - 1] = true;
+			} else if (literals[i - 1].structure == Structure.MULTIVALUE) {
+				memberships[i] = new Membership(parser, literals[i - 1]);
+			}
+		}
+	}
+	
+	/**
+	 * Function: chainConcatenations
+	 * Purpose: merges every # whose operand is the result of another # into
+	 * 			that one, so a chain of them joins all of its operands at
+	 * 			once. # only ever gives a String, so the joined result is
+	 * 			the same. Expressions with missing operands are kept as
+	 * 			they are.
+	 */
+	private void chainConcatenations() {
+		
+		int length = operators.length;
+		concatCounts = new int[length];
+		// The # entry each stack entry is the result of, -1 for others
+		int[] concatenation = new int[length];
+		// Whether each stack entry is a lone operand, or a # whose first
+		// operand is one
+		boolean[] single = new boolean[length];
+		boolean[] merged = new boolean[length];
+		int sp = 0;
+		
+		for (int i = 0; i < length; i++) {
+			int operator = operators[i];
+			if (operator == JUMP) {
+				continue;
+			} else if (operator == OPERAND) {
+				concatenation[sp] = -1;
+				single[sp] = true;
+				sp++;
+				continue;
+			}
+			
+			boolean unary = Operators.isUnary(operator);
+			if (unary ? sp < 1 : sp < 2) {
+				// evaluation throws on this operator
+				Arrays.fill(concatCounts, 2);
+				return;
+			}
+			
+			int first = unary ? sp - 1 : sp - 2;
+			sp = first + 1;
+			if (operator != Operators.CONCATENATE) {
+				concatenation[first] = -1;
+				single[first] = false;
+				continue;
+			}
+			
+			// The operands of an operand that is itself a # are still on
+			// the stack once that entry is dropped
+			for (int k = first; k <= first + 1; k++) {
+				int j = concatenation[k];
+				if (j >= 0) {
+					merged[j] = true;
+					concatCounts[i] += concatCounts[j];
+				} else {
+					concatCounts[i]++;
+				}
+			}
+			concatenation[first] = i;
+		}
+		
+		if (sp == 1 && concatenation[0] == length - 1 && single[0] && literals[0] == null) {
+			accumulator = tokens[0];
+		}
+		
+		// Drop the merged entries, moving jump targets along
+		int[] copiedTo = new int[length];
+		int n = 0;
+		for (int i = 0; i < length; i++) {
+			copiedTo[i] = n;
+			if (merged[i]) {
+				continue;
+			}
+			tokens[n] = tokens[i];
+			operators[n] = operators[i];
+			jumpTargets[n] = jumpTargets[i];
+			literals[n] = literals[i];
+			concatCounts[n] = concatCounts[i];
+			n++;
+		}
+		for (int i = 0; i < n; i++) {
+			if (operators[i] == JUMP) {
+				jumpTargets[i] = copiedTo[jumpTargets[i]];
+			}
+		}
+		
+		tokens = Arrays.copyOf(tokens, n);
+		operators = Arrays.copyOf(operators, n);
+		jumpTargets = Arrays.copyOf(jumpTargets, n);
+		literals = Arrays.copyOf(literals, n);
+		concatCounts = Arrays.copyOf(concatCounts, n);
+	}
+	
+	/**
+	 * Function: consumesOperands
+	 * Purpose: runs the stack of the postfix evaluation on whether each
+	 * 			entry is an operand or an operator result. A jump that is
+	 * 			taken leaves an operator result where its and or or would
+	 * 			have, so jumps are passed over.
+	 * @return true if only operator results are left on the stack
+	 */
+	private static boolean consumesOperands(int[] operators, int[] concatCounts) {
+		boolean[] isOperand = new boolean[operators.length];
+		int sp = 0;
+		
+		for (int i = 0; i < operators.length; i++) {
+			int operator = operators[i];
+			if (operator == JUMP) {
+				continue;
+			} else if (operator == OPERAND) {
+				isOperand[sp++] = true;
+				continue;
+			}
+			
+			int count = Operators.isUnary(operator) ? 1 
+					: operator == Operators.CONCATENATE ? concatCounts[i] : 2;
+			if (sp < count) {
+				// evaluation throws on this operator
+				return true;
+			}
+			sp -= count - 1;
+			isOperand[sp - 1] = false;
+		}
+		
+		for (int i = 0; i < sp; i++) {
+			if (isOperand[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,184 @@
+package havabol.parser;
+
+/**
+ * Immutable string held as a balanced tree of pieces, used by Value for
+ * long strings that are sliced, or spliced with text of another length. A
+ * piece is a view of part of a String, so taking a substring shares the
+ * characters instead of copying them, and a splice only rebuilds the nodes
+ * along the edited positions. Reading a character, slicing and splicing
+ * take O(log n) time.
+ *
+ * Nodes are kept balanced like an AVL tree: the heights of the two halves
+ * of a node differ by at most one. Small neighbouring pieces are copied
+ * into one, so editing one character at a time doesn't leave a piece per
+ * character.
+ */
+final class Rope {
+
+	// Neighbouring pieces up to this length together are copied into one
+	private static final int PIECE_MERGE = 64;
+
+	// Piece: characters offset to offset + length of text, null for nodes
+	private final String text;
+	private final int offset;
+	// Node: the two halves, null for pieces
+	private final Rope left;
+	private final Rope right;
+
+	private final int length;
+	// 0 for pieces
+	private final int height;
+
+	private Rope(String text, int offset, int length) {
+		this.text = text;
+		this.offset = offset;
+		this.left = null;
+		this.right = null;
+		this.length = length;
+		this.height = 0;
+	}
+
+	private Rope(Rope left, Rope right) {
+		this.text = null;
+		this.offset = 0;
+		this.left = left;
+		this.right = right;
+		this.length = left.length + right.length;
+		this.height = Math.max(left.height, right.height) + 1;
+	}
+
+	/**
+	 * Function: of
+	 * @return a rope of a single piece holding the whole string
+	 */
+	static Rope of(String text) {
+		return new Rope(text, 0, text.length());
+	}
+
+	int length() {
+		return length;
+	}
+
+	/**
+	 * Function: charAt
+	 * @param index 0 <= index < length
+	 */
+	char charAt(int index) {
+		Rope rope = this;
+		while (rope.text == null) {
+			if (index < rope.left.length) {
+				rope = rope.left;
+			} else {
+				index -= rope.left.length;
+				rope = rope.right;
+			}
+		}
+		return rope.text.charAt(rope.offset + index);
+	}
+
+	/**
+	 * Function: substring
+	 * Purpose: returns the characters from begin to end, sharing the
+	 * 			pieces of this rope
+	 * @param begin 0 <= begin <= end
+	 * @param end end <= length
+	 */
+	Rope substring(int begin, int end) {
+		if (begin == 0 && end == length) {
+			return this;
+		}
+		if (text != null) {
+			return new Rope(text, offset + begin, end - begin);
+		}
+
+		int split = left.length;
+		if (end <= split) {
+			return left.substring(begin, end);
+		} else if (begin >= split) {
+			return right.substring(begin - split, end - split);
+		}
+		return join(left.substring(begin, split), right.substring(0, end - split));
+	}
+
+	/**
+	 * Function: splice
+	 * Purpose: returns the characters before begin, then the inserted text,
+	 * 			then the characters from end on
+	 * @param begin 0 <= begin <= end
+	 * @param end end <= length
+	 * @param insert text to put in between
+	 */
+	Rope splice(int begin, int end, String insert) {
+		return join(join(substring(0, begin), of(insert)), substring(end, length));
+	}
+
+	/**
+	 * Function: join
+	 * Purpose: concatenates two ropes, descending the taller one to where
+	 * 			the other fits and rebalancing on the way back up
+	 */
+	static Rope join(Rope first, Rope second) {
+		if (first.length == 0) {
+			return second;
+		} else if (second.length == 0) {
+			return first;
+		} else if (first.text != null && second.text != null && first.length + second.length <= PIECE_MERGE) {
+			char[] merged = new char[first.length + second.length];
+			first.getChars(merged, 0);
+			second.getChars(merged, first.length);
+			return of(new String(merged));
+		}
+
+		if (first.height > second.height + 1) {
+			return balance(first.left, join(first.right, second));
+		} else if (second.height > first.height + 1) {
+			return balance(join(first, second.left), second.right);
+		}
+		return new Rope(first, second);
+	}
+
+	/**
+	 * Function: balance
+	 * Purpose: makes a node of two halves whose heights differ by at most
+	 * 			two, rotating it so they differ by at most one
+	 */
+	private static Rope balance(Rope left, Rope right) {
+		if (left.height > right.height + 1) {
+			if (left.left.height >= left.right.height) {
+				return new Rope(left.left, new Rope(left.right, right));
+			}
+			return new Rope(new Rope(left.left, left.right.left), new Rope(left.right.right, right));
+		} else if (right.height > left.height + 1) {
+			if (right.right.height >= right.left.height) {
+				return new Rope(new Rope(left, right.left), right.right);
+			}
+			return new Rope(new Rope(left, right.left.left), new Rope(right.left.right, right.right));
+		}
+		return new Rope(left, right);
+	}
+
+	/**
+	 * Function: getChars
+	 * Purpose: copies the characters of the rope into an array
+	 * @param dst array to copy into
+	 * @param dstBegin index in dst to copy the first character to
+	 */
+	private void getChars(char[] dst, int dstBegin) {
+		if (text != null) {
+			text.getChars(offset, offset + length, dst, dstBegin);
+		} else {
+			left.getChars(dst, dstBegin);
+			right.getChars(dst, dstBegin + left.length);
+		}
+	}
+
+	public String toString() {
+		if (text != null && offset == 0 && length == text.length()) {
+			return text;
+		}
+		char[] chars = new char[length];
+		getChars(chars, 0);
+		return new String(chars);
+	}
+
+}
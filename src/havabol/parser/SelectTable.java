@@ -0,0 +1,62 @@
+package havabol.parser;
+
+import java.util.HashMap;
+
+import havabol.storage.DataType;
+import havabol.storage.STIdentifier;
+
+/**
+ * Case table of a select statement. Maps each when value to the body of the
+ * first when that lists it, so a select is dispatched with a single lookup.
+ * Parser adds when lists in source order the first time dispatch needs
+ * them. The ast and vm engines add all of them up front once the lists are
+ * constants, see ConstantFolder.visitSelect.
+ *
+ * @param <B> how a body is given: token indices for Parser, the position of
+ * 			the when for the other engines
+ */
+public class SelectTable<B> {
+
+	public HashMap<Integer, B> intCases = new HashMap<>();
+	public HashMap<String, B> stringCases = new HashMap<>();
+
+	// Index of the first clause not added yet. Once every when has been
+	// added it is the index of the default or endselect token. Only used
+	// by Parser.
+	public int nextClause;
+
+	public SelectTable(int firstClause) {
+		this.nextClause = firstClause;
+	}
+
+	/**
+	 * Function: add
+	 * Purpose: adds the values of a when list, keeping earlier whens first
+	 * @param caseVal value list of the when
+	 * @param body body the values select
+	 */
+	public void add(Value caseVal, B body) {
+		for (Value v : caseVal.arrayValue) {
+			intCases.putIfAbsent(v.intValue, body);
+			if (v.text() != null) {
+				stringCases.putIfAbsent(v.text(), body);
+			}
+		}
+	}
+
+	/**
+	 * Function: find
+	 * @param controlVariable variable the select is on
+	 * @return the body of the when matching its value, null if none of the
+	 * 			whens added so far matches
+	 */
+	public B find(STIdentifier controlVariable) {
+		if (controlVariable.declaredType == DataType.STRING) {
+			return stringCases.get(controlVariable.getValue().text());
+		} else if (controlVariable.declaredType == DataType.INTEGER) {
+			return intCases.get(controlVariable.getValue().intValue);
+		}
+		return null;
+	}
+
+}
@@ -3,6 +3,7 @@ package havabol.parser;
 import havabol.storage.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import havabol.error.IndexError;
@@ -11,21 +12,41 @@ import havabol.lexer.*;
 import havabol.runtime.*;
 
 /**
- * Represents a primitive value in Havabol
+ * Represents a value in Havabol. dataType selects the field holding a
+ * primitive: intValue for Int, floatValue for Float, booleanValue for Bool
+ * and text for String. A Date holds its day number in intValue, see
+ * Functions.dayNumber, and its characters are made from it when asked for;
+ * only a date before 0000-03-02, which the day number can't be split back
+ * into, also keeps its text. A MULTIVALUE keeps its elements in
+ * arrayValue, which is only allocated once an element is added.
+ *
+ * text is the one field for the characters, whichever way they are held.
+ * A long String that is sliced, or spliced with text of another length, is
+ * held by a Rope, so slices share its characters and such splices don't
+ * move the characters after them. Other splices edit a StringBuilder in
+ * place, so assignments to an index or a slice of a variable don't copy
+ * it. In both cases a String is only made when the whole string is needed,
+ * so the characters are read through text(), length and charAt.
  */
 public class Value {
 	
+	// Shared by every value without elements, never modified
+	private static final List<Value> NO_ITEMS = Collections.emptyList();
+	// Slices of Strings at least this long, and splices of them that
+	// change their length, use a Rope
+	private static final int ROPE_THRESHOLD = 256;
+	
 	public DataType dataType;
 	public Structure structure;
-	public String terminatingStr;
 	
-	public String strValue;
+	// Characters of a String, or of a Date before 0000-03-02: a String,
+	// a Rope or a StringBuilder
+	private Object text;
 	public int intValue;
 	public double floatValue;
 	public boolean booleanValue;
-	public int year, month, day;
 
-	public List<Value> arrayValue = new ArrayList<>();
+	public List<Value> arrayValue = NO_ITEMS;
 	
 	public int numItems = 0;
 
@@ -49,7 +70,7 @@ public class Value {
 	public Value(String strValue) {
 		this.dataType = DataType.STRING;
 		this.structure = Structure.PRIMITIVE;
-		this.strValue = strValue;
+		this.text = strValue;
 	}
 	
 	public Value(boolean booleanValue) {
@@ -58,6 +79,52 @@ public class Value {
 		this.booleanValue = booleanValue;
 	}
 	
+	// Shared results of operators, never modified
+	public static final Value TRUE = new Value(true);
+	public static final Value FALSE = new Value(false);
+	private static final int SMALL_INT_MIN = -128;
+	private static final int SMALL_INT_MAX = 1023;
+	private static final Value[] SMALL_INTS = new Value[SMALL_INT_MAX - SMALL_INT_MIN + 1];
+	
+	static {
+		for (int i = 0; i < SMALL_INTS.length; i++) {
+			SMALL_INTS[i] = new Value(SMALL_INT_MIN + i);
+		}
+	}
+	
+	/**
+	 * Function:	valueOf
+	 * Purpose:		returns an Int value that must not be modified, shared
+	 * 				for small values so that operators rarely allocate
+	 */
+	public static Value valueOf(int intValue) {
+		if (intValue >= SMALL_INT_MIN && intValue <= SMALL_INT_MAX) {
+			return SMALL_INTS[intValue - SMALL_INT_MIN];
+		}
+		return new Value(intValue);
+	}
+	
+	/**
+	 * Function:	valueOf
+	 * @return		the shared TRUE or FALSE value, which must not be modified
+	 */
+	public static Value valueOf(boolean booleanValue) {
+		return booleanValue ? TRUE : FALSE;
+	}
+	
+	/**
+	 * Function:	date
+	 * @param dayNumber day number from 0000-03-02 on, see Functions.dayNumber
+	 * @return		a Date value of the day number
+	 */
+	public static Value date(int dayNumber) {
+		Value res = new Value();
+		res.dataType = DataType.DATE;
+		res.structure = Structure.PRIMITIVE;
+		res.intValue = dayNumber;
+		return res;
+	}
+	
 	public Value asVoid() {
 		this.dataType = DataType.VOID;
 		this.structure = Structure.VOID;
@@ -111,11 +178,115 @@ public class Value {
 	 */
 	public void add(Parser parser, Value value) {
 		
+		if (this.arrayValue == NO_ITEMS) {
+			this.arrayValue = new ArrayList<>();
+		}
 		this.arrayValue.add(value);
 		numItems++;
 		
 	}
 	
+	/**
+	 * Function:	text
+	 * @return		characters of a String or Date value. A Date is formatted
+	 * 				from its day number each time. A rope or an edit
+	 * 				buffer is made into a String here and replaced by it, so
+	 * 				an edited String is copied once after each series of
+	 * 				edits and again when the next series starts.
+	 */
+	public String text() {
+		if (this.text == null && this.dataType == DataType.DATE) {
+			return Functions.formatDate(this.intValue);
+		}
+		if (this.text != null && !(this.text instanceof String)) {
+			this.text = this.text.toString();
+		}
+		return (String) this.text;
+	}
+	
+	/**
+	 * Function:	length
+	 * @return		number of characters of a String value
+	 */
+	public int length() {
+		if (this.text instanceof Rope) {
+			return ((Rope) this.text).length();
+		}
+		return ((CharSequence) this.text).length();
+	}
+	
+	/**
+	 * Function:	charAt
+	 * @return		character at an index of a String value, as String.charAt
+	 */
+	public char charAt(int index) {
+		if (index >= 0 && index < length()) {
+			if (this.text instanceof StringBuilder) {
+				return ((StringBuilder) this.text).charAt(index);
+			} else if (this.text instanceof Rope) {
+				return ((Rope) this.text).charAt(index);
+			}
+		}
+		return text().charAt(index);
+	}
+	
+	/**
+	 * Function:	substring
+	 * Purpose:		slices a String value as String.substring does. A long
+	 * 				slice shares the characters of this value.
+	 * @param beginIndex Inclusive begin index
+	 * @param endIndex Exclusive end index
+	 * @return		a new String value
+	 */
+	public Value substring(int beginIndex, int endIndex) {
+		if (beginIndex < 0 || beginIndex > endIndex || endIndex > length()) {
+			// throws as String.substring does
+			return new Value(text().substring(beginIndex, endIndex));
+		} else if (this.text instanceof StringBuilder && endIndex - beginIndex < ROPE_THRESHOLD) {
+			return new Value(((StringBuilder) this.text).substring(beginIndex, endIndex));
+		} else if (endIndex - beginIndex < ROPE_THRESHOLD) {
+			return new Value(rope().substring(beginIndex, endIndex).toString());
+		}
+		
+		Value res = new Value((String) null);
+		res.text = rope().substring(beginIndex, endIndex);
+		return res;
+	}
+	
+	/**
+	 * Function:	rope
+	 * @return		the rope holding this String, a single piece if it has none
+	 */
+	private Rope rope() {
+		return this.text instanceof Rope ? (Rope) this.text : Rope.of(text());
+	}
+	
+	/**
+	 * Function:	edit
+	 * @return		the buffer a String value is edited in, holding its
+	 * 				characters, which replaces any other form of them
+	 */
+	private StringBuilder edit() {
+		if (!(this.text instanceof StringBuilder)) {
+			this.text = new StringBuilder(text());
+		}
+		return (StringBuilder) this.text;
+	}
+	
+	/**
+	 * Function:	splicesRope
+	 * @return		true if a splice goes through the rope: the String is
+	 * 				held by one already, so it isn't copied into a buffer,
+	 * 				or it is long and the splice would move the characters
+	 * 				after it in a buffer
+	 * @param length length of the String
+	 * @param removed number of characters replaced
+	 * @param splice text replacing them
+	 */
+	private boolean splicesRope(int length, int removed, String splice) {
+		return this.text instanceof Rope || length >= ROPE_THRESHOLD && splice.length() != removed;
+	}
+	
 	/**
 	 * Splices the given string, replacing chars [beginIndex => endIndex] in the original
 	 * string.
@@ -131,17 +302,28 @@ public class Value {
 			throw new TypeError("Cannot slice character for non-string type");
 		}
 		
+		int length = length();
 		if (!isEnded) {
-			endIndex = this.strValue.length();
+			endIndex = length;
+		}
+		
+		if (beginIndex >= 0 && beginIndex <= endIndex && endIndex <= length) {
+			if (splicesRope(length, endIndex - beginIndex, splice)) {
+				this.text = rope().splice(beginIndex, endIndex, splice);
+			} else {
+				edit().replace(beginIndex, endIndex, splice);
+			}
+			return;
 		}
 		
-		//System.out.println("slicing: " + this.strValue + " from " + beginIndex + " to " + endIndex);
+		//System.out.println("slicing: " + this.text + " from " + beginIndex + " to " + endIndex);
 		//System.out.println("inserting: " + splice);
 		
 		// Remove sliced value from string
-		String sliced = this.strValue.substring(0, beginIndex) + splice + this.strValue.substring(endIndex, this.strValue.length());
+		String str = text();
+		String sliced = str.substring(0, beginIndex) + splice + str.substring(endIndex, str.length());
 
-		this.strValue = sliced;
+		this.text = sliced;
 		
 	}
 	
@@ -158,15 +340,28 @@ public class Value {
 			throw new TypeError("Cannot set character for non-string type");
 		}
 		
-		StringBuilder newString = new StringBuilder(this.strValue.substring(0, index));
+		int length = length();
+		if (index >= 0 && index < length) {
+			if (splicesRope(length, 1, splice)) {
+				this.text = rope().splice(index, index + 1, splice);
+			} else if (splice.length() == 1) {
+				edit().setCharAt(index, splice.charAt(0));
+			} else {
+				edit().replace(index, index + 1, splice);
+			}
+			return;
+		}
+		
+		String str = text();
+		StringBuilder newString = new StringBuilder(str.substring(0, index));
 		
 		newString.append(splice);
 		
-		if (index < this.strValue.length() - 1) {
-			newString.append(this.strValue.substring(index + 1, this.strValue.length()));
+		if (index < str.length() - 1) {
+			newString.append(str.substring(index + 1, str.length()));
 		}
 		
-		this.strValue = newString.toString();
+		this.text = newString.toString();
 		
 	}
 	
@@ -190,7 +385,7 @@ public class Value {
 			res.intValue = (int) this.floatValue;
 		} else if (this.dataType == DataType.STRING) {
 			try {
-				res.intValue = Integer.parseInt(this.strValue);
+				res.intValue = Integer.parseInt(text());
 			} catch (NumberFormatException e) {
 				throw new TypeError("Invalid format of String to Int coercion", parser.scanner.currentToken);
 			}		
@@ -223,7 +418,7 @@ public class Value {
 			res.floatValue = (double) this.intValue;
 		} else if (this.dataType == DataType.STRING) {
 			try {
-				res.floatValue = Double.parseDouble(this.strValue);
+				res.floatValue = Double.parseDouble(text());
 			} catch (NumberFormatException e) {
 				throw new TypeError("Invalid format of string to double coercion", parser.scanner.currentToken);
 			}
@@ -253,15 +448,17 @@ public class Value {
 		res.dataType = DataType.STRING;
 		
 		if (this.dataType == DataType.INTEGER) {
-			res.strValue = String.valueOf(this.intValue);
+			res.text = String.valueOf(this.intValue);
 		} else if (this.dataType == DataType.FLOAT) {
-			res.strValue = String.valueOf(this.floatValue);
+			res.text = String.valueOf(this.floatValue);
 		} else if (this.dataType == DataType.BOOLEAN) {
 			if (this.booleanValue) {
-				res.strValue = "T";
+				res.text = "T";
 			} else {
-				res.strValue = "F";
+				res.text = "F";
 			}
+		} else if (this.dataType == DataType.DATE) {
+			res.text = text();
 		}
 		
 		return res;
@@ -285,9 +482,9 @@ public class Value {
 		res.dataType = DataType.BOOLEAN;
 		
 		if (this.dataType == DataType.STRING) {
-			if (this.strValue.equals("T")) {
+			if (text().equals("T")) {
 				res.booleanValue = true;
-			} else if (this.strValue.equals("F")) {
+			} else if (text().equals("F")) {
 				res.booleanValue = false;
 			} else {
 				throw new TypeError("Invalid string value for coercion to Bool", parser.scanner.currentToken);
@@ -306,15 +503,15 @@ public class Value {
 			return this;
 		}
 		
-		Value res = new Value();
-		res.structure = Structure.PRIMITIVE;
-		res.strValue = this.strValue;
-		res.dataType = DataType.DATE;
-		
 		if (this.dataType == DataType.STRING) {
-			if (Functions.validateDate(res) != 0) {
+			if (Functions.validateDate(this) != 0) {
 				throw new TypeError("Invalid string value for coercion to Date\nActual format of valid date should be `YYYY-MM-DD`", parser.scanner.iSourceLineNr);
 			} else {
+				// parsed once here, date functions use the day number
+				Value res = Value.date(Functions.dayNumber(this));
+				if (res.intValue <= 1) {
+					res.text = text();
+				}
 				return res;
 			}
 		}else
@@ -362,7 +559,8 @@ public class Value {
 				valStr = String.valueOf(this.floatValue);
 				break;
 			case STRING:
-				valStr = strValue;
+			case DATE:
+				valStr = text();
 				break;
 			case BOOLEAN:
 				valStr = String.valueOf(booleanValue);
@@ -401,10 +599,10 @@ public class Value {
 		val.dataType = this.dataType;
 		val.structure = this.structure;
 		val.intValue = this.intValue;
-		val.strValue = this.strValue;
+		// an edited String is not shared, the copy gets what it holds now
+		val.text = this.text instanceof StringBuilder ? text() : this.text;
 		val.floatValue = this.floatValue;
 		val.booleanValue = this.booleanValue;
-		val.terminatingStr = this.terminatingStr;
 		return val;
 	}
 
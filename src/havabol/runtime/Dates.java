@@ -0,0 +1,170 @@
+package havabol.runtime;
+
+/**
+ * Integer date arithmetic behind the date functions. A date is handled as
+ * its day number, see dayNumber, or as its year, month and day packed into
+ * one int as yyyymmdd, e.g. 20170401. Splitting and formatting a day number
+ * go through tables built when the class is loaded: the day number of the
+ * start of every year and the month of every day of a year. The tables are
+ * never changed afterwards, so the methods may be called from any thread
+ * and none of them allocates, except format for its String.
+ */
+final class Dates
+{
+	// Day numbers of 1582-10-15, when GregorianCalendar starts counting
+	// Gregorian days, and of 9999-12-31, the dates split and formatted here
+	static final int GREGORIAN_START = dayNumber(1582, 10, 15);
+	static final int LAST_DAY = dayNumber(9999, 12, 31);
+
+	// Day number of March 1 of each year from 0000 to 10000. Years begin in
+	// March, as in dayNumber, so January and February belong to the year
+	// before.
+	private static final int[] YEAR_START = new int[10001];
+	// Number of days from March 1 to the first of each month, March first
+	private static final int[] DAYS_BEFORE_MONTH = new int[12];
+	// Month of each day of a year beginning in March, 0 for March
+	private static final byte[] MONTH_OF_DAY = new byte[366];
+
+	static
+	{
+	    for (int year = 0; year < YEAR_START.length; year++)
+	        YEAR_START[year] = dayNumber(year, 3, 1);
+
+	    for (int month = 0; month < 12; month++)
+	        DAYS_BEFORE_MONTH[month] = (month * 306 + 5) / 10;   // see dayNumber note 4
+
+	    for (int dayOfYear = 0, month = 0; dayOfYear < MONTH_OF_DAY.length; dayOfYear++)
+	    {
+	        if (month < 11 && dayOfYear >= DAYS_BEFORE_MONTH[month + 1])
+	            month++;
+	        MONTH_OF_DAY[dayOfYear] = (byte) month;
+	    }
+	}
+
+	private Dates()
+	{
+	}
+
+	/**
+	 * Function:	dayNumber
+	 * Purpose:				 Converts a date to a Julian Days value.  This will
+	 * 						 start numbering at 1 for 0000-03-01. Making dates
+	 *  					 relative to March 1st helps eliminate some leap day issues. 
+	 * Notes:				 
+	 *					     1 We replace the month with the number of months since March.  
+	 *					       March is 0, Apr is 1, May is 2, ..., Jan is 10, Feb is 11.
+	 *					     2 Since Jan and Feb are before Mar, we subtract 1 from the year
+	 *					       for those months.
+	 *					     3 Jan 1 is 306 days from Mar 1.
+	 *					     4 The days per month is in a pattern that begins with March
+	 *					       and repeats every 5 months:
+	 *					           Mar 31 Aug 31 Jan 31
+	 *					           Apr 30 Sep 30
+	 *					           May 31 Oct 31
+	 *					           Jun 30 Nov 30
+	 *					           Jul 31 Dec 31
+	 *					        Therefore:
+	 *					           Mon  AdjMon  NumberDaysFromMarch (AdjMon*306 + 5)/10
+	 *					           Jan    10      306
+	 *					           Feb    11      337
+	 *					           Mar     0        0
+	 *					           Apr     1       31
+	 *					           May     2       61
+	 *					           Jun     3       92
+	 *					           Jul     4      122 
+	 *					           Aug     5      153
+	 *					           Sep     6      184
+	 *					           Oct     7      214
+	 *					           Nov     8      245
+	 *					           Dec     9      275
+	 *					     5 Leap years are 
+	 *					       years that are divisible by 4 and
+	 *					       either years that are not divisible by 100 or 
+	 *					       years that are divisible by 400
+	 * @param year:		 year of the date
+	 * @param month:		 month of the date, 1 to 12
+	 * @param day:			 day of the month
+	 * @return				 the number of days since 0000-03-01 beginning with 1 for 
+     *						 0000-03-01.
+	 */
+	static int dayNumber(int year, int month, int day)
+	{
+	    int iCountDays;
+	    // Calculate number of days since 0000-03-01
+
+	    // If month is March or greater, decrease it by 3.
+	    if (month > 2)
+	        month -= 3;
+	    else
+	    {
+	        month += 9;  // adjust the month since we begin with March
+	        year--;      // subtract 1 from year if the month was Jan or Feb
+	    }
+	    iCountDays = 365 * year                    // 365 days in a year
+	        + year / 4 - year / 100 + year / 400   // add a day for each leap year
+	        + (month * 306 + 5) / 10               // see note 4
+	        + (day);                              // add the days
+	    return iCountDays;
+		
+	}
+
+	/**
+	 * Function:	split
+	 * Purpose:				splits a day number into the year, month and day
+	 * Notes:
+	 *					    1. Day numbers from 0000-03-02 on belong to one date
+	 *					       each. 0000-02-29 and 0000-03-01 are both numbered 1
+	 *					       by dayNumber, so earlier ones can't be split.
+	 *					    2. 400 years have 146097 days, which gives the year
+	 *					       to within one. YEAR_START settles it, and
+	 *					       MONTH_OF_DAY gives the month of the day in it.
+	 * @param iJulian:		day number from 2 to LAST_DAY
+	 * @return				the date packed as yyyymmdd
+	 */
+	static int split(int iJulian)
+	{
+	    int year = (int) ((iJulian - 1) * 400L / 146097);
+	    if (YEAR_START[year + 1] <= iJulian)
+	        year++;
+	    else if (YEAR_START[year] > iJulian)
+	        year--;
+
+	    int dayOfYear = iJulian - YEAR_START[year];
+	    int month = MONTH_OF_DAY[dayOfYear];
+	    int day = dayOfYear - DAYS_BEFORE_MONTH[month] + 1;
+
+	    // months since March back to months of the year
+	    if (month < 10)
+	        month += 3;
+	    else
+	    {
+	        month -= 9;
+	        year++;
+	    }
+	    return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Function:	format
+	 * Purpose:				formats a day number in the form "yyyy-mm-dd"
+	 * @param iJulian:		day number from 2 to LAST_DAY
+	 * @return				the formatted date
+	 */
+	static String format(int iJulian)
+	{
+	    int date = split(iJulian);
+	    char[] chars = new char[10];
+	    for (int i = 9; i >= 0; i--)
+	    {
+	        if (i == 4 || i == 7)
+	            chars[i] = '-';
+	        else
+	        {
+	            chars[i] = (char) ('0' + date % 10);
+	            date /= 10;
+	        }
+	    }
+	    return new String(chars);
+	}
+
+}
@@ -5,8 +5,6 @@ import havabol.error.*;
 import havabol.parser.*;
 import havabol.storage.*;
 import java.text.SimpleDateFormat;
-import java.time.LocalDate;
-import java.time.Period;
 
 
 public class Functions {
@@ -24,11 +22,11 @@ public class Functions {
 			return new Value().asVoid();
 		}
 
-		System.out.print(args.get(0).asString(parser).strValue);
+		System.out.print(args.get(0).asString(parser).text());
 		
 		for (int i = 1; i < args.size(); i++) {
 			System.out.print(" ");
-			System.out.print(args.get(i).asString(parser).strValue);
+			System.out.print(args.get(i).asString(parser).text());
 		}
 		
 		System.out.println();
@@ -45,7 +43,7 @@ public class Functions {
 	 * @return 			Value with the length of a string
 	 */
 	public static Value length(Parser parser, Value string){
-		return new Value(string.asString(parser).strValue.length());
+		return new Value(string.asString(parser).length());
 	}
 	
 	/**
@@ -57,9 +55,9 @@ public class Functions {
 	 * 		   			is empty (T), or doesn't contain spaces (F) 
 	 */
 	public static Value spaces(Parser parser, Value string){
-		char[] check = string.asString(parser).strValue.toCharArray();
+		char[] check = string.asString(parser).text().toCharArray();
 		
-		if(string.strValue.isEmpty()){
+		if(string.text().isEmpty()){
 			return new Value(true);
 		}
 		for (char c : check) {
@@ -89,16 +87,11 @@ public class Functions {
 			
 		}
 		
-		if (array.arrayValue == null) {
+		if (array.arrayStorage == null) {
 			return new Value(0);
 		}
 		
-		int highestIndex = 0;
-		
-		for (int i = 0; i < array.arrayValue.length; i++) {
-			if (array.arrayValue[i] != null)
-				highestIndex = i;
-		}
+		int highestIndex = Math.max(array.arrayStorage.lastSet(), 0);
 		
 		if(highestIndex == 0)
 			return new Value(highestIndex);
@@ -148,14 +141,11 @@ public class Functions {
 	{
 		// TODO Auto-generated method stub
 		int iJulian1, iJulian2;
-	    if (validateDate(dateVal1) != 0)
-	       throw new SyntaxError("Invalid 1st date for dateDiff: ", dateVal1.toToken(parser));
+	    checkDate(parser, dateVal1, "1st", "dateDiff");
+	    checkDate(parser, dateVal2, "2nd", "dateDiff");
 
-	    if (validateDate(dateVal2) != 0)
-		       throw new SyntaxError("Invalid 2nd date for dateDiff: ", dateVal2.toToken(parser));
-
-	    iJulian1 = DateToJulian(dateVal1);
-	    iJulian2 = DateToJulian(dateVal2);
+	    iJulian1 = dayNumber(dateVal1);
+	    iJulian2 = dayNumber(dateVal2);
 
 	    return new Value(iJulian1 - iJulian2);
 	}
@@ -169,18 +159,28 @@ public class Functions {
 	 * 						a specified number of days more or less than the offset
 	 * @param days			the specified number of days to apply to original date as
 	 * 						offset for a new date
-	 * @return				the Value containing an adjusted date based on offset
+	 * @return				the Value containing an adjusted date based on offset,
+	 * 						a Date from 1582-10-15 to 9999-12-31 and otherwise
+	 * 						a String formatted by GregorianCalendar
 	 */
 	public static Value dateAdj(Parser parser, Value dateVal, Value days)
 	{
 		// TODO Auto-generated method stub
+		checkDate(parser, dateVal, "1st", "dateAdj");
+
+		int iJulian = dayNumber(dateVal);
+		long adjusted = (long) iJulian + days.intValue;
+		if (iJulian >= Dates.GREGORIAN_START && adjusted >= Dates.GREGORIAN_START && adjusted <= Dates.LAST_DAY)
+			return Value.date((int) adjusted);
+
+		// GregorianCalendar counts days before its Gregorian start in the
+		// Julian calendar, and formats years past 9999 and before 1, so
+		// such a result stays a String that may not be a valid Date
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
 		// Unlike HavaBol, the GregorianCalendar constructor's month is relative to zero
 		// not 01.  (e.g., February is 01).
-		 if (validateDate(dateVal) != 0)
-			 throw new SyntaxError("Invalid 1st date for dateDiff: ", dateVal.toToken(parser));
-
-		Calendar calendar = new GregorianCalendar(dateVal.year, (dateVal.month - 1), dateVal.day);
+		int date = dateParts(dateVal);
+		Calendar calendar = new GregorianCalendar(date / 10000, (date / 100 % 100 - 1), date % 100);
 		 
 		//subtract 10 days
 		calendar.add(Calendar.DAY_OF_MONTH, days.intValue);
@@ -201,81 +201,40 @@ public class Functions {
 	public static Value dateAge(Parser parser, Value dateVal1, Value dateVal2)
 	{
 		// TODO Auto-generated method stub
-		 if (validateDate(dateVal1) != 0)
-	       throw new SyntaxError("Invalid 1st date for dateDiff: ", dateVal1.toToken(parser));
-
-	    if (validateDate(dateVal2) != 0)
-		       throw new SyntaxError("Invalid 2nd date for dateDiff: ", dateVal2.toToken(parser));
+	    checkDate(parser, dateVal1, "1st", "dateAge");
+	    checkDate(parser, dateVal2, "2nd", "dateAge");
 		
-	    LocalDate date1 = LocalDate.of(dateVal1.year, dateVal1.month, dateVal1.day);
-		LocalDate date2=  LocalDate.of(dateVal2.year, dateVal2.month, dateVal2.day);
-		return new Value(Math.abs(Period.between(date1, date2).getYears()));
+	    int date1 = dateParts(dateVal1);
+	    int date2 = dateParts(dateVal2);
+	    // whole years from date1 to date2, as java.time.Period.between counts them
+	    int months = (date2 / 10000 - date1 / 10000) * 12 + (date2 / 100 % 100 - date1 / 100 % 100);
+	    int daysLeft = date2 % 100 - date1 % 100;
+	    if (months > 0 && daysLeft < 0)
+	        months--;
+	    else if (months < 0 && daysLeft > 0)
+	        months++;
+		return new Value(Math.abs(months / 12));
 	}
 	
 	/**
-	 * Function:	DateToJulian
-	 * Purpose:				 Converts a date to a Julian Days value.  This will
-	 * 						 start numbering at 1 for 0000-03-01. Making dates
-	 *  					 relative to March 1st helps eliminate some leap day issues. 
-	 * Notes:				 
-	 *					     1 We replace the month with the number of months since March.  
-	 *					       March is 0, Apr is 1, May is 2, ..., Jan is 10, Feb is 11.
-	 *					     2 Since Jan and Feb are before Mar, we subtract 1 from the year
-	 *					       for those months.
-	 *					     3 Jan 1 is 306 days from Mar 1.
-	 *					     4 The days per month is in a pattern that begins with March
-	 *					       and repeats every 5 months:
-	 *					           Mar 31 Aug 31 Jan 31
-	 *					           Apr 30 Sep 30
-	 *					           May 31 Oct 31
-	 *					           Jun 30 Nov 30
-	 *					           Jul 31 Dec 31
-	 *					        Therefore:
-	 *					           Mon  AdjMon  NumberDaysFromMarch (AdjMon*306 + 5)/10
-	 *					           Jan    10      306
-	 *					           Feb    11      337
-	 *					           Mar     0        0
-	 *					           Apr     1       31
-	 *					           May     2       61
-	 *					           Jun     3       92
-	 *					           Jul     4      122 
-	 *					           Aug     5      153
-	 *					           Sep     6      184
-	 *					           Oct     7      214
-	 *					           Nov     8      245
-	 *					           Dec     9      275
-	 *					     5 Leap years are 
-	 *					       years that are divisible by 4 and
-	 *					       either years that are not divisible by 100 or 
-	 *					       years that are divisible by 400
-	 * @param dateVal:		 The date to be converted to a julian value
-	 * @return				 the number of days since 0000-03-01 beginning with 1 for 
-     *						 0000-03-01.
+	 * Function:	checkDate
+	 * Purpose:				throws unless an argument of a date function is a
+	 * 						single valid date. An array is rejected here so that
+	 * 						validateDate only ever sees primitive values.
+	 * @param parser:		information about  values being parsed
+	 * @param dateVal:		the argument
+	 * @param position:		"1st" or "2nd", for the message
+	 * @param function:		name of the date function, for the message
 	 */
-	private static int DateToJulian(Value dateVal)
+	private static void checkDate(Parser parser, Value dateVal, String position, String function)
 	{
-		// TODO Auto-generated method stub
-	
-	    int iCountDays;
-	    // Calculate number of days since 0000-03-01
+	    if (dateVal.structure != Structure.PRIMITIVE)
+	        throw new TypeError("Invalid args to " + function + "(), " + position + " argument must be a single date", dateVal.toToken(parser));
 
-	    // If month is March or greater, decrease it by 3.
-	    if (dateVal.month > 2)
-	        dateVal.month -= 3;
-	    else
-	    {
-	        dateVal.month += 9;  // adjust the month since we begin with March
-	        dateVal.year--;      // subtract 1 from year if the month was Jan or Feb
-	    }
-	    iCountDays = 365 * dateVal.year                    // 365 days in a year
-	        + dateVal.year / 4 - dateVal.year / 100 + dateVal.year / 400   // add a day for each leap year
-	        + (dateVal.month * 306 + 5) / 10               // see note 4
-	        + (dateVal.day);                              // add the days
-	    return iCountDays;
-		
+	    if (validateDate(dateVal) != 0)
+	        throw new SyntaxError("Invalid " + position + " date for " + function + ": ", dateVal.toToken(parser));
 	}
 
-
 	/**
 	 * Function:	validateDate
 	 * Purpose:				Ensures that a date is valid 
@@ -301,6 +260,9 @@ public class Functions {
 	 */
 	public static int validateDate(Value dateVal)
 	{
+		if (dateVal.dataType == DataType.DATE)
+			return 0;  // checked when the value was coerced to a Date
+
 		int iDaysPerMonth[] = 
 		       { 0, 31, 29, 31
 	           , 30, 31, 30
@@ -308,10 +270,10 @@ public class Functions {
 	           , 31, 30, 31 };
 
 	    // Check for too few characters for the yyyy-mm-dd format
-	    if (dateVal.strValue.length() != 10)
+	    if (dateVal.text().length() != 10)
 	        return 4;  // invalid format due to length
 	    
-	    String parts[] = dateVal.strValue.split("-");
+	    String parts[] = dateVal.text().split("-");
 	    // The year should be 4 characters 
 	    if (parts[0].length() != 4)
 	        return 1;  // invalid year
@@ -323,22 +285,22 @@ public class Functions {
 	    }
 	    
 	    // pluck out the year, month, and day
-	    dateVal.year = Integer.parseInt(parts[0]);
-	    dateVal.month = Integer.parseInt(parts[1]);
-	    dateVal.day = Integer.parseInt(parts[2]);
+	    int year = Integer.parseInt(parts[0]);
+	    int month = Integer.parseInt(parts[1]);
+	    int day = Integer.parseInt(parts[2]);
 	 
 	    // Validate Month
-	    if (dateVal.month < 1 || dateVal.month > 12)
+	    if (month < 1 || month > 12)
 	        return 2;  // month invalid
 	    
 	    // Validate day based on max days per month 
-	    if (dateVal.day < 1 || dateVal.day > iDaysPerMonth[dateVal.month])
+	    if (day < 1 || day > iDaysPerMonth[month])
 	        return 3;  // day invalid
 
 	    // if the 29th of Feb, check for leap year
-	    if (dateVal.day == 29 && dateVal.month == 2)
+	    if (day == 29 && month == 2)
 	    {
-	        if (dateVal.year % 4 == 0 && (dateVal.year % 100 != 0 || dateVal.year % 400 == 0))
+	        if (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))
 	            return 0;    // it is a leap year
 	        else return 3;   // not a leap year, so the day is invalid
 	    }
@@ -346,4 +308,51 @@ public class Functions {
 		return 0;
 	}
 
+	/**
+	 * Function:	dayNumber
+	 * Purpose:				returns the day number of a date already checked by
+	 * 						validateDate, see Dates.dayNumber. A Date value holds
+	 * 						its day number in intValue, so only a String is
+	 * 						parsed here.
+	 * @param dateVal:		Date value, or String in the form "yyyy-mm-dd"
+	 * @return				the number of days since 0000-03-01 beginning with 1
+	 * 						for 0000-03-01
+	 */
+	public static int dayNumber(Value dateVal)
+	{
+	    if (dateVal.dataType == DataType.DATE)
+	        return dateVal.intValue;
+
+	    int date = dateParts(dateVal);
+	    return Dates.dayNumber(date / 10000, date / 100 % 100, date % 100);
+	}
+
+	/**
+	 * Function:	formatDate
+	 * Purpose:				formats the day number of a Date value, see Dates.format
+	 * @param iJulian:		day number from 0000-03-02 to 9999-12-31
+	 * @return				the date in the form "yyyy-mm-dd"
+	 */
+	public static String formatDate(int iJulian)
+	{
+	    return Dates.format(iJulian);
+	}
+
+	/**
+	 * Function:	dateParts
+	 * Purpose:				splits a date already checked by validateDate. A Date
+	 * 						value is split from its day number without parsing it,
+	 * 						except for the few before 0000-03-02, see Dates.split.
+	 * @param dateVal:		Date value, or String in the form "yyyy-mm-dd"
+	 * @return				the date packed as yyyymmdd
+	 */
+	private static int dateParts(Value dateVal)
+	{
+	    if (dateVal.dataType == DataType.DATE && dateVal.intValue > 1)
+	        return Dates.split(dateVal.intValue);
+
+	    String parts[] = dateVal.text().split("-");
+	    return Integer.parseInt(parts[0]) * 10000 + Integer.parseInt(parts[1]) * 100 + Integer.parseInt(parts[2]);
+	}
+
 }
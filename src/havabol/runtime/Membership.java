@@ -0,0 +1,139 @@
+package havabol.runtime;
+
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+
+import havabol.error.TypeError;
+import havabol.parser.Parser;
+import havabol.parser.Value;
+import havabol.storage.DataType;
+
+/**
+ * Hash index of the elements of a list, answering IN and NOTIN without
+ * scanning it. Operators.IN compares the value with every element cast to
+ * the value's type, so the list is indexed once per type of value looked
+ * up, as the set of its elements cast to that type.
+ *
+ * Casting an element may fail, and the scan throws there unless the value
+ * was found before it. The index stops at such an element, and a value it
+ * does not find is left to Operators.IN, which raises the same error.
+ */
+public final class Membership {
+
+	private final Value list;
+	private final EnumMap<DataType, Index> indexes = new EnumMap<>(DataType.class);
+
+	private static final class Index {
+		// Keys of the elements cast to the type, see key
+		HashSet<Object> keys = new HashSet<>();
+		// Position of the first element that can't be cast, the list size if none
+		int failure;
+	}
+
+	/**
+	 * @param list array value to index, which must not change afterwards
+	 */
+	public Membership(Value list) {
+		this.list = list;
+	}
+
+	/**
+	 * Indexes a literal list for the type of its elements up front, the one
+	 * it is almost always searched with
+	 */
+	public Membership(Parser parser, Value list) {
+		this.list = list;
+		index(parser, list.dataType);
+	}
+
+	/**
+	 * Function: size
+	 * @return number of elements in the list
+	 */
+	public int size() {
+		return list.arrayValue.size();
+	}
+
+	/**
+	 * Function: contains
+	 * Purpose: tells whether value IN the list is true, as Operators.IN does
+	 * @param parser information about values being parsed
+	 * @param value value to look for
+	 */
+	public boolean contains(Parser parser, Value value) {
+
+		Index index = index(parser, value.dataType);
+		if (index != null) {
+			Object key = key(value, value.dataType);
+			if (key != null && index.keys.contains(key)) {
+				return true;
+			} else if (index.failure == size()) {
+				return false;
+			}
+		}
+
+		return Operators.IN(parser, value, list).booleanValue;
+	}
+
+	/**
+	 * Function: index
+	 * @return the index for values of a type, built on first use, null for
+	 * 			types doubleEqual does not compare
+	 */
+	private Index index(Parser parser, DataType type) {
+
+		Index index = indexes.get(type);
+		if (index != null || !indexable(type)) {
+			return index;
+		}
+
+		index = new Index();
+		List<Value> items = list.arrayValue;
+		index.failure = items.size();
+
+		for (int i = 0; i < items.size(); i++) {
+			Value cast;
+			try {
+				cast = items.get(i).asType(parser, type);
+			} catch (TypeError e) {
+				index.failure = i;
+				break;
+			}
+			Object key = key(cast, type);
+			if (key != null) {
+				index.keys.add(key);
+			}
+		}
+
+		indexes.put(type, index);
+		return index;
+	}
+
+	private static boolean indexable(DataType type) {
+		return type == DataType.INTEGER || type == DataType.FLOAT
+				|| type == DataType.STRING || type == DataType.BOOLEAN;
+	}
+
+	/**
+	 * Function: key
+	 * Purpose: gives equal keys to the values doubleEqual finds equal. For
+	 * 			a Float, -0.0 and 0.0 share a key and NaN has none, since
+	 * 			it equals nothing.
+	 * @param value value cast to the type
+	 * @param type indexable type the value is compared as
+	 */
+	private static Object key(Value value, DataType type) {
+		switch (type) {
+		case INTEGER:
+			return value.intValue;
+		case FLOAT:
+			return Double.isNaN(value.floatValue) ? null : value.floatValue + 0.0;
+		case STRING:
+			return value.text();
+		default:
+			return value.booleanValue;
+		}
+	}
+
+}
@@ -8,6 +8,221 @@ import havabol.storage.*;
 
 public class Operators {
 	
+	// Operator identifiers, resolved once from the operator token string
+	public static final int ADD = 0;
+	public static final int SUBTRACT = 1;
+	public static final int MULTIPLY = 2;
+	public static final int DIVIDE = 3;
+	public static final int EXPONENTIATE = 4;
+	public static final int CONCATENATE = 5;
+	public static final int LESS = 6;
+	public static final int GREATER = 7;
+	public static final int LESS_EQUAL = 8;
+	public static final int GREATER_EQUAL = 9;
+	public static final int DOUBLE_EQUAL = 10;
+	public static final int NOT_EQUAL = 11;
+	public static final int AND = 12;
+	public static final int OR = 13;
+	public static final int IN = 14;
+	public static final int NOTIN = 15;
+	public static final int UNARY_MINUS = 16;
+	public static final int NOT = 17;
+	
+	/**
+	 * Function: operatorId
+	 * Purpose: Maps an operator token string to its operator identifier
+	 * @param operator operator token string, e.g. "+" or "u-"
+	 * @return the operator identifier, or -1 if it is not an operator
+	 */
+	public static int operatorId(String operator) {
+		switch (operator) {
+		case "+": return ADD;
+		case "-": return SUBTRACT;
+		case "*": return MULTIPLY;
+		case "/": return DIVIDE;
+		case "^": return EXPONENTIATE;
+		case "#": return CONCATENATE;
+		case "<": return LESS;
+		case ">": return GREATER;
+		case "<=": return LESS_EQUAL;
+		case ">=": return GREATER_EQUAL;
+		case "==": return DOUBLE_EQUAL;
+		case "!=": return NOT_EQUAL;
+		case "and": return AND;
+		case "or": return OR;
+		case "IN": return IN;
+		case "NOTIN": return NOTIN;
+		case "u-": return UNARY_MINUS;
+		case "not":
+		case "!": return NOT;
+		default: return -1;
+		}
+	}
+	
+	/**
+	 * Function: isUnary
+	 * @param operatorId operator identifier
+	 * @return true if the operator takes a single operand
+	 */
+	public static boolean isUnary(int operatorId) {
+		return operatorId == UNARY_MINUS || operatorId == NOT;
+	}
+	
+	/**
+	 * Function: binary
+	 * Purpose: Applies a binary operator given by its identifier
+	 * @param parser 	 - information about  values being parsed
+	 * @param operatorId - identifier of the operator to apply
+	 * @param op1 	 	 - first operand to be evaluated with op2
+	 * @param op2	 	 - second operand to be evaluated with op1
+	 * @return final value after some expression has been evaluated
+	 */
+	public static Value binary(Parser parser, int operatorId, Value op1, Value op2) {
+		
+		// Numeric operands skip the coercing operator methods
+		if (isNumeric(operatorId)) {
+			if (op1.dataType == DataType.INTEGER) {
+				if (op2.dataType == DataType.INTEGER) {
+					return intBinary(parser, operatorId, op1.intValue, op2.intValue);
+				} else if (op2.dataType == DataType.FLOAT) {
+					return intBinary(parser, operatorId, op1.intValue, (int) op2.floatValue);
+				}
+			} else if (op1.dataType == DataType.FLOAT) {
+				if (op2.dataType == DataType.FLOAT) {
+					return floatBinary(operatorId, op1.floatValue, op2.floatValue);
+				} else if (op2.dataType == DataType.INTEGER) {
+					return floatBinary(operatorId, op1.floatValue, (double) op2.intValue);
+				}
+			}
+		}
+		
+		switch (operatorId) {
+		case ADD: return add(parser, op1, op2);
+		case SUBTRACT: return subtract(parser, op1, op2);
+		case MULTIPLY: return multiply(parser, op1, op2);
+		case DIVIDE: return divide(parser, op1, op2);
+		case EXPONENTIATE: return exponentiate(parser, op1, op2);
+		case CONCATENATE: return concatenate(parser, op1, op2);
+		case LESS: return less(parser, op1, op2);
+		case GREATER: return greater(parser, op1, op2);
+		case LESS_EQUAL: return lessEqual(parser, op1, op2);
+		case GREATER_EQUAL: return greaterEqual(parser, op1, op2);
+		case DOUBLE_EQUAL: return doubleEqual(parser, op1, op2);
+		case NOT_EQUAL: return notEqual(parser, op1, op2);
+		case AND: return logicalAnd(parser, op1, op2);
+		case OR: return logicalOr(parser, op1, op2);
+		case IN: return IN(parser, op1, op2);
+		case NOTIN: return NOTIN(parser, op1, op2);
+		default:
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.");
+		}
+	}
+	
+	/**
+	 * Function: isNumeric
+	 * @param operatorId operator identifier
+	 * @return true for the arithmetic and comparison operators, which
+	 * 			intBinary and floatBinary implement
+	 */
+	public static boolean isNumeric(int operatorId) {
+		return operatorId >= ADD && operatorId <= NOT_EQUAL && operatorId != CONCATENATE;
+	}
+	
+	/**
+	 * Function: intBinary
+	 * Purpose: Applies an arithmetic or comparison operator to an Int first
+	 * 			operand. The second operand has already been coerced to Int,
+	 * 			as the coercing operator methods would.
+	 * @param parser 	 - information about  values being parsed
+	 * @param operatorId - identifier of an operator for which isNumeric is true
+	 * @return the result, a shared value for small Ints and for Bools
+	 */
+	public static Value intBinary(Parser parser, int operatorId, int op1, int op2) {
+		switch (operatorId) {
+		case LESS: return Value.valueOf(op1 < op2);
+		case GREATER: return Value.valueOf(op1 > op2);
+		case LESS_EQUAL: return Value.valueOf(op1 <= op2);
+		case GREATER_EQUAL: return Value.valueOf(op1 >= op2);
+		case DOUBLE_EQUAL: return Value.valueOf(op1 == op2);
+		case NOT_EQUAL: return Value.valueOf(op1 != op2);
+		default: return Value.valueOf(intArithmetic(parser, operatorId, op1, op2));
+		}
+	}
+	
+	/**
+	 * Function: floatBinary
+	 * Purpose: Applies an arithmetic or comparison operator to a Float first
+	 * 			operand and a second operand already coerced to Float
+	 * @param operatorId - identifier of an operator for which isNumeric is true
+	 */
+	public static Value floatBinary(int operatorId, double op1, double op2) {
+		switch (operatorId) {
+		case LESS: return Value.valueOf(op1 < op2);
+		case GREATER: return Value.valueOf(op1 > op2);
+		case LESS_EQUAL: return Value.valueOf(op1 <= op2);
+		case GREATER_EQUAL: return Value.valueOf(op1 >= op2);
+		case DOUBLE_EQUAL: return Value.valueOf(op1 == op2);
+		case NOT_EQUAL: return Value.valueOf(op1 != op2);
+		default: return new Value(floatArithmetic(operatorId, op1, op2));
+		}
+	}
+	
+	/**
+	 * Function: intArithmetic
+	 * Purpose: Computes +, -, *, / or ^ on Ints without allocating
+	 * @param parser 	 - information about  values being parsed
+	 * @param operatorId - ADD, SUBTRACT, MULTIPLY, DIVIDE or EXPONENTIATE
+	 */
+	public static int intArithmetic(Parser parser, int operatorId, int op1, int op2) {
+		switch (operatorId) {
+		case ADD: return op1 + op2;
+		case SUBTRACT: return op1 - op2;
+		case MULTIPLY: return op1 * op2;
+		case DIVIDE:
+			if (op2 == 0) {
+				throw new ArithmeticError("Division by zero", parser.scanner.iSourceLineNr);
+			}
+			return op1 / op2;
+		case EXPONENTIATE: return (int) Math.pow(op1, op2);
+		default:
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.");
+		}
+	}
+	
+	/**
+	 * Function: floatArithmetic
+	 * Purpose: Computes +, -, *, / or ^ on Floats without allocating
+	 * @param operatorId - ADD, SUBTRACT, MULTIPLY, DIVIDE or EXPONENTIATE
+	 */
+	public static double floatArithmetic(int operatorId, double op1, double op2) {
+		switch (operatorId) {
+		case ADD: return op1 + op2;
+		case SUBTRACT: return op1 - op2;
+		case MULTIPLY: return op1 * op2;
+		case DIVIDE: return op1 / op2;
+		case EXPONENTIATE: return Math.pow(op1, op2);
+		default:
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.");
+		}
+	}
+	
+	/**
+	 * Function: unary
+	 * Purpose: Applies a unary operator given by its identifier
+	 * @param parser 	 - information about  values being parsed
+	 * @param operatorId - identifier of the operator to apply
+	 * @param op1	 	 - operand to be evaluated
+	 * @return final value after some expression has been evaluated
+	 */
+	public static Value unary(Parser parser, int operatorId, Value op1) {
+		switch (operatorId) {
+		case UNARY_MINUS: return unaryMinus(parser, op1);
+		case NOT: return unaryNot(parser, op1);
+		default:
+			throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.");
+		}
+	}
+	
 	/**
 	 * Function: add
 	 * Preconditions:
@@ -289,10 +504,8 @@ public class Operators {
 	public static Value unaryNot(Parser parser, Value op1)
 	{
 		
-		Value res = op1.asBoolean(parser);
-		res.booleanValue = !res.booleanValue;
-		
-		return res;
+		// asBoolean may return op1 itself, so never negate in place
+		return new Value(!op1.asBoolean(parser).booleanValue);
 	}
 
 	
@@ -327,7 +540,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = op1.strValue.compareTo(op2.strValue) < 0;
+			res.booleanValue = op1.text().compareTo(op2.text()) < 0;
 			
 		} else {
 			throw new UnsupportedOperationError("");
@@ -367,7 +580,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = op1.strValue.compareTo(op2.strValue) > 0;
+			res.booleanValue = op1.text().compareTo(op2.text()) > 0;
 			
 		} else {
 			throw new UnsupportedOperationError("");
@@ -408,7 +621,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = op1.strValue.compareTo(op2.strValue) <= 0;
+			res.booleanValue = op1.text().compareTo(op2.text()) <= 0;
 			
 		} else {
 			throw new UnsupportedOperationError("");
@@ -449,7 +662,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = op1.strValue.compareTo(op2.strValue) >= 0;
+			res.booleanValue = op1.text().compareTo(op2.text()) >= 0;
 			
 		} else {
 			throw new UnsupportedOperationError("");
@@ -489,7 +702,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = op1.strValue.equals(op2.strValue);
+			res.booleanValue = op1.text().equals(op2.text());
 			
 		} else if (op1.dataType == DataType.BOOLEAN) {
 			
@@ -533,7 +746,7 @@ public class Operators {
 		} else if (op1.dataType == DataType.STRING) {
 			
 			op2 = op2.asString(parser);
-			res.booleanValue = !op1.strValue.equals(op2.strValue);
+			res.booleanValue = !op1.text().equals(op2.text());
 			
 		} else {
 			throw new UnsupportedOperationError("");
@@ -611,16 +824,42 @@ public class Operators {
 	 */
 	public static Value concatenate(Parser parser, Value op1, Value op2)
 	{
-		Value res = new Value();
-		res.structure = Structure.PRIMITIVE;
-		res.dataType = DataType.STRING;
-		
 		op1 = op1.asString(parser);
 		op2 = op2.asString(parser);
 		
-		res.strValue = op1.strValue.concat(op2.strValue);
+		return new Value(op1.text().concat(op2.text()));
+	}
+
+	
+	/**
+	 * Function: concatenate
+	 *  * Preconditions:
+	 * 		- the operands are those of a chain of '#' operators,
+	 * 		op1 # op2 # ... # opN
+	 * Purpose: Appends the operands into one builder sized for the
+	 * 			result, so the chain makes no intermediate strings
+	 * @param parser   - information about  values being parsed
+	 * @param operands - array holding the operands in order
+	 * @param from	   - index of the first operand in operands
+	 * @param count	   - number of operands
+	 * @return the string the chain of concatenations evaluates to
+	 */
+	public static Value concatenate(Parser parser, Value[] operands, int from, int count)
+	{
+		String[] strs = new String[count];
+		int length = 0;
+		
+		for (int i = 0; i < count; i++) {
+			strs[i] = operands[from + i].asString(parser).text();
+			length += strs[i].length();
+		}
 		
-		return res;
+		StringBuilder res = new StringBuilder(length);
+		for (String str : strs) {
+			res.append(str);
+		}
+		
+		return new Value(res.toString());
 	}
 
 	
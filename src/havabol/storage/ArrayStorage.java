@@ -0,0 +1,289 @@
+package havabol.storage;
+
+import java.util.Arrays;
+
+import havabol.parser.Parser;
+import havabol.parser.Value;
+import havabol.runtime.Membership;
+
+/**
+ * Element storage of an array variable. Int, Float and Bool arrays keep
+ * their elements in a primitive array, so they hold no Value objects at all;
+ * String and Date arrays keep a Value per element. Which of the arrays is
+ * used is decided by dataType.
+ *
+ * An index that was never assigned is undefined. Value storage marks that
+ * with null, primitive storage with a cleared bit in the presence bitmap.
+ * A defined index never becomes undefined again, so the highest defined
+ * index is kept as elements are stored and ELEM does not look for it.
+ * Any store also drops the index IN and NOTIN search the elements with.
+ */
+public class ArrayStorage {
+
+	public DataType dataType;
+
+	private int[] intValues;
+	private double[] floatValues;
+	private boolean[] booleanValues;
+	private Value[] values;
+
+	// Bit i is set once index i of a primitive array holds a value
+	private long[] present;
+	private int capacity;
+	// Highest defined index, -1 while there is none, also kept by
+	// subclasses through defined
+	protected int last = -1;
+	// Index of the elements, see STIdentifier.membership, null until it is
+	// built and again after every store
+	Membership membership;
+
+	/**
+	 * Constructor for subclasses that keep their elements elsewhere
+	 */
+	protected ArrayStorage(DataType dataType) {
+		this.dataType = dataType;
+	}
+
+	public ArrayStorage(DataType dataType, int capacity) {
+		this.dataType = dataType;
+		this.capacity = capacity;
+
+		switch (dataType) {
+		case INTEGER:
+			intValues = new int[capacity];
+			break;
+		case FLOAT:
+			floatValues = new double[capacity];
+			break;
+		case BOOLEAN:
+			booleanValues = new boolean[capacity];
+			break;
+		default:
+			values = new Value[capacity];
+			return;
+		}
+
+		present = new long[(capacity + 63) >>> 6];
+	}
+
+	/**
+	 * Wraps the given values without copying them, null entries are
+	 * undefined indices
+	 * @param values elements of the storage
+	 */
+	public ArrayStorage(Value[] values) {
+		this.dataType = DataType.VOID;
+		this.capacity = values.length;
+		this.values = values;
+		for (int i = values.length - 1; i >= 0 && last < 0; i--) {
+			if (values[i] != null)
+				last = i;
+		}
+	}
+
+	/**
+	 * Function: capacity
+	 * @return number of indices this storage has room for
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Function: isSet
+	 * @param index index to check, must be below capacity()
+	 * @return true if the index holds a value
+	 */
+	public boolean isSet(int index) {
+		if (values != null) {
+			return values[index] != null;
+		}
+		return (present[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Function: nextSet
+	 * @param index index to start looking at
+	 * @return the first defined index at or after index, -1 if there is none
+	 */
+	public int nextSet(int index) {
+		if (values != null) {
+			for (; index < capacity; index++) {
+				if (values[index] != null)
+					return index;
+			}
+			return -1;
+		}
+
+		if (index >= capacity) {
+			return -1;
+		}
+
+		int word = index >>> 6;
+		long bits = present[word] & (-1L << index);
+
+		while (bits == 0) {
+			if (++word == present.length)
+				return -1;
+			bits = present[word];
+		}
+
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * Function: lastSet
+	 * @return the highest defined index, -1 if no index is defined
+	 */
+	public int lastSet() {
+		return last;
+	}
+
+	/**
+	 * Function: get
+	 * Purpose: returns the value at a defined index. Elements of primitive
+	 * 			arrays are returned in a new Value, getInt, getFloat and
+	 * 			getBoolean read them without allocating.
+	 * @param index defined index to read
+	 */
+	public Value get(int index) {
+		switch (dataType) {
+		case INTEGER:
+			return new Value(intValues[index]);
+		case FLOAT:
+			return new Value(floatValues[index]);
+		case BOOLEAN:
+			return new Value(booleanValues[index]);
+		default:
+			return values[index];
+		}
+	}
+
+	public int getInt(int index) {
+		return intValues[index];
+	}
+
+	public double getFloat(int index) {
+		return floatValues[index];
+	}
+
+	public boolean getBoolean(int index) {
+		return booleanValues[index];
+	}
+
+	/**
+	 * Function: set
+	 * Purpose: stores a copy of the value, coerced to the element type of
+	 * 			a primitive array. An Int stored in a Float array is read
+	 * 			back as a Float, so 4 prints as 4.0 as a Float variable does.
+	 * @param parser calling parser object, used for coercion errors
+	 * @param index index to set, must be below capacity()
+	 * @param value value to store
+	 */
+	public void set(Parser parser, int index, Value value) {
+		switch (dataType) {
+		case INTEGER:
+			intValues[index] = value.dataType == DataType.INTEGER ? value.intValue : value.asInteger(parser).intValue;
+			break;
+		case FLOAT:
+			floatValues[index] = value.dataType == DataType.FLOAT ? value.floatValue : value.asFloat(parser).floatValue;
+			break;
+		case BOOLEAN:
+			booleanValues[index] = value.dataType == DataType.BOOLEAN ? value.booleanValue : value.asBoolean(parser).booleanValue;
+			break;
+		default:
+			values[index] = value.clone();
+			defined(index);
+			return;
+		}
+		present[index >>> 6] |= 1L << index;
+		defined(index);
+	}
+
+	/**
+	 * Records that an index now holds a value, subclasses call it for
+	 * every index they store
+	 */
+	protected void defined(int index) {
+		membership = null;
+		if (index > last) {
+			last = index;
+		}
+	}
+
+	/**
+	 * Function: fill
+	 * Purpose: stores a copy of the value in every index
+	 */
+	public void fill(Parser parser, Value value) {
+		for (int i = 0; i < capacity(); i++) {
+			set(parser, i, value);
+		}
+	}
+
+	/**
+	 * Function: copyFrom
+	 * Purpose: copies the leading elements of another array, stopping at the
+	 * 			first undefined index. Elements of the same primitive type are
+	 * 			copied without going through a Value.
+	 * @param parser calling parser object
+	 * @param source storage to copy from
+	 * @param count maximum number of elements to copy
+	 */
+	public void copyFrom(Parser parser, ArrayStorage source, int count) {
+		for (int i = 0; i < count; i++) {
+			if (!source.isSet(i))
+				break;
+
+			if (source.dataType != dataType || values != null || source.present == null) {
+				set(parser, i, source.get(i));
+				continue;
+			}
+
+			switch (dataType) {
+			case INTEGER:
+				intValues[i] = source.intValues[i];
+				break;
+			case FLOAT:
+				floatValues[i] = source.floatValues[i];
+				break;
+			default:
+				booleanValues[i] = source.booleanValues[i];
+				break;
+			}
+			present[i >>> 6] |= 1L << i;
+			defined(i);
+		}
+	}
+
+	/**
+	 * Function: grow
+	 * Purpose: enlarges the storage, new indices are undefined
+	 * @param newCapacity capacity to grow to
+	 */
+	public void grow(int newCapacity) {
+		if (newCapacity <= capacity) {
+			return;
+		}
+
+		capacity = newCapacity;
+
+		switch (dataType) {
+		case INTEGER:
+			intValues = Arrays.copyOf(intValues, newCapacity);
+			break;
+		case FLOAT:
+			floatValues = Arrays.copyOf(floatValues, newCapacity);
+			break;
+		case BOOLEAN:
+			booleanValues = Arrays.copyOf(booleanValues, newCapacity);
+			break;
+		default:
+			values = Arrays.copyOf(values, newCapacity);
+			return;
+		}
+
+		present = Arrays.copyOf(present, (newCapacity + 63) >>> 6);
+	}
+
+}
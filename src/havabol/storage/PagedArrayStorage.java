@@ -0,0 +1,233 @@
+package havabol.storage;
+
+import java.util.Arrays;
+
+import havabol.parser.Parser;
+import havabol.parser.Value;
+
+/**
+ * Element storage of an unbounded array. Storing far past the end of an
+ * unbounded array must not allocate every index in between, so elements are
+ * kept in one of two ways:
+ *
+ * sparse: defined indices in a sorted key array, with the element of each
+ * 		key at the same position in a Value array. Arrays start out sparse.
+ * paged: fixed size pages of PAGE_SIZE indices, each an ArrayStorage that is
+ * 		only allocated once one of its indices is stored. An array switches to
+ * 		pages once it has more than sparseLimit elements and they would fill
+ * 		the pages they fall in well enough.
+ *
+ * capacity() is the logical size of the array, indices below it that were
+ * never stored are undefined. The highest defined index is kept by
+ * ArrayStorage.defined as elements are stored.
+ */
+public class PagedArrayStorage extends ArrayStorage {
+
+	public static final int PAGE_SHIFT = 10;
+	public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+	// A sparse array becomes paged once its elements fill at least
+	// 1 / PAGE_FILL_RATIO of the pages they would need
+	private static final int PAGE_FILL_RATIO = 16;
+
+	private int capacity;
+
+	// sparse representation, null once paged
+	private int[] keys = new int[8];
+	private Value[] entries = new Value[8];
+	private int count;
+	private int sparseLimit = 256;
+
+	// paged representation, null while sparse
+	private ArrayStorage[] pages;
+
+	public PagedArrayStorage(DataType dataType, int capacity) {
+		super(dataType);
+		this.capacity = capacity;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Function: grow
+	 * Purpose: raises the logical size, nothing is allocated for it
+	 */
+	public void grow(int newCapacity) {
+		if (newCapacity > capacity) {
+			capacity = newCapacity;
+		}
+	}
+
+	public boolean isSet(int index) {
+		if (pages == null) {
+			return find(index) >= 0;
+		}
+		ArrayStorage page = page(index);
+		return page != null && page.isSet(index & (PAGE_SIZE - 1));
+	}
+
+	public int nextSet(int index) {
+		if (index >= capacity) {
+			return -1;
+		}
+
+		if (pages == null) {
+			int pos = find(index);
+			if (pos < 0) {
+				pos = -pos - 1;
+			}
+			return pos < count && keys[pos] < capacity ? keys[pos] : -1;
+		}
+
+		for (int p = index >>> PAGE_SHIFT; p < pages.length; p++) {
+			if (pages[p] != null) {
+				int offset = p == index >>> PAGE_SHIFT ? index & (PAGE_SIZE - 1) : 0;
+				int found = pages[p].nextSet(offset);
+				if (found >= 0) {
+					found += p << PAGE_SHIFT;
+					return found < capacity ? found : -1;
+				}
+			}
+		}
+		return -1;
+	}
+
+	public Value get(int index) {
+		if (pages == null) {
+			return entries[find(index)];
+		}
+		return page(index).get(index & (PAGE_SIZE - 1));
+	}
+
+	public int getInt(int index) {
+		if (pages == null) {
+			return entries[find(index)].intValue;
+		}
+		return page(index).getInt(index & (PAGE_SIZE - 1));
+	}
+
+	public double getFloat(int index) {
+		if (pages == null) {
+			return entries[find(index)].floatValue;
+		}
+		return page(index).getFloat(index & (PAGE_SIZE - 1));
+	}
+
+	public boolean getBoolean(int index) {
+		if (pages == null) {
+			return entries[find(index)].booleanValue;
+		}
+		return page(index).getBoolean(index & (PAGE_SIZE - 1));
+	}
+
+	/**
+	 * Function: set
+	 * Purpose: stores a copy of the value, coerced to the element type of
+	 * 			a primitive array. The index may be past capacity().
+	 */
+	public void set(Parser parser, int index, Value value) {
+
+		if (index >= capacity) {
+			capacity = index + 1;
+		}
+
+		if (pages != null) {
+			int p = index >>> PAGE_SHIFT;
+			if (p >= pages.length) {
+				pages = Arrays.copyOf(pages, Math.max(p + 1, pages.length * 2));
+			}
+			if (pages[p] == null) {
+				pages[p] = new ArrayStorage(dataType, PAGE_SIZE);
+			}
+			pages[p].set(parser, index & (PAGE_SIZE - 1), value);
+			defined(index);
+			return;
+		}
+
+		Value element;
+		switch (dataType) {
+		case INTEGER:
+		case FLOAT:
+		case BOOLEAN:
+			element = value.asType(parser, dataType).clone();
+			break;
+		default:
+			element = value.clone();
+			break;
+		}
+
+		defined(index);
+
+		int pos = find(index);
+		if (pos >= 0) {
+			entries[pos] = element;
+			return;
+		}
+
+		pos = -pos - 1;
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			entries = Arrays.copyOf(entries, count * 2);
+		}
+		System.arraycopy(keys, pos, keys, pos + 1, count - pos);
+		System.arraycopy(entries, pos, entries, pos + 1, count - pos);
+		keys[pos] = index;
+		entries[pos] = element;
+		count++;
+
+		if (count > sparseLimit) {
+			pageIfDense(parser);
+		}
+	}
+
+	/**
+	 * Function: pageIfDense
+	 * Purpose: moves the elements into pages if they would fill them well
+	 * 			enough, otherwise waits until the element count doubles
+	 */
+	private void pageIfDense(Parser parser) {
+
+		int pageCount = 0;
+		int lastPage = -1;
+		for (int i = 0; i < count; i++) {
+			if (keys[i] >>> PAGE_SHIFT != lastPage) {
+				lastPage = keys[i] >>> PAGE_SHIFT;
+				pageCount++;
+			}
+		}
+
+		if ((long) count * PAGE_FILL_RATIO < (long) pageCount * PAGE_SIZE) {
+			sparseLimit *= 2;
+			return;
+		}
+
+		pages = new ArrayStorage[lastPage + 1];
+		int[] sparseKeys = keys;
+		Value[] sparseEntries = entries;
+		int sparseCount = count;
+		keys = null;
+		entries = null;
+		count = 0;
+
+		for (int i = 0; i < sparseCount; i++) {
+			set(parser, sparseKeys[i], sparseEntries[i]);
+		}
+	}
+
+	/**
+	 * Function: find
+	 * @return position of the index in the sparse keys, or
+	 * 			-(insertion point) - 1 if it is not there
+	 */
+	private int find(int index) {
+		return Arrays.binarySearch(keys, 0, count, index);
+	}
+
+	private ArrayStorage page(int index) {
+		int p = index >>> PAGE_SHIFT;
+		return p < pages.length ? pages[p] : null;
+	}
+
+}
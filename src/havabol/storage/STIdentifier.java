@@ -1,12 +1,12 @@
 package havabol.storage;
 
-import java.util.Arrays;
-
 import havabol.error.IndexError;
 import havabol.error.TypeError;
 import havabol.error.UnsupportedOperationError;
 import havabol.parser.*;
 import havabol.runtime.Functions;
+import havabol.runtime.Membership;
+import havabol.runtime.Operators;
 import havabol.storage.*;
 
 /*
@@ -24,8 +24,18 @@ public class STIdentifier extends STEntry
 	//public String parm;
 	//public int nonLocal;
 	
-	public Value[] arrayValue;
+	public ArrayStorage arrayStorage;
 	public Value value;
+	// Value of a primitive this variable allocated itself and has not handed
+	// out through getValue since, the only value it may update in place,
+	// see setInt and splice
+	private Value owned;
+	// Text of a String variable that assignments of the form s = s # x
+	// append to, null unless one has since it was last set. value only
+	// catches up with it when the variable is read, see sync.
+	private StringBuilder buffer;
+	// Whether value holds the text in buffer
+	private boolean synced;
 	public STIdentifier(String tokenStr, DataType declaredType, StorageStructure structure) {
 		super(tokenStr, 0);
 		this.declaredType = declaredType;
@@ -45,17 +55,21 @@ public class STIdentifier extends STEntry
 			throw new IndexError("Cannot refer to an index of a primitive value");
 		}
 		
+		if (index < 0) {
+			throw new IndexError("Negative indices are not supported");
+		}
+		
 		if (this.structure == StorageStructure.FIXED_ARRAY) {
 			if (index >= this.declaredSize) {
 				throw new IndexError("Array index is out of bounds");
 			}
 		}
 		
-		if (index >= this.arrayValue.length || this.arrayValue[index] == null) {
+		if (index >= this.arrayStorage.capacity() || !this.arrayStorage.isSet(index)) {
 			throw new IndexError("Reference to undefined array index");
 		}
 		
-		return this.arrayValue[index];
+		return this.arrayStorage.get(index);
 		
 	}
 	
@@ -76,25 +90,28 @@ public class STIdentifier extends STEntry
 			}
 		}
 		
+		if (index < 0) {
+			throw new IndexError("Negative indices are not supported");
+		}
+		
 		if (this.structure == StorageStructure.FIXED_ARRAY) {
 		
 			if (index >= this.declaredSize) {
 				throw new IndexError("Array index is out of bounds");
 			}
 			
-			this.arrayValue[index] = value.clone();
+			this.arrayStorage.set(parser, index, value);
 		
 		} else {
 			
 			// Any index in an unbounded array can be set
 			
-			if (index >= arrayValue.length) {
+			if (index >= this.arrayStorage.capacity()) {
 				// resize array to fit new index
-				int newSize = (index + 1) * 2;
-				this.arrayValue = Arrays.copyOf(this.arrayValue, newSize);
+				this.arrayStorage.grow((index + 1) * 2);
 			}
 			
-			this.arrayValue[index] = value.clone();
+			this.arrayStorage.set(parser, index, value);
 			
 			if (index > maxPopulatedIndex) {
 				maxPopulatedIndex = index;
@@ -113,13 +130,34 @@ public class STIdentifier extends STEntry
 		} else if (this.structure == StorageStructure.UNBOUNDED_ARRAY) {
 			endIndex = this.maxPopulatedIndex + 1;
 		} else {
-			endIndex = this.getValue().asString(parser).strValue.length();
+			endIndex = this.getValue().asString(parser).length();
 		}
 		
 		return fetchSlice(parser, beginIndex, endIndex);
 		
 	}
 	
+	/**
+	 * Function:	membership
+	 * Purpose:		returns the index IN and NOTIN search this array with, in
+	 * 				place of the copy sliceWithoutEnd(parser, 0) would make.
+	 * 				It is built from that copy, so it fails where the copy
+	 * 				does, and the storage keeps it until an element is stored.
+	 * @param parser calling parser object
+	 */
+	public Membership membership(Parser parser) {
+		
+		int size = this.structure == StorageStructure.FIXED_ARRAY ? this.declaredSize : this.maxPopulatedIndex + 1;
+		
+		Membership index = this.arrayStorage.membership;
+		if (index == null || index.size() != size) {
+			index = new Membership(sliceWithoutEnd(parser, 0));
+			this.arrayStorage.membership = index;
+		}
+		return index;
+		
+	}
+
 	public Value sliceWithoutBegin(Parser parser, int endIndex) {
 		
 		return fetchSlice(parser, 0, endIndex);
@@ -154,14 +192,14 @@ public class STIdentifier extends STEntry
 			
 			if (this.declaredType == DataType.STRING) {
 				
-				Value strVal = this.value.asString(parser);
+				Value strVal = this.peekValue().asString(parser);
 				
-				if (endIndex > strVal.strValue.length()) {
+				if (endIndex > strVal.length()) {
 					throw new IndexError("Upper bound of slice may not exceed size of string", parser.scanner.currentToken);
 				}
 				
 				// begin and end indices should be valid
-				return new Value(strVal.strValue.substring(beginIndex, endIndex));
+				return strVal.substring(beginIndex, endIndex);
 				
 			} else {
 				throw new TypeError("Cannot slice a non-string primitive", parser.scanner.currentToken);
@@ -186,10 +224,10 @@ public class STIdentifier extends STEntry
 			}
 			
 			for (int i = beginIndex; i < endIndex; i++) {
-				if (this.arrayValue[i] == null) {
+				if (i >= this.arrayStorage.capacity() || !this.arrayStorage.isSet(i)) {
 					throw new IndexError("Included an uninitialized array index inside slice", parser.scanner.currentToken);
 				}
-				retVal.add(parser, this.arrayValue[i].clone());
+				retVal.add(parser, this.arrayStorage.get(i).clone());
 			}
 			
 			return retVal;
@@ -198,21 +236,36 @@ public class STIdentifier extends STEntry
 		
 	}
 	
+	/**
+	 * Function:	allocate
+	 * Purpose:		gives this array empty storage for its declared type,
+	 * 				unbounded arrays get paged storage
+	 * @param capacity number of indices to make room for
+	 */
+	public void allocate(int capacity) {
+		if (this.structure == StorageStructure.UNBOUNDED_ARRAY) {
+			this.arrayStorage = new PagedArrayStorage(this.declaredType, capacity);
+		} else {
+			this.arrayStorage = new ArrayStorage(this.declaredType, capacity);
+		}
+	}
+	
 	/**
 	 * Sets the stored value of this variable.
+	 * @param parser calling parser object
 	 * @param value the value to store in this variable
 	 */
-	public void setValue(Value value) {
+	public void setValue(Parser parser, Value value) {
 		if (value.structure == Structure.PRIMITIVE) {
 			if (this.structure == StorageStructure.PRIMITIVE) {
 				// primitive into primitive
 				this.value = value;
+				this.owned = null;
+				this.buffer = null;
 			} else {
 				if (this.structure == StorageStructure.FIXED_ARRAY) {
 					// primitive into fixed array
-					for (int i = 0; i < this.declaredSize; i++) {
-						this.arrayValue[i] = value.clone();
-					}
+					this.arrayStorage.fill(parser, value);
 				} else {
 					// primitive into unbounded array
 					throw new TypeError("Cannot perform primitive assignment on unbounded array");
@@ -227,15 +280,18 @@ public class STIdentifier extends STEntry
 					throw new IndexError("Array does not have enough space to store array value");
 				} else {
 					// clear array
-					this.arrayValue = new Value[this.declaredSize];
+					allocate(this.declaredSize);
 					for (int i = 0; i < value.numItems; i++) {
-						this.arrayValue[i] = value.arrayValue.get(i).clone();
+						this.arrayStorage.set(parser, i, value.arrayValue.get(i));
 					}
 				}
 			} else {
 				// multivalue into unbounded array
-				this.arrayValue = value.arrayValue.toArray(new Value[0]);
-				maxPopulatedIndex = this.arrayValue.length;
+				allocate(value.numItems);
+				for (int i = 0; i < value.numItems; i++) {
+					this.arrayStorage.set(parser, i, value.arrayValue.get(i));
+				}
+				maxPopulatedIndex = value.numItems;
 			}
 		}
 		//System.out.println("----------------->Value of symbol: " + symbol + " is: " + this.value);
@@ -246,9 +302,174 @@ public class STIdentifier extends STEntry
 	 * @return		Value containing populated parameters
 	 */
 	public Value getValue() {
+		// the caller may keep the value, so it can no longer change in place,
+		// and may change it, so the buffer no longer holds the text
+		sync();
+		this.owned = null;
+		this.buffer = null;
+		return this.value;
+	}
+	
+	/**
+	 * Function:	peekValue
+	 * Purpose:		returns the value for an operator that consumes it right
+	 * 				away. Unlike getValue, the variable may still update the
+	 * 				value in place afterwards, so it must not be kept.
+	 */
+	public Value peekValue() {
+		sync();
 		return this.value;
 	}
 	
+	/**
+	 * Function:	appendable
+	 * @return		true if the variable holds a String that append may add to
+	 */
+	public boolean appendable() {
+		if (this.buffer != null) {
+			return true;
+		}
+		return this.structure == StorageStructure.PRIMITIVE && this.declaredType == DataType.STRING
+				&& this.value != null && this.value.dataType == DataType.STRING;
+	}
+	
+	/**
+	 * Function:	append
+	 * Purpose:		adds text to the end of a String variable, for which
+	 * 				appendable is true. The text is kept in a growable buffer
+	 * 				until the variable is read, so a string built up by
+	 * 				appending in a loop is not copied on every append.
+	 * @param text	the text to add
+	 */
+	public void append(String text) {
+		if (this.buffer == null) {
+			this.buffer = new StringBuilder(this.value.text());
+		}
+		this.buffer.append(text);
+		this.synced = false;
+		this.owned = null;
+	}
+	
+	/**
+	 * Function:	sync
+	 * Purpose:		brings value up to date with text appended since the
+	 * 				variable was last read
+	 */
+	private void sync() {
+		if (this.buffer != null && !this.synced) {
+			this.value = new Value(this.buffer.toString());
+			this.owned = this.value;
+			this.synced = true;
+		}
+	}
+	
+	/**
+	 * Function:	splice
+	 * Purpose:		assigns text to a slice of a String variable, as
+	 * 				Value.spliceString does. The value is edited in place when
+	 * 				the variable owns it. Otherwise it may be shared with other
+	 * 				variables, so a copy is edited and owned from then on, and
+	 * 				a loop editing a string one index at a time copies it once.
+	 * @param parser calling parser object
+	 * @param beginIndex Inclusive begin replacement index
+	 * @param endIndex Exclusive end replacement index
+	 * @param isEnded true if an end index was included in slice
+	 * @param text String to insert into the location
+	 */
+	public void splice(Parser parser, int beginIndex, int endIndex, boolean isEnded, String text) {
+		editable().spliceString(parser, beginIndex, endIndex, isEnded, text);
+	}
+	
+	/**
+	 * Function:	splice
+	 * Purpose:		assigns text to an index of a String variable, see splice
+	 * @param parser calling parser object
+	 * @param index Index to replace
+	 * @param text String to insert into the location
+	 */
+	public void splice(Parser parser, int index, String text) {
+		editable().spliceString(parser, index, text);
+	}
+	
+	/**
+	 * Function:	editable
+	 * @return		the value of this variable, made its own if it is not
+	 */
+	private Value editable() {
+		sync();
+		// the edit leaves the text in the buffer out of date
+		this.buffer = null;
+		if (this.owned != this.value) {
+			this.value = this.value.clone();
+			this.owned = this.value;
+		}
+		return this.value;
+	}
+	
+	/**
+	 * Function:	setInt
+	 * Purpose:		stores an Int in a primitive variable, in place when the
+	 * 				variable owns its value, so loop counters and accumulators
+	 * 				do not allocate on every update
+	 */
+	public void setInt(int intValue) {
+		this.buffer = null;
+		if (this.owned == null || this.owned.dataType != DataType.INTEGER) {
+			this.owned = new Value(intValue);
+			this.value = this.owned;
+		} else {
+			this.owned.intValue = intValue;
+		}
+	}
+	
+	/**
+	 * Function:	setFloat
+	 * Purpose:		stores a Float in a primitive variable, see setInt
+	 */
+	public void setFloat(double floatValue) {
+		this.buffer = null;
+		if (this.owned == null || this.owned.dataType != DataType.FLOAT) {
+			this.owned = new Value(floatValue);
+			this.value = this.owned;
+		} else {
+			this.owned.floatValue = floatValue;
+		}
+	}
+	
+	/**
+	 * Function:	apply
+	 * Purpose:		performs a compound assignment such as +=, storing the
+	 * 				current value combined with op2 by the operator. Int and Float
+	 * 				variables with a numeric op2 are updated through setInt and
+	 * 				setFloat.
+	 * @param parser calling parser object
+	 * @param operatorId ADD, SUBTRACT, MULTIPLY or DIVIDE
+	 * @param op2 right hand side of the assignment
+	 */
+	public void apply(Parser parser, int operatorId, Value op2) {
+		Value op1 = peekValue();
+		if (this.structure == StorageStructure.PRIMITIVE && op1 != null) {
+			if (op1.dataType == DataType.INTEGER) {
+				if (op2.dataType == DataType.INTEGER) {
+					setInt(Operators.intArithmetic(parser, operatorId, op1.intValue, op2.intValue));
+					return;
+				} else if (op2.dataType == DataType.FLOAT) {
+					setInt(Operators.intArithmetic(parser, operatorId, op1.intValue, (int) op2.floatValue));
+					return;
+				}
+			} else if (op1.dataType == DataType.FLOAT) {
+				if (op2.dataType == DataType.FLOAT) {
+					setFloat(Operators.floatArithmetic(operatorId, op1.floatValue, op2.floatValue));
+					return;
+				} else if (op2.dataType == DataType.INTEGER) {
+					setFloat(Operators.floatArithmetic(operatorId, op1.floatValue, (double) op2.intValue));
+					return;
+				}
+			}
+		}
+		setValue(parser, Operators.binary(parser, operatorId, getValue(), op2));
+	}
+	
 	/**
 	 * Function:	toString
 	 * Purpose:		returns string representation of identifier
@@ -8,6 +8,10 @@ import havabol.parser.*;
 
 public class SymbolTable {
 	public HashMap<String, STEntry> ST = new HashMap<>();
+	// Variables by frame slot, null while the slot's name is not declared.
+	// Havabol has a single global scope, so there is a single frame.
+	public STIdentifier[] frame = new STIdentifier[64];
+	private HashMap<String, Integer> slotIndex = new HashMap<>();
 	Parser parser;
 	int VAR_ARGS;
 
@@ -69,6 +73,51 @@ public class SymbolTable {
 
 	}
 
+	/**
+	 * Function:	slot
+	 * Purpose:		returns the frame slot of a variable name, assigning the next
+	 * 				free slot the first time a name is resolved. Names are
+	 * 				resolved before the program runs, so that variable access
+	 * 				only has to index the frame.
+	 * @param symbol variable name
+	 * @return		index of the name's slot in frame
+	 */
+	public int slot(String symbol) {
+		Integer slot = slotIndex.get(symbol);
+		if (slot == null) {
+			slot = slotIndex.size();
+			slotIndex.put(symbol, slot);
+			if (slot == frame.length) {
+				frame = Arrays.copyOf(frame, slot * 2);
+			}
+		}
+		return slot;
+	}
+
+	/**
+	 * Function:	resolve
+	 * Purpose:		assigns an identifier token the frame slot of its name
+	 * @param token	token to resolve, tokens other than identifiers are left as is
+	 */
+	public void resolve(Token token) {
+		if (token.primClassif == Token.OPERAND && token.subClassif == Token.IDENTIFIER) {
+			token.iSlot = slot(token.tokenStr);
+		}
+	}
+
+	/**
+	 * Function:	getVariable
+	 * Purpose:		returns the variable declared in a frame slot
+	 * @param slot	slot returned by slot() or resolve()
+	 */
+	public STIdentifier getVariable(Parser parser, int slot) {
+		STIdentifier variable = frame[slot];
+		if (variable == null) {
+			throw new DeclarationError("Attempted to access value of undeclared identifier", parser.scanner.currentToken);
+		}
+		return variable;
+	}
+
 	/**
 	 * Function:	containsSymbol
 	 * @param symbol	symbol to be evaluated
@@ -85,6 +134,11 @@ public class SymbolTable {
 	 * @param entry the entry in the symbol table that corresponds to the symbol name
 	 */
 	public void createSymbol(Parser parser, String symbol, STEntry entry){
+		if (entry instanceof STIdentifier) {
+			frame[slot(symbol)] = (STIdentifier) entry;
+		} else if (slotIndex.containsKey(symbol)) {
+			frame[slotIndex.get(symbol)] = null;
+		}
 		if(this.containsSymbol(symbol)){
 			ST.remove(symbol);
 			ST.put(symbol, entry);
@@ -100,6 +154,9 @@ public class SymbolTable {
 	 * @param symbol the symbol to delete from the Symbol Table
 	 */
 	public void deleteSymbol(String symbol){
+		if (slotIndex.containsKey(symbol)) {
+			frame[slotIndex.get(symbol)] = null;
+		}
 		if(ST.containsKey(symbol)){
 			ST.remove(symbol);
 		}else{
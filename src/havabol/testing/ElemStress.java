@@ -0,0 +1,159 @@
+/*
+  Checks ELEM against a scan of the array it counts.
+  Command Arguments:
+      java havabol.testing.ElemStress [-r rounds] [-s seed]
+             each round stores random elements into a fixed and an
+             unbounded array of every element type, default is 5 rounds.
+  Output:
+      One line per round. After every store ELEM is compared with the
+      highest defined index found by scanning the whole array, a mismatch
+      is printed and ends the run with exit status 1.
+  Notes:
+      1. Unbounded arrays get indices far apart as well as close together,
+         so their storage goes through both its sparse and paged forms.
+      2. Array assignments, copies from another array and filling a fixed
+         array with one value are mixed in, they replace or rewrite the
+         storage as a whole.
+ */
+package havabol.testing;
+
+import java.util.Random;
+
+import havabol.parser.Structure;
+import havabol.parser.Value;
+import havabol.runtime.Functions;
+import havabol.storage.DataType;
+import havabol.storage.STIdentifier;
+import havabol.storage.StorageStructure;
+
+public class ElemStress
+{
+	private static final DataType[] TYPES = { DataType.INTEGER, DataType.FLOAT, DataType.BOOLEAN, DataType.STRING };
+
+	private static final int FIXED_SIZE = 3000;
+	private static final int UNBOUNDED_SPAN = 1 << 14;
+	private static final int STORES = 2000;
+
+	public static void main(String[] args)
+	{
+		int rounds = 5;
+		long seed = 1;
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-r")) {
+				rounds = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-s")) {
+				seed = Long.parseLong(args[++i]);
+			}
+		}
+
+		Random random = new Random(seed);
+
+		for (int round = 1; round <= rounds; round++) {
+			long checks = 0;
+			for (DataType type : TYPES) {
+				checks += stress(random, declare(type, StorageStructure.FIXED_ARRAY));
+				checks += stress(random, declare(type, StorageStructure.UNBOUNDED_ARRAY));
+			}
+			System.out.printf("round %2d: %,d checks\n", round, checks);
+		}
+	}
+
+	/**
+	 * Declares an array the way a declaration without values does
+	 */
+	private static STIdentifier declare(DataType type, StorageStructure structure)
+	{
+		STIdentifier array = new STIdentifier("arr", type, structure);
+		if (structure == StorageStructure.FIXED_ARRAY) {
+			array.declaredSize = FIXED_SIZE;
+			array.allocate(FIXED_SIZE);
+		} else {
+			array.allocate(0);
+		}
+		return array;
+	}
+
+	/**
+	 * Stores random elements into an array, checking ELEM after each store
+	 * @return number of checks made
+	 */
+	private static long stress(Random random, STIdentifier array)
+	{
+		int bound = array.structure == StorageStructure.FIXED_ARRAY ? FIXED_SIZE : UNBOUNDED_SPAN;
+		check(array, "declaration");
+
+		for (int i = 0; i < STORES; i++) {
+			int choice = random.nextInt(100);
+			if (choice == 0) {
+				// assignment of a whole array value
+				Value items = new Value();
+				items.structure = Structure.MULTIVALUE;
+				items.dataType = array.declaredType;
+				int count = random.nextInt(50);
+				for (int j = 0; j < count; j++) {
+					items.add(null, element(random, array.declaredType));
+				}
+				array.setValue(null, items);
+				check(array, "assignment of " + count + " elements");
+			} else if (choice == 1 && array.structure == StorageStructure.FIXED_ARRAY) {
+				array.setValue(null, element(random, array.declaredType));
+				check(array, "fill");
+			} else if (choice == 2 && array.structure == StorageStructure.FIXED_ARRAY) {
+				// fixed = other; copies the leading elements of another array
+				STIdentifier source = declare(array.declaredType, StorageStructure.FIXED_ARRAY);
+				int count = random.nextInt(FIXED_SIZE);
+				for (int j = 0; j < count; j++) {
+					source.set(null, j, element(random, array.declaredType));
+				}
+				array.arrayStorage.copyFrom(null, source.arrayStorage, FIXED_SIZE);
+				check(array, "copy of " + count + " elements");
+			} else {
+				// mostly low indices, now and then one anywhere in the span
+				int index = random.nextInt(10) == 0 ? random.nextInt(bound) : random.nextInt(Math.min(bound, 2048));
+				array.set(null, index, element(random, array.declaredType));
+				check(array, "store at " + index);
+			}
+		}
+		return STORES + 1;
+	}
+
+	private static Value element(Random random, DataType type)
+	{
+		switch (type) {
+		case INTEGER:
+			return new Value(random.nextInt());
+		case FLOAT:
+			return new Value(random.nextDouble());
+		case BOOLEAN:
+			return Value.valueOf(random.nextBoolean());
+		default:
+			return new Value("s" + random.nextInt(1000));
+		}
+	}
+
+	/**
+	 * Compares ELEM with the highest defined index found by a scan
+	 */
+	private static void check(STIdentifier array, String step)
+	{
+		int highest = -1;
+		for (int i = array.arrayStorage.capacity() - 1; i >= 0; i--) {
+			if (array.arrayStorage.isSet(i)) {
+				highest = i;
+				break;
+			}
+		}
+
+		// ELEM of an array whose only element is at index 0 is 0 as well
+		int expected = highest <= 0 ? 0 : highest + 1;
+		int elem = Functions.elem(null, array).intValue;
+
+		if (elem != expected) {
+			System.out.printf("%s %s array, after %s: ELEM is %d, scan gives %d\n",
+					array.declaredType, array.structure, step, elem, expected);
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+  Times the scanner on Havabol source files.
+  Command Arguments:
+      java havabol.testing.ScannerBenchmark [-r rounds] file...
+             lexes every file once per round, default is every p5*.txt
+             file in the current directory.
+  Output:
+      Tokens per second for each round. The first rounds include
+      JIT warm up, compare the later ones.
+ */
+package havabol.testing;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.List;
+
+import havabol.lexer.Scanner;
+import havabol.storage.SymbolTable;
+
+public class ScannerBenchmark
+{
+	public static void main(String[] args) throws Exception
+	{
+		int rounds = 10;
+		List<String> files = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-r")) {
+				rounds = Integer.parseInt(args[++i]);
+			} else {
+				files.add(args[i]);
+			}
+		}
+
+		if (files.isEmpty()) {
+			File[] inputFiles = new File(".").listFiles(new FilenameFilter() {
+				public boolean accept(File dir, String name) {
+					return name.matches("^p5.*\\.txt$");
+				}
+			});
+			for (File f : inputFiles) {
+				files.add(f.getPath());
+			}
+		}
+
+		for (int round = 1; round <= rounds; round++) {
+
+			long tokens = 0;
+			long start = System.nanoTime();
+
+			// Each round lexes for at least a second so short files still time well
+			do {
+				for (String file : files) {
+					tokens += countTokens(file);
+				}
+			} while (System.nanoTime() - start < 1000000000L);
+
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("round %2d: %,12.0f tokens/s\n", round, tokens / seconds);
+		}
+	}
+
+	/**
+	 * Lexes a file token by token, the way the scanner runs without
+	 * pre-tokenizing. Lexical errors end the file.
+	 * @param file Havabol source file
+	 * @return number of tokens read
+	 */
+	private static long countTokens(String file) throws Exception
+	{
+		Scanner scan = new Scanner(file, new SymbolTable());
+		long count = 0;
+		try {
+			while (!scan.getNext().isEmpty()) {
+				count++;
+			}
+		} catch (Error e) {
+			// count what was read up to the error
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,605 @@
+package havabol.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import havabol.ast.*;
+import havabol.error.DeclarationError;
+import havabol.lexer.Token;
+import havabol.parser.Value;
+import havabol.runtime.Operators;
+import havabol.storage.StorageStructure;
+
+/**
+ * Compiles a syntax tree built by AstBuilder into a Program for the VM.
+ * Instructions are emitted in the order Evaluator visits the nodes, so both
+ * engines run side effects and report errors in the same order.
+ */
+public class Compiler implements AstVisitor<Void> {
+
+	private int[] code = new int[256];
+	private int pc = 0;
+
+	private List<Object> constants = new ArrayList<>();
+	private HashMap<Object, Integer> constantIndex = new HashMap<>();
+
+	// Operand stack depth at the current instruction
+	private int depth = 0;
+	private int maxDepth = 0;
+
+	private int loopDepth = 0;
+	private int maxLoopDepth = 0;
+	private int selectDepth = 0;
+	private int maxSelectDepth = 0;
+
+	// Jumps to patch for break and continue, innermost loop last
+	private List<Loop> loops = new ArrayList<>();
+
+	private static class Loop {
+		List<Integer> breaks = new ArrayList<>();
+		List<Integer> continues = new ArrayList<>();
+	}
+
+	/**
+	 * Function: compile
+	 * @param program block returned by AstBuilder.parseProgram
+	 * @return the compiled program
+	 */
+	public Program compile(BlockNode program) {
+		program.accept(this);
+		emit(Opcode.HALT);
+		return new Program(Arrays.copyOf(code, pc), constants.toArray(), maxDepth,
+				maxLoopDepth, maxSelectDepth);
+	}
+
+	/**
+	 * Appends an instruction and records its effect on the operand stack depth.
+	 */
+	private void emit(int stackEffect, int... words) {
+		if (pc + words.length > code.length) {
+			code = Arrays.copyOf(code, code.length * 2);
+		}
+		for (int word : words) {
+			code[pc++] = word;
+		}
+		depth += stackEffect;
+		maxDepth = Math.max(maxDepth, depth);
+	}
+
+	private void emit(int opcode) {
+		emit(0, opcode);
+	}
+
+	/**
+	 * Returns the pool index of a constant, adding it if needed. Values and
+	 * tokens are pooled by identity, names by string equality.
+	 */
+	private int constant(Object value) {
+		Integer index = constantIndex.get(value);
+		if (index == null) {
+			index = constants.size();
+			constants.add(value);
+			constantIndex.put(value, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Pool index of a token, or -1 when there is none.
+	 */
+	private int token(Token token) {
+		return token == null ? -1 : constant(token);
+	}
+
+	/**
+	 * Emits a forward jump and returns the address of its target operand.
+	 */
+	private int jump(int stackEffect, int opcode, int... operands) {
+		int[] words = new int[operands.length + 2];
+		words[0] = opcode;
+		words[1] = -1;
+		System.arraycopy(operands, 0, words, 2, operands.length);
+		emit(stackEffect, words);
+		return pc - words.length + 1;
+	}
+
+	private void patch(int operandAddress) {
+		code[operandAddress] = pc;
+	}
+
+	private void patch(List<Integer> operandAddresses, int target) {
+		for (int address : operandAddresses) {
+			code[address] = target;
+		}
+	}
+
+	private Loop beginLoop() {
+		Loop loop = new Loop();
+		loops.add(loop);
+		loopDepth++;
+		maxLoopDepth = Math.max(maxLoopDepth, loopDepth);
+		return loop;
+	}
+
+	private void endLoop(Loop loop) {
+		patch(loop.breaks, pc);
+		loops.remove(loops.size() - 1);
+		loopDepth--;
+	}
+
+	/**
+	 * Compiles an operand of an operator. The operator consumes the value
+	 * right away, so variables are read with PEEK.
+	 */
+	private void operand(ExprNode expr) {
+		if (expr instanceof IdentifierNode) {
+			emit(1, Opcode.PEEK, ((IdentifierNode) expr).slot, token(expr.token));
+		} else {
+			expr.accept(this);
+		}
+	}
+
+	/**
+	 * Compiles the root of an expression, leaving its value on the stack.
+	 */
+	private void expression(ExprNode expr) {
+		expr.accept(this);
+		if (expr.containsOperator) {
+			emit(Opcode.DEBUG_EXPR);
+		}
+	}
+
+	// Expressions
+
+	public Void visitLiteral(LiteralNode node) {
+		emit(1, Opcode.CONST, constant(node.value));
+		return null;
+	}
+
+	public Void visitIdentifier(IdentifierNode node) {
+		emit(1, Opcode.LOAD, node.slot, token(node.token));
+		return null;
+	}
+
+	public Void visitArrayRef(ArrayRefNode node) {
+		emit(0, Opcode.INDEXABLE, node.slot, token(node.token));
+		expression(node.index);
+		emit(0, Opcode.ELEMENT, node.slot, token(node.end));
+		return null;
+	}
+
+	public Void visitSlice(SliceNode node) {
+		emit(0, Opcode.INDEXABLE, node.slot, token(node.token));
+		int mode = Opcode.IS_SLICE;
+		if (node.beginIndex != null) {
+			expression(node.beginIndex);
+			mode |= Opcode.HAS_BEGIN;
+		}
+		if (node.endIndex != null) {
+			expression(node.endIndex);
+			mode |= Opcode.HAS_END;
+		}
+		emit(1 - Integer.bitCount(mode & (Opcode.HAS_BEGIN | Opcode.HAS_END)),
+				Opcode.SLICE, node.slot, token(node.end), mode);
+		return null;
+	}
+
+	public Void visitCall(CallNode node) {
+
+		int function;
+
+		switch (node.name) {
+		case "ELEM":
+			emit(1, Opcode.ELEM, ((IdentifierNode) node.args.get(0)).slot, token(node.args.get(0).token));
+			return null;
+		case "MAXELEM":
+			emit(1, Opcode.MAXELEM, ((IdentifierNode) node.args.get(0)).slot, token(node.args.get(0).token));
+			return null;
+		case "print":
+			function = Opcode.FN_PRINT;
+			break;
+		case "LENGTH":
+			function = Opcode.FN_LENGTH;
+			break;
+		case "SPACES":
+			function = Opcode.FN_SPACES;
+			break;
+		case "dateDiff":
+			function = Opcode.FN_DATE_DIFF;
+			break;
+		case "dateAdj":
+			function = Opcode.FN_DATE_ADJ;
+			break;
+		case "dateAge":
+			function = Opcode.FN_DATE_AGE;
+			break;
+		default:
+			throw new DeclarationError("Attempted to call undefined function " + node.name);
+		}
+
+		for (ExprNode arg : node.args) {
+			if (function == Opcode.FN_LENGTH && arg instanceof IdentifierNode) {
+				// LENGTH consumes its argument right away
+				operand(arg);
+			} else {
+				expression(arg);
+			}
+		}
+		emit(1 - node.args.size(), Opcode.CALL, function, node.args.size(), token(node.end));
+		return null;
+	}
+
+	public Void visitBinary(BinaryNode node) {
+
+		if (node.left == null) {
+			// operator was parsed with a missing operand
+			if (node.right == null) {
+				emit(1, Opcode.NO_OPERAND, token(node.token));
+			} else {
+				node.right.accept(this);
+				emit(0, Opcode.TOO_FEW_OPERANDS, node.operator, token(node.token));
+			}
+			return null;
+		}
+
+		ExprNode[] chain = node.concatenation();
+		if (chain != null && chain.length > 2) {
+			for (ExprNode operand : chain) {
+				operand(operand);
+			}
+			emit(1 - chain.length, Opcode.CONCAT, chain.length, token(node.end));
+			return null;
+		}
+
+		operand(node.left);
+		if (node.operator == Operators.AND || node.operator == Operators.OR) {
+			int toEnd = jump(0, Opcode.JUMP_DECIDED, node.operator, token(node.end));
+			operand(node.right);
+			emit(-1, Opcode.BINARY, node.operator, token(node.end));
+			patch(toEnd);
+			return null;
+		}
+		if (node.operator == Operators.IN || node.operator == Operators.NOTIN) {
+			if (node.right instanceof ValueListNode && ((ValueListNode) node.right).membership != null) {
+				emit(0, Opcode.IN_LIST, node.operator, constant(((ValueListNode) node.right).membership), token(node.end));
+				return null;
+			} else if (node.right instanceof IdentifierNode) {
+				emit(0, Opcode.IN_ARRAY, node.operator, ((IdentifierNode) node.right).slot, 
+						token(node.right.token), token(node.end));
+				return null;
+			}
+		}
+		operand(node.right);
+		emit(-1, Opcode.BINARY, node.operator, token(node.end));
+		return null;
+	}
+
+	public Void visitUnary(UnaryNode node) {
+
+		if (node.operand == null) {
+			emit(1, Opcode.NO_OPERAND, token(node.token));
+			return null;
+		}
+
+		operand(node.operand);
+		emit(0, Opcode.UNARY, node.operator, token(node.end));
+		return null;
+	}
+
+	public Void visitValueList(ValueListNode node) {
+		if (node.value != null) {
+			emit(1, Opcode.CONST, constant(node.value));
+			return null;
+		}
+		Value[] values = new Value[node.items.size()];
+		Token[] tokens = new Token[node.items.size()];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = node.items.get(i).value;
+			tokens[i] = node.items.get(i).token;
+		}
+		emit(1, Opcode.VALUE_LIST, constant(values), constant(tokens));
+		return null;
+	}
+
+	// Statements
+
+	public Void visitBlock(BlockNode node) {
+		for (StmtNode stmt : node.statements) {
+			stmt.accept(this);
+		}
+		return null;
+	}
+
+	public Void visitDeclaration(DeclarationNode node) {
+
+		int name = constant(node.name);
+		int type = node.declaredType.ordinal();
+
+		if (node.structure == StorageStructure.PRIMITIVE) {
+			if (node.init == null) {
+				emit(0, Opcode.DECLARE, name, type);
+			} else {
+				expression(node.init);
+				emit(-1, Opcode.DECLARE_INIT, name, type, token(node.end));
+			}
+		} else if (node.structure == StorageStructure.UNBOUNDED_ARRAY) {
+			if (node.values != null) {
+				expression(node.values);
+				emit(-1, Opcode.DECLARE_UNBOUNDED, name, type, 1);
+			} else {
+				emit(0, Opcode.DECLARE_UNBOUNDED, name, type, 0);
+			}
+		} else {
+			int popped = 0;
+			if (node.size != null) {
+				expression(node.size);
+				popped++;
+			}
+			if (node.values != null) {
+				expression(node.values);
+				popped++;
+			}
+			emit(-popped, Opcode.DECLARE_FIXED, name, type, node.size != null ? 1 : 0, node.values != null ? 1 : 0);
+		}
+		return null;
+	}
+
+	public Void visitAssignment(AssignmentNode node) {
+
+		if (node.copiesVariable) {
+			emit(0, Opcode.STORE_COPY, node.slot, token(node.value.token), token(node.token), token(node.end));
+			return null;
+		}
+
+		emit(0, Opcode.TARGET, node.slot, token(node.token));
+		if (node.operator.equals("=") && appends(node)) {
+			// s = s # x ... adds the other operands to the end of s
+			ExprNode[] chain = ((BinaryNode) node.value).concatenation();
+			for (int i = 1; i < chain.length; i++) {
+				operand(chain[i]);
+			}
+			emit(1 - chain.length, Opcode.APPEND, chain.length - 1, token(chain[0].token), token(node.end));
+		} else if (node.operator.equals("=")) {
+			expression(node.value);
+			emit(-1, Opcode.STORE, token(node.end));
+		} else {
+			// STORE_OP consumes the value like an operator
+			if (node.value instanceof IdentifierNode) {
+				operand(node.value);
+			} else {
+				expression(node.value);
+			}
+			emit(-1, Opcode.STORE_OP, node.compoundOperator, token(node.end));
+		}
+		return null;
+	}
+
+	/**
+	 * Returns true if an assignment has the form s = s # x ..., which APPEND
+	 * carries out without reading s when s is a String variable.
+	 */
+	private boolean appends(AssignmentNode node) {
+		if (!(node.value instanceof BinaryNode)) {
+			return false;
+		}
+		ExprNode[] chain = ((BinaryNode) node.value).concatenation();
+		return chain != null && chain[0] instanceof IdentifierNode
+				&& ((IdentifierNode) chain[0]).slot == node.slot;
+	}
+
+	public Void visitIndexedAssignment(IndexedAssignmentNode node) {
+
+		int mode = node.isSlice ? Opcode.IS_SLICE : 0;
+		int popped = 1;
+
+		emit(0, Opcode.TARGET, node.slot, token(node.token));
+		if (node.beginIndex != null) {
+			expression(node.beginIndex);
+			mode |= Opcode.HAS_BEGIN;
+			popped++;
+		}
+		if (node.endIndex != null) {
+			expression(node.endIndex);
+			mode |= Opcode.HAS_END;
+			popped++;
+		}
+		expression(node.value);
+		emit(-popped, Opcode.STORE_INDEX, token(node.end), mode);
+		return null;
+	}
+
+	public Void visitIf(IfNode node) {
+
+		expression(node.condition);
+		int toElse = jump(-1, Opcode.JUMP_FALSE, token(node.end));
+
+		node.thenBlock.accept(this);
+
+		if (node.elseBlock != null) {
+			int toEnd = jump(0, Opcode.JUMP);
+			patch(toElse);
+			node.elseBlock.accept(this);
+			patch(toEnd);
+		} else {
+			patch(toElse);
+		}
+		return null;
+	}
+
+	public Void visitWhile(WhileNode node) {
+
+		Loop loop = beginLoop();
+		int top = pc;
+
+		expression(node.condition);
+		loop.breaks.add(jump(-1, Opcode.JUMP_FALSE, token(node.end)));
+
+		node.body.accept(this);
+		emit(0, Opcode.JUMP, top);
+
+		patch(loop.continues, top);
+		endLoop(loop);
+		return null;
+	}
+
+	public Void visitForCount(ForCountNode node) {
+
+		Loop loop = beginLoop();
+		int slot = loopDepth - 1;
+
+		expression(node.start);
+		emit(-1, Opcode.FOR_DECLARE, constant(node.name), slot);
+		expression(node.limit);
+		if (node.incr != null) {
+			expression(node.incr);
+		} else {
+			emit(1, Opcode.CONST, constant(new Value(1)));
+		}
+		emit(-2, Opcode.FOR_PREPARE, slot, token(node.end));
+
+		int top = pc;
+		emit(0, Opcode.FOR_TEST, slot, -1);
+		loop.breaks.add(pc - 1);
+
+		node.body.accept(this);
+
+		patch(loop.continues, pc);
+		emit(0, Opcode.FOR_STEP, slot);
+		emit(0, Opcode.JUMP, top);
+
+		endLoop(loop);
+		return null;
+	}
+
+	public Void visitForIn(ForInNode node) {
+
+		Loop loop = beginLoop();
+		int slot = loopDepth - 1;
+
+		emit(0, Opcode.FORIN_INIT, constant(node.name), constant(node.sourceName), slot,
+				token(node.sourceToken), node.iterable != null ? 1 : 0);
+		if (node.iterable != null) {
+			expression(node.iterable);
+			emit(-1, Opcode.FORIN_ITERABLE, slot, token(node.end));
+		}
+
+		loopOver(loop, slot, node.body);
+		return null;
+	}
+
+	public Void visitForFrom(ForFromNode node) {
+
+		Loop loop = beginLoop();
+		int slot = loopDepth - 1;
+
+		expression(node.source);
+		emit(-1, Opcode.FOR_DECLARE, constant(node.name), slot);
+		expression(node.delimiter);
+		emit(-1, Opcode.FORFROM_PREPARE, slot, token(node.end));
+
+		loopOver(loop, slot, node.body);
+		return null;
+	}
+
+	/**
+	 * Emits the loop over the values prepared in a loop slot.
+	 */
+	private void loopOver(Loop loop, int slot, BlockNode body) {
+
+		int top = pc;
+		emit(0, Opcode.FORIN_NEXT, slot, -1);
+		loop.breaks.add(pc - 1);
+
+		body.accept(this);
+		emit(0, Opcode.JUMP, top);
+
+		patch(loop.continues, top);
+		endLoop(loop);
+	}
+
+	public Void visitSelect(SelectNode node) {
+
+		int slot = selectDepth++;
+		maxSelectDepth = Math.max(maxSelectDepth, selectDepth);
+
+		expression(node.control);
+		emit(-1, Opcode.POP);
+		emit(0, Opcode.SELECT, constant(node.controlName), slot, token(node.end));
+
+		List<Integer> toEnd = new ArrayList<>();
+
+		if (node.table != null) {
+			// one lookup in the case table, targets are the when bodies
+			// followed by the default
+			int[] targets = new int[node.whens.size() + 1];
+			emit(0, Opcode.SWITCH, slot, constant(node.table), constant(targets));
+			for (int i = 0; i < node.whens.size(); i++) {
+				targets[i] = pc;
+				node.whens.get(i).body.accept(this);
+				toEnd.add(jump(0, Opcode.JUMP));
+			}
+			targets[node.whens.size()] = pc;
+		} else {
+			int[] toBody = new int[node.whens.size()];
+			for (int i = 0; i < toBody.length; i++) {
+				expression(node.whens.get(i).values);
+				emit(-1, Opcode.CASE, slot, -1);
+				toBody[i] = pc - 1;
+			}
+
+			int toDefault = jump(0, Opcode.JUMP);
+
+			for (int i = 0; i < toBody.length; i++) {
+				patch(toBody[i]);
+				node.whens.get(i).body.accept(this);
+				toEnd.add(jump(0, Opcode.JUMP));
+			}
+
+			patch(toDefault);
+		}
+
+		if (node.defaultBlock != null) {
+			node.defaultBlock.accept(this);
+		}
+		patch(toEnd, pc);
+
+		selectDepth--;
+		return null;
+	}
+
+	public Void visitBreak(BreakNode node) {
+		Loop loop = loops.get(loops.size() - 1);
+		if (node.isContinue) {
+			loop.continues.add(jump(0, Opcode.JUMP));
+		} else {
+			loop.breaks.add(jump(0, Opcode.JUMP));
+		}
+		return null;
+	}
+
+	public Void visitDebug(DebugNode node) {
+		int kind;
+		switch (node.kind) {
+		case "assignment":
+			kind = Opcode.DEBUG_ASSIGNMENT;
+			break;
+		case "expression":
+			kind = Opcode.DEBUG_EXPRESSION;
+			break;
+		default:
+			kind = Opcode.DEBUG_TOKEN;
+			break;
+		}
+		emit(0, Opcode.DEBUG, kind, node.state ? 1 : 0);
+		return null;
+	}
+
+	public Void visitCallStmt(CallStmtNode node) {
+		node.call.accept(this);
+		emit(-1, Opcode.POP);
+		return null;
+	}
+
+}
@@ -0,0 +1,118 @@
+package havabol.vm;
+
+/**
+ * Instruction set of the Havabol virtual machine. Each instruction is an
+ * opcode followed by its operands in the int[] code of a Program. Operands
+ * written as name, token or value refer to entries of the constant pool,
+ * operands written as var are frame slots of variables (SymbolTable.slot).
+ * Stack effects are given as [popped -> pushed].
+ */
+public final class Opcode {
+	
+	// Expressions
+	public static final int CONST = 0;             // value                      [ -> value]
+	public static final int LOAD = 1;              // var token                  [ -> value]
+	public static final int INDEXABLE = 2;         // var token                  [ -> ] checks var is an array or string
+	public static final int ELEMENT = 3;           // var end                    [index -> value]
+	public static final int SLICE = 4;             // var end mode               [begin? end? -> value]
+	public static final int BINARY = 5;            // operator end               [op1 op2 -> value]
+	public static final int UNARY = 6;             // operator end               [op1 -> value]
+	public static final int NO_OPERAND = 7;        // token                      throws
+	public static final int TOO_FEW_OPERANDS = 8;  // operator token             throws
+	public static final int VALUE_LIST = 9;        // values tokens              [ -> list]
+	public static final int CALL = 10;             // function argc end          [args -> value]
+	public static final int ELEM = 11;             // var token                  [ -> value]
+	public static final int MAXELEM = 12;          // var token                  [ -> value]
+	public static final int POP = 13;              //                            [value -> ]
+	public static final int DEBUG_EXPR = 14;       //                            [value -> value]
+	
+	// Declarations and assignments
+	public static final int DECLARE = 15;          // name type                  [ -> ]
+	public static final int DECLARE_INIT = 16;     // name type end              [value -> ]
+	public static final int DECLARE_UNBOUNDED = 17;// name type hasValues        [list? -> ]
+	public static final int DECLARE_FIXED = 18;    // name type hasSize hasValues [size? list? -> ]
+	public static final int TARGET = 19;           // var token                  [ -> ] looks up the assignment target
+	public static final int STORE = 20;            // end                        [value -> ]
+	public static final int STORE_COPY = 21;       // var source token end       [ -> ] source is a token
+	public static final int STORE_OP = 22;         // operator end               [value -> ]
+	public static final int STORE_INDEX = 23;      // end mode                   [begin? end? value -> ]
+	
+	// Control flow
+	public static final int JUMP = 24;             // target
+	public static final int JUMP_FALSE = 25;       // target end                 [cond -> ]
+	public static final int FOR_DECLARE = 26;      // name slot                  [value -> ]
+	public static final int FOR_PREPARE = 27;      // slot end                   [limit incr -> ]
+	public static final int FOR_TEST = 28;         // slot target
+	public static final int FOR_STEP = 29;         // slot
+	public static final int FORIN_INIT = 30;       // name source slot token hasIterable
+	public static final int FORIN_ITERABLE = 31;   // slot end                   [iterable -> ]
+	public static final int FORFROM_PREPARE = 32;  // slot end                   [delimiter -> ]
+	public static final int FORIN_NEXT = 33;       // slot target
+	public static final int SELECT = 34;           // name slot end
+	public static final int CASE = 35;             // slot target                [list -> ]
+	public static final int DEBUG = 36;            // kind state
+	public static final int HALT = 37;
+	
+	// Variable reads for operators, quickened forms of BINARY and short-circuit jumps
+	public static final int PEEK = 38;             // var token                  [ -> value] LOAD for an operand the next operator consumes
+	public static final int BINARY_INT = 39;       // operator end               [op1 op2 -> value] BINARY seen with Int operands
+	public static final int BINARY_FLOAT = 40;     // operator end               [op1 op2 -> value] BINARY seen with Float operands
+	public static final int JUMP_DECIDED = 41;     // target operator end        [op1 -> op1 | result] skips the right operand of and/or once op1 decides it
+	
+	// String building
+	public static final int CONCAT = 42;           // count end                  [op1 ... opN -> value] joins a chain of # at once
+	public static final int APPEND = 43;           // count token end            [op2 ... opN -> ] target = target # op2 # ... # opN
+	
+	// Membership, IN and NOTIN searching a hash index of their right operand
+	public static final int IN_LIST = 44;          // operator index end         [op1 -> value] index is the Membership of a literal list
+	public static final int IN_ARRAY = 45;         // operator var token end     [op1 -> value] searches the array in var, PEEK and BINARY otherwise
+	
+	// Select through a case table
+	public static final int SWITCH = 46;           // slot table targets         [ -> ] jumps to targets[when] for the when the table selects, the last target if none
+	
+	// Number of operands following each opcode
+	public static final int[] OPERANDS = {
+		1, 2, 2, 2, 3, 2, 2, 1, 2, 2, 3, 2, 2, 0, 0,
+		2, 3, 3, 4, 2, 1, 4, 2, 2,
+		1, 2, 2, 2, 2, 1, 5, 2, 2, 2, 3, 2, 2, 0,
+		2, 2, 2, 3,
+		2, 3,
+		3, 4,
+		3
+	};
+	
+	public static final String[] NAMES = {
+		"CONST", "LOAD", "INDEXABLE", "ELEMENT", "SLICE", "BINARY", "UNARY", "NO_OPERAND",
+		"TOO_FEW_OPERANDS", "VALUE_LIST", "CALL", "ELEM", "MAXELEM", "POP", "DEBUG_EXPR",
+		"DECLARE", "DECLARE_INIT", "DECLARE_UNBOUNDED", "DECLARE_FIXED", "TARGET", "STORE", "STORE_COPY",
+		"STORE_OP", "STORE_INDEX",
+		"JUMP", "JUMP_FALSE", "FOR_DECLARE", "FOR_PREPARE", "FOR_TEST", "FOR_STEP", "FORIN_INIT",
+		"FORIN_ITERABLE", "FORFROM_PREPARE", "FORIN_NEXT", "SELECT", "CASE", "DEBUG", "HALT",
+		"PEEK", "BINARY_INT", "BINARY_FLOAT", "JUMP_DECIDED",
+		"CONCAT", "APPEND",
+		"IN_LIST", "IN_ARRAY",
+		"SWITCH"
+	};
+	
+	// SLICE and STORE_INDEX mode bits
+	public static final int HAS_BEGIN = 1;
+	public static final int HAS_END = 2;
+	public static final int IS_SLICE = 4;
+	
+	// CALL functions
+	public static final int FN_PRINT = 0;
+	public static final int FN_LENGTH = 1;
+	public static final int FN_SPACES = 2;
+	public static final int FN_DATE_DIFF = 3;
+	public static final int FN_DATE_ADJ = 4;
+	public static final int FN_DATE_AGE = 5;
+	
+	// DEBUG kinds
+	public static final int DEBUG_ASSIGNMENT = 0;
+	public static final int DEBUG_EXPRESSION = 1;
+	public static final int DEBUG_TOKEN = 2;
+	
+	private Opcode() {
+	}
+	
+}
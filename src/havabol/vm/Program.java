@@ -0,0 +1,43 @@
+package havabol.vm;
+
+/**
+ * A compiled Havabol program: instructions plus the constant pool they
+ * refer to, and the sizes of the VM registers it needs.
+ */
+public class Program {
+	
+	public int[] code;
+	public Object[] constants;
+	public int maxStack;
+	// Nesting depth of loops and selects, one register slot per level
+	public int loopSlots;
+	public int selectSlots;
+	
+	public Program(int[] code, Object[] constants, int maxStack, int loopSlots, int selectSlots) {
+		this.code = code;
+		this.constants = constants;
+		this.maxStack = maxStack;
+		this.loopSlots = loopSlots;
+		this.selectSlots = selectSlots;
+	}
+	
+	/**
+	 * Function: disassemble
+	 * @return one line per instruction: address, opcode name and operands
+	 */
+	public String disassemble() {
+		StringBuilder str = new StringBuilder();
+		int pc = 0;
+		while (pc < code.length) {
+			int op = code[pc];
+			str.append(String.format("%5d  %-18s", pc, Opcode.NAMES[op]));
+			for (int i = 1; i <= Opcode.OPERANDS[op]; i++) {
+				str.append(' ').append(code[pc + i]);
+			}
+			str.append('\n');
+			pc += 1 + Opcode.OPERANDS[op];
+		}
+		return str.toString();
+	}
+	
+}
@@ -0,0 +1,727 @@
+package havabol.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import havabol.error.*;
+import havabol.error.InternalError;
+import havabol.lexer.Token;
+import havabol.parser.*;
+import havabol.runtime.*;
+import havabol.storage.*;
+
+/**
+ * Runs a Program produced by Compiler. Values are kept on an operand stack;
+ * loops and selects keep their state in registers indexed by nesting depth.
+ *
+ * As in Evaluator, the scanner is positioned on the token the direct
+ * interpreter would be on before each step that can fail, so error messages
+ * report the same location.
+ */
+public class VM {
+
+	private Parser parser;
+	private SymbolTable symbolTable;
+
+	/**
+	 * Function/Constructor: VM
+	 * @param parser parser holding the scanner, symbol table and debug settings
+	 */
+	public VM(Parser parser) {
+		this.parser = parser;
+		this.symbolTable = parser.symbolTable;
+	}
+
+	/**
+	 * Positions the scanner on a token from the constant pool.
+	 */
+	private void at(Object[] constants, int token) {
+		if (token >= 0) {
+			parser.scanner.setCurrentToken((Token) constants[token]);
+		}
+	}
+
+	private STIdentifier variable(int slot) {
+		return symbolTable.getVariable(parser, slot);
+	}
+
+	private static boolean isArray(STIdentifier variable) {
+		return variable.structure == StorageStructure.FIXED_ARRAY
+				|| variable.structure == StorageStructure.UNBOUNDED_ARRAY;
+	}
+
+	private Value[] toCharValues(Value value) {
+		char[] strToLoop = value.asString(parser).text().toCharArray();
+		Value[] values = new Value[strToLoop.length];
+		for (int i = 0; i < strToLoop.length; i++) {
+			values[i] = new Value(String.valueOf(strToLoop[i]));
+		}
+		return values;
+	}
+
+	private void debugAssignment(String name, Value value) {
+		if (parser.debugAssignment) {
+			System.out.println("\t\t... Assignment variable = " + name);
+			System.out.println("\t\t... Assignment value = " + value);
+		}
+	}
+
+	/**
+	 * Assigns a value to a whole variable the way the direct interpreter does:
+	 * fixed arrays take a copy in every element, unbounded arrays need a list.
+	 */
+	private void store(STIdentifier variable, Value toAssign, Object[] constants, int end) {
+
+		Value rhsExpr = null;
+
+		at(constants, end);
+
+		if (variable.structure == StorageStructure.FIXED_ARRAY) {
+			if (toAssign.structure == Structure.PRIMITIVE) {
+				// fixedM = 4 + 1; sets every element
+				variable.arrayStorage.fill(parser, toAssign);
+			} else {
+				variable.setValue(parser, toAssign);
+			}
+		} else if (variable.structure == StorageStructure.UNBOUNDED_ARRAY) {
+			if (toAssign.structure == Structure.MULTIVALUE) {
+				variable.setValue(parser, toAssign);
+			} else {
+				throw new TypeError("Cannot perform scalar assignment to an unbounded array", parser.scanner.currentToken);
+			}
+		} else {
+			rhsExpr = toAssign.asType(parser, variable.declaredType);
+			variable.setValue(parser, rhsExpr);
+		}
+
+		debugAssignment(variable.symbol, rhsExpr);
+	}
+
+	/**
+	 * Function: run
+	 * Purpose: executes a compiled program until HALT
+	 * @param program program returned by Compiler.compile
+	 */
+	public void run(Program program) {
+
+		final int[] code = program.code;
+		final Object[] constants = program.constants;
+		final DataType[] types = DataType.values();
+
+		Value[] stack = new Value[program.maxStack + 1];
+		int sp = 0;
+
+		// Loop registers
+		STIdentifier[] loopVar = new STIdentifier[program.loopSlots];
+		int[] loopLimit = new int[program.loopSlots];
+		int[] loopIncr = new int[program.loopSlots];
+		ArrayStorage[] loopOver = new ArrayStorage[program.loopSlots];
+		int[] loopIndex = new int[program.loopSlots];
+
+		// Select registers
+		STIdentifier[] selectVar = new STIdentifier[program.selectSlots];
+
+		int pc = 0;
+		STIdentifier variable;
+		// Variable being assigned, set by TARGET
+		STIdentifier target = null;
+		Value value;
+		int slot;
+
+		for (;;) {
+			int op = code[pc];
+			switch (op) {
+
+			case Opcode.CONST:
+				stack[sp++] = (Value) constants[code[pc + 1]];
+				pc += 2;
+				break;
+
+			case Opcode.LOAD:
+				at(constants, code[pc + 2]);
+				variable = variable(code[pc + 1]);
+				stack[sp++] = isArray(variable) ? variable.sliceWithoutEnd(parser, 0) : variable.getValue();
+				pc += 3;
+				break;
+
+			case Opcode.PEEK:
+				at(constants, code[pc + 2]);
+				variable = variable(code[pc + 1]);
+				stack[sp++] = isArray(variable) ? variable.sliceWithoutEnd(parser, 0) : variable.peekValue();
+				pc += 3;
+				break;
+
+			case Opcode.INDEXABLE:
+				at(constants, code[pc + 2]);
+				variable = variable(code[pc + 1]);
+				if (!isArray(variable) && variable.peekValue().dataType != DataType.STRING) {
+					throw new TypeError("Expected an array type but found " + variable.structure, parser.scanner.currentToken);
+				}
+				pc += 3;
+				break;
+
+			case Opcode.ELEMENT: {
+				int index = stack[--sp].asInteger(parser).intValue;
+				at(constants, code[pc + 2]);
+				variable = variable(code[pc + 1]);
+				if (isArray(variable)) {
+					if (index == -1) {
+						if (variable.structure == StorageStructure.UNBOUNDED_ARRAY) {
+							index = variable.maxPopulatedIndex;
+						} else {
+							index = variable.declaredSize - 1;
+						}
+					}
+					stack[sp++] = variable.fetch(parser, index);
+				} else {
+					Value str = variable.peekValue().asString(parser);
+					if (index == -1) {
+						index = str.length() - 1;
+					}
+					stack[sp++] = new Value("" + str.charAt(index));
+				}
+				pc += 3;
+				break;
+			}
+
+			case Opcode.SLICE: {
+				int mode = code[pc + 3];
+				int beginIndex = 0;
+				int endIndex = 0;
+				if ((mode & Opcode.HAS_END) != 0) {
+					endIndex = stack[--sp].asInteger(parser).intValue;
+				}
+				if ((mode & Opcode.HAS_BEGIN) != 0) {
+					beginIndex = stack[--sp].asInteger(parser).intValue;
+				}
+				at(constants, code[pc + 2]);
+				variable = variable(code[pc + 1]);
+				if ((mode & Opcode.HAS_BEGIN) == 0) {
+					stack[sp++] = variable.sliceWithoutBegin(parser, endIndex);
+				} else if ((mode & Opcode.HAS_END) == 0) {
+					stack[sp++] = variable.sliceWithoutEnd(parser, beginIndex);
+				} else {
+					stack[sp++] = variable.fetchSlice(parser, beginIndex, endIndex);
+				}
+				pc += 4;
+				break;
+			}
+
+			case Opcode.BINARY: {
+				Value op2 = stack[--sp];
+				Value op1 = stack[sp - 1];
+				at(constants, code[pc + 2]);
+				if (code[pc + 1] < 0) {
+					throw new UnsupportedOperationError("The expression cannot be evaluated because of an invalid operator.", parser.scanner.currentToken);
+				}
+				stack[sp - 1] = Operators.binary(parser, code[pc + 1], op1, op2);
+				// specialize the instruction to the operand types it sees
+				if (Operators.isNumeric(code[pc + 1]) && op1.dataType == op2.dataType) {
+					if (op1.dataType == DataType.INTEGER) {
+						code[pc] = Opcode.BINARY_INT;
+					} else if (op1.dataType == DataType.FLOAT) {
+						code[pc] = Opcode.BINARY_FLOAT;
+					}
+				}
+				pc += 3;
+				break;
+			}
+
+			case Opcode.BINARY_INT:
+				if (stack[sp - 2].dataType != DataType.INTEGER || stack[sp - 1].dataType != DataType.INTEGER) {
+					// types changed, run it as BINARY again
+					code[pc] = Opcode.BINARY;
+					break;
+				}
+				sp--;
+				at(constants, code[pc + 2]);
+				stack[sp - 1] = Operators.intBinary(parser, code[pc + 1], stack[sp - 1].intValue, stack[sp].intValue);
+				pc += 3;
+				break;
+
+			case Opcode.BINARY_FLOAT:
+				if (stack[sp - 2].dataType != DataType.FLOAT || stack[sp - 1].dataType != DataType.FLOAT) {
+					code[pc] = Opcode.BINARY;
+					break;
+				}
+				sp--;
+				at(constants, code[pc + 2]);
+				stack[sp - 1] = Operators.floatBinary(code[pc + 1], stack[sp - 1].floatValue, stack[sp].floatValue);
+				pc += 3;
+				break;
+
+			case Opcode.IN_LIST:
+				at(constants, code[pc + 3]);
+				stack[sp - 1] = Value.valueOf(((Membership) constants[code[pc + 2]]).contains(parser, stack[sp - 1])
+						== (code[pc + 1] == Operators.IN));
+				pc += 4;
+				break;
+
+			case Opcode.IN_ARRAY:
+				at(constants, code[pc + 3]);
+				variable = variable(code[pc + 2]);
+				if (isArray(variable)) {
+					Membership membership = variable.membership(parser);
+					at(constants, code[pc + 4]);
+					stack[sp - 1] = Value.valueOf(membership.contains(parser, stack[sp - 1]) == (code[pc + 1] == Operators.IN));
+				} else {
+					Value op2 = variable.peekValue();
+					at(constants, code[pc + 4]);
+					stack[sp - 1] = Operators.binary(parser, code[pc + 1], stack[sp - 1], op2);
+				}
+				pc += 5;
+				break;
+
+			case Opcode.UNARY:
+				at(constants, code[pc + 2]);
+				stack[sp - 1] = Operators.unary(parser, code[pc + 1], stack[sp - 1]);
+				pc += 3;
+				break;
+
+			case Opcode.NO_OPERAND:
+				throw new UnsupportedOperationError("No operand(s) to be evaluated by the operator.", (Token) constants[code[pc + 1]]);
+
+			case Opcode.TOO_FEW_OPERANDS: {
+				Token token = (Token) constants[code[pc + 2]];
+				String message = "Too few operands for operation to be evaluated";
+				if (code[pc + 1] >= Operators.NOT_EQUAL && code[pc + 1] <= Operators.NOTIN) {
+					message += ".";
+				}
+				throw new UnsupportedOperationError(message, token.iSourceLineNr, token.iColPos);
+			}
+
+			case Opcode.VALUE_LIST: {
+				Value[] items = (Value[]) constants[code[pc + 1]];
+				Token[] tokens = (Token[]) constants[code[pc + 2]];
+
+				Value array = new Value();
+				array.structure = Structure.MULTIVALUE;
+				array.numItems = 0;
+
+				// type of the list is that of the first element
+				array.add(parser, items[0]);
+				array.dataType = items[0].dataType;
+
+				for (int i = 1; i < items.length; i++) {
+					parser.scanner.setCurrentToken(tokens[i]);
+					array.add(parser, items[i].asType(parser, array.dataType));
+				}
+
+				stack[sp++] = array;
+				pc += 3;
+				break;
+			}
+
+			case Opcode.CALL:
+				sp = call(code[pc + 1], code[pc + 2], stack, sp, constants, code[pc + 3]);
+				pc += 4;
+				break;
+
+			case Opcode.ELEM:
+				at(constants, code[pc + 2]);
+				stack[sp++] = Functions.elem(parser, variable(code[pc + 1]));
+				pc += 3;
+				break;
+
+			case Opcode.MAXELEM:
+				at(constants, code[pc + 2]);
+				stack[sp++] = Functions.maxElem(parser, variable(code[pc + 1]));
+				pc += 3;
+				break;
+
+			case Opcode.POP:
+				stack[--sp] = null;
+				pc += 1;
+				break;
+
+			case Opcode.DEBUG_EXPR:
+				if (parser.debugExpr) {
+					System.out.println("\t\t... Expression result = " + stack[sp - 1]);
+				}
+				pc += 1;
+				break;
+
+			case Opcode.DECLARE:
+				variable = new STIdentifier((String) constants[code[pc + 1]], types[code[pc + 2]], StorageStructure.PRIMITIVE);
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				pc += 3;
+				break;
+
+			case Opcode.DECLARE_INIT:
+				value = stack[--sp];
+				at(constants, code[pc + 3]);
+				variable = new STIdentifier((String) constants[code[pc + 1]], types[code[pc + 2]], StorageStructure.PRIMITIVE);
+				if (value.structure != Structure.PRIMITIVE) {
+					throw new TypeError("Right hand side of assignment must be a primitive value if variable is primitive", parser.scanner.currentToken);
+				}
+				variable.setValue(parser, value.asType(parser, variable.declaredType));
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				pc += 4;
+				break;
+
+			case Opcode.DECLARE_UNBOUNDED:
+				variable = new STIdentifier((String) constants[code[pc + 1]], types[code[pc + 2]], StorageStructure.UNBOUNDED_ARRAY);
+				if (code[pc + 3] != 0) {
+					variable.setValue(parser, stack[--sp]);
+				} else {
+					variable.allocate(0);
+				}
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				pc += 4;
+				break;
+
+			case Opcode.DECLARE_FIXED: {
+				variable = new STIdentifier((String) constants[code[pc + 1]], types[code[pc + 2]], StorageStructure.FIXED_ARRAY);
+				Value list = code[pc + 4] != 0 ? stack[--sp] : null;
+				if (code[pc + 3] == 0) {
+					// Array size depends on the length of given value list
+					variable.allocate(list.numItems);
+					variable.declaredSize = list.numItems;
+				} else {
+					int declaredSize = stack[--sp].asInteger(parser).intValue;
+					variable.allocate(declaredSize);
+					variable.declaredSize = declaredSize;
+					if (list != null && list.numItems > variable.declaredSize) {
+						throw new IndexError("Value list contains too many elements to fit into given array");
+					}
+				}
+				if (list != null) {
+					for (int i = 0; i < list.numItems; i++) {
+						variable.arrayStorage.set(parser, i, list.arrayValue.get(i));
+					}
+				}
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				pc += 5;
+				break;
+			}
+
+			case Opcode.TARGET:
+				at(constants, code[pc + 2]);
+				target = variable(code[pc + 1]);
+				pc += 3;
+				break;
+
+			case Opcode.STORE_COPY: {
+				at(constants, code[pc + 3]);
+				target = variable(code[pc + 1]);
+				Token source = (Token) constants[code[pc + 2]];
+				parser.scanner.setCurrentToken(source);
+				variable = (STIdentifier) symbolTable.getSymbol(parser, source.tokenStr);
+				if (target.structure == StorageStructure.FIXED_ARRAY && isArray(variable)) {
+					// fixedM = myArray; fills fixedM with elements from myArray
+					int fillSize = Math.min(target.declaredSize, variable.declaredSize);
+					target.arrayStorage.copyFrom(parser, variable.arrayStorage, fillSize);
+					debugAssignment(target.symbol, null);
+				} else {
+					// not an array copy, assign the value of the variable instead
+					value = isArray(variable) ? variable.sliceWithoutEnd(parser, 0) : variable.getValue();
+					store(target, value, constants, code[pc + 4]);
+				}
+				pc += 5;
+				break;
+			}
+
+			case Opcode.STORE:
+				store(target, stack[--sp], constants, code[pc + 1]);
+				pc += 2;
+				break;
+
+			case Opcode.STORE_OP:
+				value = stack[--sp];
+				at(constants, code[pc + 2]);
+				// +=, -=, *= and /= apply the operator to the current value
+				target.apply(parser, code[pc + 1], value);
+				debugAssignment(target.symbol, target.peekValue());
+				pc += 3;
+				break;
+
+			case Opcode.STORE_INDEX: {
+				int mode = code[pc + 2];
+				Value rhsExpr = stack[--sp];
+				int beginIndex = 0;
+				int endIndex = 0;
+				if ((mode & Opcode.HAS_END) != 0) {
+					endIndex = stack[--sp].asInteger(parser).intValue;
+				}
+				if ((mode & Opcode.HAS_BEGIN) != 0) {
+					beginIndex = stack[--sp].asInteger(parser).intValue;
+				}
+				at(constants, code[pc + 1]);
+
+				if (isArray(target)) {
+					target.set(parser, beginIndex, rhsExpr);
+				} else if (target.peekValue().dataType == DataType.STRING) {
+					if ((mode & Opcode.IS_SLICE) != 0) {
+						target.splice(parser, beginIndex, endIndex, (mode & Opcode.HAS_END) != 0, rhsExpr.asString(parser).text());
+					} else {
+						target.splice(parser, beginIndex, rhsExpr.asString(parser).text());
+					}
+				} else {
+					throw new TypeError("Cannot assign to non-string / non-array value", parser.scanner.currentToken);
+				}
+				debugAssignment(target.symbol, rhsExpr);
+				pc += 3;
+				break;
+			}
+
+			case Opcode.JUMP:
+				pc = code[pc + 1];
+				break;
+
+			case Opcode.JUMP_FALSE:
+				value = stack[--sp];
+				at(constants, code[pc + 2]);
+				pc = value.asBoolean(parser).booleanValue ? pc + 3 : code[pc + 1];
+				break;
+
+			case Opcode.JUMP_DECIDED: {
+				at(constants, code[pc + 3]);
+				boolean left = stack[sp - 1].asBoolean(parser).booleanValue;
+				if (left == (code[pc + 2] == Operators.OR)) {
+					stack[sp - 1] = Value.valueOf(left);
+					pc = code[pc + 1];
+				} else {
+					pc += 4;
+				}
+				break;
+			}
+
+			case Opcode.CONCAT: {
+				int count = code[pc + 1];
+				sp -= count - 1;
+				at(constants, code[pc + 2]);
+				stack[sp - 1] = Operators.concatenate(parser, stack, sp - 1, count);
+				pc += 3;
+				break;
+			}
+
+			case Opcode.APPEND: {
+				int count = code[pc + 1];
+				sp -= count;
+				if (!parser.debugExpr && target.appendable()) {
+					at(constants, code[pc + 3]);
+					target.append(Operators.concatenate(parser, stack, sp, count).text());
+					if (parser.debugAssignment) {
+						debugAssignment(target.symbol, target.peekValue());
+					}
+				} else {
+					// the whole value is needed, or target is not a String
+					at(constants, code[pc + 2]);
+					value = isArray(target) ? target.sliceWithoutEnd(parser, 0) : target.peekValue();
+					at(constants, code[pc + 3]);
+					for (int i = 0; i < count; i++) {
+						value = Operators.binary(parser, Operators.CONCATENATE, value, stack[sp + i]);
+					}
+					if (parser.debugExpr) {
+						System.out.println("\t\t... Expression result = " + value);
+					}
+					store(target, value, constants, code[pc + 3]);
+				}
+				pc += 4;
+				break;
+			}
+
+			case Opcode.FOR_DECLARE:
+				value = stack[--sp];
+				slot = code[pc + 2];
+				variable = new STIdentifier((String) constants[code[pc + 1]], value.dataType, StorageStructure.PRIMITIVE);
+				variable.setValue(parser, value);
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				loopVar[slot] = variable;
+				pc += 3;
+				break;
+
+			case Opcode.FOR_PREPARE: {
+				slot = code[pc + 1];
+				Value incr = stack[--sp];
+				Value limit = stack[--sp];
+				at(constants, code[pc + 2]);
+				variable = loopVar[slot];
+				variable.setValue(parser, variable.getValue().asInteger(parser));
+				loopLimit[slot] = limit.asInteger(parser).intValue;
+				loopIncr[slot] = incr.asInteger(parser).intValue;
+				pc += 3;
+				break;
+			}
+
+			case Opcode.FOR_TEST:
+				slot = code[pc + 1];
+				pc = loopVar[slot].peekValue().intValue < loopLimit[slot] ? pc + 3 : code[pc + 2];
+				break;
+
+			case Opcode.FOR_STEP:
+				slot = code[pc + 1];
+				loopVar[slot].setInt(loopVar[slot].peekValue().intValue + loopIncr[slot]);
+				pc += 2;
+				break;
+
+			case Opcode.FORIN_INIT: {
+				String sourceName = (String) constants[code[pc + 2]];
+				slot = code[pc + 3];
+				at(constants, code[pc + 4]);
+
+				if (!symbolTable.containsSymbol(sourceName)) {
+					throw new InternalError("Implictly generated symbol does not exist");
+				}
+				STIdentifier array = (STIdentifier) symbolTable.getSymbol(parser, sourceName);
+				if (!isArray(array) && array.declaredType != DataType.STRING) {
+					throw new TypeError("Cannot iterate over " + sourceName + " because it is not a string or array", parser.scanner.currentToken);
+				}
+
+				variable = new STIdentifier((String) constants[code[pc + 1]], array.declaredType, StorageStructure.PRIMITIVE);
+				symbolTable.createSymbol(parser, variable.symbol, variable);
+				loopVar[slot] = variable;
+				loopIndex[slot] = 0;
+
+				if (code[pc + 5] == 0) {
+					loopOver[slot] = isArray(array) ? array.arrayStorage : new ArrayStorage(toCharValues(array.getValue()));
+					loopLimit[slot] = loopOver[slot].capacity();
+				}
+				pc += 6;
+				break;
+			}
+
+			case Opcode.FORIN_ITERABLE:
+				slot = code[pc + 1];
+				value = stack[--sp];
+				at(constants, code[pc + 2]);
+				if (value.structure == Structure.MULTIVALUE) {
+					loopOver[slot] = new ArrayStorage(value.arrayValue.toArray(new Value[0]));
+				} else {
+					loopOver[slot] = new ArrayStorage(toCharValues(value));
+				}
+				loopLimit[slot] = loopOver[slot].capacity();
+				pc += 3;
+				break;
+
+			case Opcode.FORFROM_PREPARE: {
+				slot = code[pc + 1];
+				value = stack[--sp];
+				at(constants, code[pc + 2]);
+				variable = loopVar[slot];
+				variable.setValue(parser, variable.getValue().asString(parser));
+				String delim = "\\" + value.asString(parser).text();
+				String[] splitString = variable.getValue().text().split(delim);
+				Value[] words = new Value[splitString.length];
+				for (int i = 0; i < words.length; i++) {
+					words[i] = new Value(splitString[i]);
+				}
+				loopOver[slot] = new ArrayStorage(words);
+				loopLimit[slot] = words.length;
+				loopIndex[slot] = 0;
+				pc += 3;
+				break;
+			}
+
+			case Opcode.FORIN_NEXT: {
+				slot = code[pc + 1];
+				ArrayStorage over = loopOver[slot];
+				int i = over.nextSet(loopIndex[slot]);
+				if (i >= 0 && i < loopLimit[slot]) {
+					loopVar[slot].setValue(parser, over.get(i));
+					loopIndex[slot] = i + 1;
+					pc += 3;
+				} else {
+					loopIndex[slot] = loopLimit[slot];
+					pc = code[pc + 2];
+				}
+				break;
+			}
+
+			case Opcode.SELECT:
+				at(constants, code[pc + 3]);
+				selectVar[code[pc + 2]] = (STIdentifier) symbolTable.getSymbol(parser, (String) constants[code[pc + 1]]);
+				pc += 4;
+				break;
+
+			case Opcode.CASE: {
+				variable = selectVar[code[pc + 1]];
+				List<Value> caseVal = stack[--sp].arrayValue;
+				boolean matches = false;
+				for (Value v : caseVal) {
+					if (variable.declaredType == DataType.STRING) {
+						matches = variable.getValue().text().equals(v.text());
+					} else if (variable.declaredType == DataType.INTEGER) {
+						matches = variable.getValue().intValue == v.intValue;
+					}
+					if (matches) {
+						break;
+					}
+				}
+				pc = matches ? code[pc + 2] : pc + 3;
+				break;
+			}
+
+			case Opcode.SWITCH: {
+				@SuppressWarnings("unchecked")
+				Integer when = ((SelectTable<Integer>) constants[code[pc + 2]]).find(selectVar[code[pc + 1]]);
+				int[] targets = (int[]) constants[code[pc + 3]];
+				pc = targets[when != null ? when : targets.length - 1];
+				break;
+			}
+
+			case Opcode.DEBUG:
+				if (code[pc + 1] == Opcode.DEBUG_ASSIGNMENT) {
+					parser.debugAssignment = code[pc + 2] != 0;
+				} else if (code[pc + 1] == Opcode.DEBUG_EXPRESSION) {
+					parser.debugExpr = code[pc + 2] != 0;
+				}
+				// debug token is applied by AstBuilder while tokens are read
+				pc += 3;
+				break;
+
+			case Opcode.HALT:
+				return;
+
+			default:
+				throw new InternalError("Unknown opcode " + op + " at " + pc);
+			}
+		}
+	}
+
+	/**
+	 * Runs a builtin function on the top argc values of the stack.
+	 * @return the new stack pointer, with the result pushed
+	 */
+	private int call(int function, int argc, Value[] stack, int sp, Object[] constants, int end) {
+
+		int base = sp - argc;
+		Value result;
+
+		at(constants, end);
+
+		switch (function) {
+		case Opcode.FN_PRINT:
+			List<Value> args = new ArrayList<>(argc);
+			for (int i = base; i < sp; i++) {
+				args.add(stack[i]);
+			}
+			result = Functions.print(parser, args);
+			break;
+		case Opcode.FN_LENGTH:
+			result = Functions.length(parser, stack[base]);
+			break;
+		case Opcode.FN_SPACES:
+			result = Functions.spaces(parser, stack[base]);
+			break;
+		case Opcode.FN_DATE_DIFF:
+			result = Functions.dateDiff(parser, stack[base], stack[base + 1]);
+			break;
+		case Opcode.FN_DATE_ADJ:
+			result = Functions.dateAdj(parser, stack[base], stack[base + 1]);
+			break;
+		case Opcode.FN_DATE_AGE:
+			result = Functions.dateAge(parser, stack[base], stack[base + 1]);
+			break;
+		default:
+			throw new InternalError("Unknown function " + function);
+		}
+
+		for (int i = base; i < sp; i++) {
+			stack[i] = null;
+		}
+		stack[base] = result;
+		return base + 1;
+	}
+
+}